@@ -6,33 +6,64 @@ import android.os.Binder;
 import android.os.IBinder;
 import android.util.Log;
 import androidx.annotation.WorkerThread;
+import com.example.batterydashboard.R;
 import de.frauas.informatik.batterydashboard.ui.Battery;
+import de.frauas.informatik.batterydashboard.ui.BatteryFleet;
+import de.frauas.informatik.batterydashboard.ui.DistanceMeter;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * >>>> set printInfo to true to have battery data printed readably to console on every update! <<<<<<</br>
  * This is the DataService that is started by the UiService when the app starts.
  * </br></br>
- * This service implements the OnNewData listener of a StatReceiver (can be RandomReceiver for mocking a connection),
- * through which it gets the data from the hardware battery system (or random data in case of RandomReceiver) as a StringBuilder object.
+ * For every battery pack (see pack_sources in battery_specs.xml) this service starts a StatReceiver (can be RandomReceiver for mocking a connection),
+ * through which it gets the data from the hardware battery system (or random data in case of RandomReceiver) as a StringBuilder object
+ * (text protocol) or as a decoded BmsFrame (binary protocol, set bms_protocol in battery_specs.xml).
+ * The frames are not processed on the receiver's thread: they are handed over to the consumer thread of a FrameDispatcher (one per pack),
+ * so the packs are read and processed in parallel.
+ * By default a FrameMailbox keeps only the newest frame (the dashboard only shows the current state, so queued frames only add latency),
+ * set frame_delivery to lossless to queue every frame in a FrameRing (frame_ring_capacity and frame_ring_overflow in battery_specs.xml).
+ * Every receiver checks the frames with a FrameValidator, so bad frames are counted and quarantined instead of reaching the battery.
+ * Consumers that need every frame of a pack anyway can get them with addLosslessListener().
+ * </br></br>
+ * Set record_bms_stream to true to record the stream of the BMS to the app's external files dir.
+ * If a file named like replay_log is found there, it is replayed by a ReplayReceiver instead of reading the BMS
+ * (the packs after the first one look for "&lt;pack number&gt;_" + replay_log).
+ * Without a BMS, set synthetic_load to true to load test the app with frames generated at synthetic_load_rate (see RandomReceiver).
+ * </br></br>
+ * The speed of the vehicle comes from a SpeedSource on a thread of its own and goes to the DistanceMeter of the fleet
+ * (trip, odometer and the speed for the range). For now that is a ReplaySpeedSource, if a file named like speed_log is found
+ * in the app's external files dir. The lifetime odometer is saved in the app's files dir (odometer_file) when the service stops.
  *</br></br>
- * This service receives a battery object from UiService after being bound. When DataService receives new data
- * (set frequency in the appropriate Receiver class), it sets the new values in the shared battery object.
+ * This service receives a BatteryFleet object from UiService after being bound. When DataService receives new data for a pack
+ * (set frequency in the appropriate Receiver class), it sets the new values in the pack's battery object.
  *
  * @see de.frauas.informatik.batterydashboard.ui.UiService
  * @see RandomReceiver RandomReceiver (extends StatReceiver)
  * @see StatReceiver StatReceiver
  * @see Battery
+ * @see BatteryFleet
  *
  * @author Lehmann (receiver connection etc.)
  * @author filzinge@stud.fra-uas.de
  *
  */
 
-public class BatteryDataService extends Service implements StatReceiver.OnNewDataListener {
+public class BatteryDataService extends Service {
     private static final String TAG = "BatteryDataService";
-    private Battery battery;
+    private volatile BatteryFleet fleet;
+    private Pack[] packs = new Pack[0];
+    private BmsFrame layout;
+    private ProtocolSchema schema;
+    private SpeedSource speedSource; // null if there is none
     private final IBinder binder = new LocalBinder(); // Binder given to clients
     /**
      * set to true to have battery data printed readably to console (Logcat -> info) on every update!
@@ -49,6 +80,62 @@ public class BatteryDataService extends Service implements StatReceiver.OnNewDat
         }
     }
 
+    /**
+     * receiver, worker thread (dispatcher) and listener of one battery pack
+     */
+    private class Pack implements StatReceiver.OnNewDataListener {
+        final int index;
+        StatReceiver receiver;
+        FrameDispatcher dispatcher;
+        final FrameFanOut fanOut = new FrameFanOut();
+        final List<FrameDispatcher> losslessDispatchers = new CopyOnWriteArrayList<>();
+
+        Pack(int index) {
+            this.index = index;
+        }
+
+        /**
+         * React to new Datapacket from the Serial port.
+         * </br>
+         * set printInfo to true to see the data formatted in logcat (info)
+         * @param dataPacket a StringBuilder object containing all values from the StatReceiver
+         */
+        @WorkerThread
+        @Override
+        public void onNewData(StringBuilder dataPacket) {
+            // charging is detected by the ChargeStateMachine of the battery, the UiService switches to the charger dashboard
+            BatteryFleet f = fleet;
+            if (f == null) return; // not bound yet
+
+            // set values in battery
+            Battery battery = f.getPack(index);
+            battery.setValues(dataPacket);
+            if(printInfo) {
+                Log.i(TAG, "onNewData (pack " + index + "): " + dataPacket.toString());
+                battery.printBattery();
+            }
+        }
+
+        /**
+         * React to a new decoded frame (binary protocol or a text frame decoded by the FrameValidator), full or delta frame.
+         * @param frame reusable frame from the StatReceiver
+         */
+        @WorkerThread
+        @Override
+        public void onNewFrame(BmsFrame frame) {
+            BatteryFleet f = fleet;
+            if (f == null) return; // not bound yet
+            Battery battery = f.getPack(index);
+            if (frame.isDelta())
+                battery.applyDelta(frame); // only the changed cells
+            else
+                battery.setValues(frame);
+            if(printInfo) {
+                battery.printBattery();
+            }
+        }
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return binder;
@@ -57,39 +144,113 @@ public class BatteryDataService extends Service implements StatReceiver.OnNewDat
     @Override
     public void onCreate() {
         super.onCreate();
-        // set the data source – either connection to real arduino device or random simulator instead
-        try {
-            File source = new File("/dev/ttyACM0");
-            StatReceiver receiver;
-            if (source.exists())
-                receiver = StatReceiver.getInstance();
-            else
-                receiver = new RandomReceiver();  // simulates random data stream
+        layout = BmsFrame.fromSpecs(getResources());
+        schema = ProtocolSchema.fromSpecs(getResources());
+        String[] sources = getResources().getStringArray(R.array.pack_sources);
+        packs = new Pack[Math.max(1, sources.length)];
+        for (int i = 0; i < packs.length; i++) {
+            packs[i] = new Pack(i);
+            try {
+                startPack(packs[i], new File(sources.length > i ? sources[i] : "/dev/ttyACM0"));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        startSpeedSource();
+    }
 
-            receiver.startReadingFromFile(source, 10, this); // will update data every 10 seconds/frequency
-            receiver.setOnNewDataListener(this);
-        } catch (Exception e) {
+    /**
+     * starts the speed source, its samples go to the fleet's DistanceMeter (once the fleet is set)
+     */
+    private void startSpeedSource() {
+        File speedLog = new File(getExternalFilesDir(null), getString(R.string.speed_log));
+        if (!speedLog.exists()) {
+            Log.i(TAG, "no speed source (" + speedLog + " not found)");
+            return;
+        }
+        speedSource = new ReplaySpeedSource(speedLog, getResources().getInteger(R.integer.replay_speed));
+        speedSource.setOnSpeedListener((timeNanos, kmh) -> {
+            BatteryFleet f = fleet;
+            if (f != null) f.distance().onSpeed(timeNanos, kmh);
+        });
+        try {
+            speedSource.start();
+            Log.i(TAG, "replaying speed from " + speedLog);
+        } catch (IOException e) {
             e.printStackTrace();
+            speedSource = null;
         }
     }
 
     /**
-     * React to new Datapacket from the Serial port.
-     * </br>
-     * set printInfo to true to see the data formatted in logcat (info)
-     * @param dataPacket a StringBuilder object containing all values from the StatReceiver
+     * creates and starts the receiver and the worker of a pack
+     * @param pack the pack
+     * @param source the device of the pack's BMS
      */
-    @WorkerThread
-    @Override
-    public void onNewData(StringBuilder dataPacket) {
-        // TODO find out when battery is charging and set dashboard to charger config – in UiService?!
-
-        // set values in battery
-        battery.setValues(dataPacket);
-        if(printInfo) {
-            Log.i(TAG, "onNewData: " + dataPacket.toString());
-            battery.printBattery();
+    private void startPack(Pack pack, File source) throws IOException {
+        // set the data source – either connection to real arduino device or random simulator instead
+        String replayName = pack.index == 0 ? getString(R.string.replay_log) : pack.index + "_" + getString(R.string.replay_log);
+        File replayLog = new File(getExternalFilesDir(null), replayName);
+        StatReceiver.ReaderMode mode = StatReceiver.ReaderMode.TIMER;
+        StatReceiver receiver;
+        if (replayLog.exists()) {
+            // replay a recorded session (see StreamRecorder)
+            receiver = new ReplayReceiver(getResources().getInteger(R.integer.replay_speed));
+            receiver.setProtocol(StatReceiver.Protocol.AUTO, layout);
+            Log.i(TAG, "pack " + pack.index + ": replaying " + replayLog);
+            source = replayLog;
+        }
+        else if (source.exists()) {
+            receiver = pack.index == 0 ? StatReceiver.getInstance() : new StatReceiver();
+            mode = StatReceiver.ReaderMode.BLOCKING_THREAD; // deliver frames as soon as they arrive
+            receiver.setProtocol(StatReceiver.Protocol.fromConfig(getString(R.string.bms_protocol)), layout);
+            if (getResources().getBoolean(R.bool.record_bms_stream)) {
+                File recording = new File(getExternalFilesDir(null), "bms_" + pack.index + "_" + System.currentTimeMillis() + ".rec");
+                receiver.setRecorder(new StreamRecorder(recording));
+                Log.i(TAG, "pack " + pack.index + ": recording to " + recording);
+            }
+        }
+        else if (getResources().getBoolean(R.bool.synthetic_load)) {
+            // load test: reproducible frames at a high rate (a different seed for every pack)
+            receiver = new RandomReceiver(getResources().getInteger(R.integer.synthetic_load_seed) + pack.index,
+                    layout.cellCount(), layout.tempSensorCount(), layout.blockCount(),
+                    RandomReceiver.NoiseProfile.fromConfig(getString(R.string.synthetic_load_noise)),
+                    getResources().getInteger(R.integer.synthetic_load_rate));
         }
+        else
+            receiver = new RandomReceiver();  // simulates random data stream
+        receiver.setValidator(new FrameValidator(schema)); // bad frames never get to the battery
+        pack.receiver = receiver;
+
+        // decouple reading from processing
+        FrameQueue queue;
+        if ("lossless".equalsIgnoreCase(getString(R.string.frame_delivery)))
+            queue = newRing(FrameRing.OverflowPolicy.fromConfig(getString(R.string.frame_ring_overflow)));
+        else
+            queue = new FrameMailbox(layout); // latest frame wins
+        pack.dispatcher = new FrameDispatcher(queue, pack, layout);
+        pack.dispatcher.start();
+        pack.fanOut.add(pack.dispatcher);
+
+        receiver.setOnNewDataListener(pack.fanOut);
+        receiver.startReading(source, mode, 10, this); // timer mode will update data every 10 seconds/frequency
+    }
+
+    /**
+     * Lets a consumer get every frame of a pack (e.g. to store or evaluate all of them), even if the dashboard only gets the newest one.
+     * The frames are queued in a FrameRing of its own that stalls the receiver when it is full (BLOCK), so the consumer must keep up.
+     * @param pack pack index (0 = first pack)
+     * @param listener gets the frames on a thread of its own
+     */
+    public void addLosslessListener(int pack, StatReceiver.OnNewDataListener listener) {
+        FrameDispatcher lossless = new FrameDispatcher(newRing(FrameRing.OverflowPolicy.BLOCK), listener, layout);
+        lossless.start();
+        packs[pack].losslessDispatchers.add(lossless);
+        packs[pack].fanOut.add(lossless);
+    }
+
+    private FrameRing newRing(FrameRing.OverflowPolicy policy) {
+        return new FrameRing(getResources().getInteger(R.integer.frame_ring_capacity), policy, layout);
     }
 
     @Override
@@ -102,10 +263,64 @@ public class BatteryDataService extends Service implements StatReceiver.OnNewDat
     public void onDestroy() {
         super.onDestroy();
         Log.i(TAG, "...is being destroyed");
-        StatReceiver.getInstance().stop();
+        if (speedSource != null) {
+            speedSource.stop();
+            speedSource.join();
+        }
+        saveOdometer();
+        // stop all receivers first, so they stop at the same time
+        for (Pack pack : packs) {
+            if (pack.receiver != null) pack.receiver.stop();
+        }
+        for (Pack pack : packs) {
+            if (pack.receiver != null) {
+                pack.receiver.join();
+                Log.i(TAG, "pack " + pack.index + ": receiver stopped: " + pack.receiver.getStats());
+                if (pack.receiver.getQuarantine().size() > 0)
+                    Log.w(TAG, "pack " + pack.index + ": last rejected frames:" + System.lineSeparator() + pack.receiver.getQuarantine());
+            }
+            if (pack.dispatcher != null) {
+                pack.dispatcher.stop();
+                pack.dispatcher.join();
+                Log.i(TAG, "pack " + pack.index + ": dispatcher stopped: " + pack.dispatcher.getStats() + " | " + pack.dispatcher.getQueue());
+            }
+            for (FrameDispatcher lossless : pack.losslessDispatchers) {
+                lossless.stop();
+                lossless.join();
+                Log.i(TAG, "pack " + pack.index + ": lossless dispatcher stopped: " + lossless.getStats() + " | " + lossless.getQueue());
+            }
+        }
+    }
+
+    public void setFleet(BatteryFleet fleet) {
+        loadOdometer(fleet.distance());
+        this.fleet = fleet;
+    }
+
+    private File odometerFile() {
+        return new File(getFilesDir(), getString(R.string.odometer_file));
     }
 
-    public void setBattery(Battery battery) {
-        this.battery = battery;
+    /**
+     * sets the lifetime odometer to the value saved when the service stopped the last time
+     */
+    private void loadOdometer(DistanceMeter distance) {
+        File file = odometerFile();
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            distance.setLifetimeMillimetres(in.readLong());
+        } catch (IOException e) {
+            Log.e(TAG, "could not load the odometer", e);
+        }
+    }
+
+    private void saveOdometer() {
+        BatteryFleet f = fleet;
+        if (f == null) return;
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(odometerFile()))) {
+            out.writeLong(f.distance().lifetimeMillimetres());
+        } catch (IOException e) {
+            Log.e(TAG, "could not save the odometer", e);
+        }
     }
 }
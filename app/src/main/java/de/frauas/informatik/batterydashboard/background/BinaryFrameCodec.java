@@ -0,0 +1,300 @@
+package de.frauas.informatik.batterydashboard.background;
+
+/**
+ * Encoder/decoder for the compact binary BMS protocol, an alternative to the text protocol
+ * (CellVoltage:...;...Capacity:...) that is about half the size and needs no number parsing.</br>
+ * All multi-byte fields are little-endian. A frame for 60 cells, 20 sensors and 4 blocks has 192 bytes.
+ * <pre>
+ * offset  size  field
+ * 0       2     sync 0xAA 0x55
+ * 2       1     version (1)
+ * 3       1     frame type (1 = full frame)
+ * 4       2     cell count c (u16)
+ * 6       1     temperature sensor count t
+ * 7       1     block count b
+ * 8       2*c   cell voltages in mV (u16)
+ *         2*t   cell temperatures in 1/10 °C (s16)
+ *         2     driving amperage in 1/10 A (s16)
+ *         2*b   charging amperages in 1/10 A (s16)
+ *         2*b   charger temperatures in 1/10 °C (s16)
+ *         b     capacity per block in % (u8)
+ *         2     CRC16-CCITT (poly 0x1021, init 0xFFFF) over everything after the sync bytes
+ * </pre>
+ * Delta frames (type 2) only carry the values that changed since the previous frame:
+ * <pre>
+ * offset  size  field
+ * 0       2     sync 0xAA 0x55
+ * 2       1     version (1)
+ * 3       1     frame type (2 = delta frame)
+ * 4       2     payload length n (u16, bitmap and values)
+ * 6       1     sequence number (1 for the first delta after a full frame, then counting up)
+ * 7       1     reserved (0)
+ * 8       f/8   bitmap of the changed fields (rounded up, bit i of the bitmap is bit i%8 of byte i/8),
+ *               f = number of fields of the layout in the last full frame (see BmsFrame.fieldCount())
+ *         ...   the changed values in field order, with the same sizes as in a full frame
+ *         2     CRC16-CCITT over everything after the sync bytes
+ * </pre>
+ * A delta can only be applied on top of the full frame (keyframe) and the deltas before it,
+ * so the sender has to send a full frame at least every MAX_DELTAS_PER_KEYFRAME frames.
+ * If a delta is lost (sequence number gap) the receiver ignores deltas until the next full frame.
+ * </br></br>
+ * The methods don't allocate and don't throw on bad input, they return a status instead.
+ *
+ * @see BmsFrame
+ * @see StatReceiver.Protocol
+ */
+
+public final class BinaryFrameCodec {
+    public static final byte SYNC_0 = (byte) 0xAA;
+    public static final byte SYNC_1 = (byte) 0x55;
+    public static final int VERSION = 1;
+    public static final int TYPE_FULL = 1;
+    public static final int TYPE_DELTA = 2;
+    /** sequence numbers of delta frames are one byte, so there has to be a full frame after 255 deltas */
+    public static final int MAX_DELTAS_PER_KEYFRAME = 255;
+    public static final int HEADER_LENGTH = 8;
+    public static final int CRC_LENGTH = 2;
+    /** frames longer than this are treated as garbage (65535 cells would not fit in any buffer anyway) */
+    public static final int MAX_FRAME_LENGTH = 4096;
+
+    // decode results
+    public static final int OK = 0;
+    public static final int TRUNCATED = 1;
+    public static final int BAD_HEADER = 2;
+    public static final int BAD_LAYOUT = 3;
+    public static final int BAD_CRC = 4;
+    public static final int BAD_SEQUENCE = 5; // delta frame that doesn't follow the previous frame
+
+    private static final int[] CRC_TABLE = new int[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private BinaryFrameCodec() {}
+
+    /**
+     * @return the length of a whole frame (header, payload and crc) with the given layout
+     */
+    public static int frameLength(int cellCount, int tempSensorCount, int blockCount) {
+        return HEADER_LENGTH + 2 * cellCount + 2 * tempSensorCount + 2 + 5 * blockCount + CRC_LENGTH;
+    }
+
+    /**
+     * reads the length of a whole frame (full or delta frame) from its header
+     * @param buf buffer containing at least HEADER_LENGTH bytes of the frame
+     * @param off start of the frame (sync bytes)
+     * @return frame length or -1 if the header is not valid
+     */
+    public static int frameLength(byte[] buf, int off) {
+        if (buf[off] != SYNC_0 || buf[off + 1] != SYNC_1 || (buf[off + 2] & 0xFF) != VERSION) return -1;
+        int length;
+        switch (frameType(buf, off)) {
+            case TYPE_FULL:
+                length = frameLength(u16(buf, off + 4), buf[off + 6] & 0xFF, buf[off + 7] & 0xFF);
+                break;
+            case TYPE_DELTA:
+                length = HEADER_LENGTH + u16(buf, off + 4) + CRC_LENGTH;
+                break;
+            default:
+                return -1;
+        }
+        return length > MAX_FRAME_LENGTH ? -1 : length;
+    }
+
+    /**
+     * @return the frame type (TYPE_FULL or TYPE_DELTA) of the frame starting at off
+     */
+    public static int frameType(byte[] buf, int off) {
+        return buf[off + 3] & 0xFF;
+    }
+
+    /**
+     * @return the length of the bitmap of a delta frame for the layout of frame
+     */
+    public static int deltaBitmapLength(BmsFrame frame) {
+        return (frame.fieldCount() + 7) / 8;
+    }
+
+    /**
+     * decodes one frame into a reusable BmsFrame. The frame has to be sized for the layout in the header.
+     * @param buf buffer with the frame
+     * @param off start of the frame (sync bytes)
+     * @param len number of valid bytes in buf from off
+     * @param out frame to write the values to (unchanged unless OK is returned)
+     * @return OK or one of TRUNCATED, BAD_HEADER, BAD_LAYOUT, BAD_CRC
+     */
+    public static int decode(byte[] buf, int off, int len, BmsFrame out) {
+        if (len < HEADER_LENGTH) return TRUNCATED;
+        int length = frameLength(buf, off);
+        if (length < 0 || (buf[off + 3] & 0xFF) != TYPE_FULL) return BAD_HEADER;
+        if (len < length) return TRUNCATED;
+        int cells = u16(buf, off + 4);
+        int temps = buf[off + 6] & 0xFF;
+        int blocks = buf[off + 7] & 0xFF;
+        if (cells != out.cellCount() || temps != out.tempSensorCount() || blocks != out.blockCount()) return BAD_LAYOUT;
+        int crcPos = off + length - CRC_LENGTH;
+        if (crc16(buf, off + 2, length - 2 - CRC_LENGTH) != u16(buf, crcPos)) return BAD_CRC;
+
+        int p = off + HEADER_LENGTH;
+        for (int i = 0; i < cells; i++, p += 2) out.cellMillivolts[i] = u16(buf, p);
+        for (int i = 0; i < temps; i++, p += 2) out.cellDeciTemps[i] = s16(buf, p);
+        out.drivingDeciAmps = s16(buf, p);
+        p += 2;
+        for (int i = 0; i < blocks; i++, p += 2) out.chargingDeciAmps[i] = s16(buf, p);
+        for (int i = 0; i < blocks; i++, p += 2) out.chargerDeciTemps[i] = s16(buf, p);
+        for (int i = 0; i < blocks; i++, p++) out.capacity[i] = buf[p] & 0xFF;
+        out.markAllChanged();
+        return OK;
+    }
+
+    /**
+     * applies a delta frame to the values of the previous frames. Only the changed fields are written and marked (see BmsFrame.isChanged()).
+     * @param buf buffer with the frame
+     * @param off start of the frame (sync bytes)
+     * @param len number of valid bytes in buf from off
+     * @param state the frame the full frame and the deltas since then were decoded into (unchanged unless OK is returned)
+     * @param expectedSequence sequence number the delta must have (1 after a full frame)
+     * @return OK or one of TRUNCATED, BAD_HEADER, BAD_LAYOUT, BAD_CRC, BAD_SEQUENCE
+     */
+    public static int decodeDelta(byte[] buf, int off, int len, BmsFrame state, int expectedSequence) {
+        if (len < HEADER_LENGTH) return TRUNCATED;
+        int length = frameLength(buf, off);
+        if (length < 0 || frameType(buf, off) != TYPE_DELTA) return BAD_HEADER;
+        if (len < length) return TRUNCATED;
+        int crcPos = off + length - CRC_LENGTH;
+        if (crc16(buf, off + 2, length - 2 - CRC_LENGTH) != u16(buf, crcPos)) return BAD_CRC;
+        if ((buf[off + 6] & 0xFF) != expectedSequence) return BAD_SEQUENCE;
+
+        int fields = state.fieldCount();
+        int firstCapacity = state.capacityField(0);
+        int bitmap = off + HEADER_LENGTH;
+        int bitmapLength = deltaBitmapLength(state);
+        // check that the values of the changed fields fill the payload exactly
+        int size = bitmapLength;
+        for (int f = 0; f < fields; f++) {
+            if ((buf[bitmap + (f >> 3)] & 1 << (f & 7)) != 0) size += f < firstCapacity ? 2 : 1;
+        }
+        if (size != length - HEADER_LENGTH - CRC_LENGTH) return BAD_LAYOUT;
+
+        state.startDelta();
+        int p = bitmap + bitmapLength;
+        int firstSigned = state.tempField(0); // cell voltages are unsigned
+        for (int f = 0; f < fields; f++) {
+            if ((buf[bitmap + (f >> 3)] & 1 << (f & 7)) == 0) continue;
+            if (f >= firstCapacity) {
+                state.setField(f, buf[p] & 0xFF);
+                p++;
+            } else {
+                state.setField(f, f < firstSigned ? u16(buf, p) : s16(buf, p));
+                p += 2;
+            }
+        }
+        return OK;
+    }
+
+    /**
+     * encodes a frame (used by simulators and for recording)
+     * @param frame values to encode
+     * @param out buffer with at least frameLength(...) bytes from off
+     * @return number of bytes written
+     */
+    public static int encode(BmsFrame frame, byte[] out, int off) {
+        int cells = frame.cellCount(), temps = frame.tempSensorCount(), blocks = frame.blockCount();
+        int length = frameLength(cells, temps, blocks);
+        out[off] = SYNC_0;
+        out[off + 1] = SYNC_1;
+        out[off + 2] = VERSION;
+        out[off + 3] = TYPE_FULL;
+        putU16(out, off + 4, cells);
+        out[off + 6] = (byte) temps;
+        out[off + 7] = (byte) blocks;
+        int p = off + HEADER_LENGTH;
+        for (int i = 0; i < cells; i++, p += 2) putU16(out, p, frame.cellMillivolts[i]);
+        for (int i = 0; i < temps; i++, p += 2) putU16(out, p, frame.cellDeciTemps[i]);
+        putU16(out, p, frame.drivingDeciAmps);
+        p += 2;
+        for (int i = 0; i < blocks; i++, p += 2) putU16(out, p, frame.chargingDeciAmps[i]);
+        for (int i = 0; i < blocks; i++, p += 2) putU16(out, p, frame.chargerDeciTemps[i]);
+        for (int i = 0; i < blocks; i++, p++) out[p] = (byte) frame.capacity[i];
+        putU16(out, p, crc16(out, off + 2, p - off - 2));
+        return length;
+    }
+
+    /**
+     * encodes the changes from previous to frame as a delta frame (used by simulators and for testing)
+     * @param frame current values
+     * @param previous values of the frame sent before (same layout)
+     * @param sequence 1 for the first delta after a full frame, max. MAX_DELTAS_PER_KEYFRAME
+     * @param out buffer with at least frameLength(...) + deltaBitmapLength(...) bytes from off
+     * @return number of bytes written
+     */
+    public static int encodeDelta(BmsFrame frame, BmsFrame previous, int sequence, byte[] out, int off) {
+        int fields = frame.fieldCount();
+        int firstCapacity = frame.capacityField(0);
+        int bitmap = off + HEADER_LENGTH;
+        int bitmapLength = deltaBitmapLength(frame);
+        int p = bitmap + bitmapLength;
+        for (int i = 0; i < bitmapLength; i++) out[bitmap + i] = 0;
+        for (int f = 0; f < fields; f++) {
+            int value = frame.getField(f);
+            if (value == previous.getField(f)) continue;
+            out[bitmap + (f >> 3)] |= 1 << (f & 7);
+            if (f >= firstCapacity) {
+                out[p++] = (byte) value;
+            } else {
+                putU16(out, p, value);
+                p += 2;
+            }
+        }
+        out[off] = SYNC_0;
+        out[off + 1] = SYNC_1;
+        out[off + 2] = VERSION;
+        out[off + 3] = TYPE_DELTA;
+        putU16(out, off + 4, p - bitmap);
+        out[off + 6] = (byte) sequence;
+        out[off + 7] = 0;
+        putU16(out, p, crc16(out, off + 2, p - off - 2));
+        return p + CRC_LENGTH - off;
+    }
+
+    /**
+     * @param buf buffer with a complete frame (full or delta frame)
+     * @param off start of the frame (sync bytes)
+     * @param length length of the frame (see frameLength(buf, off))
+     * @return true if the CRC at the end matches the bytes after the sync bytes
+     */
+    public static boolean hasValidCrc(byte[] buf, int off, int length) {
+        if (length < HEADER_LENGTH + CRC_LENGTH) return false;
+        return crc16(buf, off + 2, length - 2 - CRC_LENGTH) == u16(buf, off + length - CRC_LENGTH);
+    }
+
+    /**
+     * CRC16-CCITT (poly 0x1021, init 0xFFFF, no reflection)
+     */
+    public static int crc16(byte[] buf, int off, int len) {
+        int crc = 0xFFFF;
+        for (int i = off; i < off + len; i++) {
+            crc = ((crc << 8) ^ CRC_TABLE[((crc >> 8) ^ buf[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    static int u16(byte[] buf, int p) {
+        return (buf[p] & 0xFF) | (buf[p + 1] & 0xFF) << 8;
+    }
+
+    static int s16(byte[] buf, int p) {
+        return (short) u16(buf, p);
+    }
+
+    static void putU16(byte[] buf, int p, int value) {
+        buf[p] = (byte) value;
+        buf[p + 1] = (byte) (value >> 8);
+    }
+}
@@ -0,0 +1,198 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import android.content.res.Resources;
+
+import com.example.batterydashboard.R;
+
+import java.util.Arrays;
+
+/**
+ * One decoded data packet of the BMS with all values as fixed point integers.
+ * The frame is meant to be reused: a decoder writes into it, the battery model reads from it.</br>
+ * Units are the same for every protocol, so the battery model does not have to know where a frame came from:
+ * <ul>
+ *     <li>cell voltages in mV</li>
+ *     <li>temperatures in 1/10 °C</li>
+ *     <li>amperages in 1/10 A</li>
+ *     <li>capacity in % (or Ah, like in the text protocol)</li>
+ * </ul>
+ * Delta frames (see BinaryFrameCodec.TYPE_DELTA) only update some of the values.
+ * Then isDelta() is true and isChanged() tells which fields were updated, the other values are still those of the previous frames.
+ * The fields are numbered in the order of the protocol: cells, cell temperatures, driving amperage, charging amperages,
+ * charger temperatures, capacities (see the ...Field() methods).
+ *
+ * @see BinaryFrameCodec
+ * @see de.frauas.informatik.batterydashboard.ui.Battery#setValues(BmsFrame)
+ */
+
+public class BmsFrame {
+    // sections of a frame as bits, e.g. to tell which values a protocol sends (see ProtocolSchema.sections())
+    public static final int SECTION_CELL_VOLTAGES = 1;
+    public static final int SECTION_CELL_TEMPS = 1 << 1;
+    public static final int SECTION_DRIVING_AMPERAGE = 1 << 2;
+    public static final int SECTION_CHARGING_AMPERAGE = 1 << 3;
+    public static final int SECTION_CHARGER_TEMPS = 1 << 4;
+    public static final int SECTION_CAPACITY = 1 << 5;
+    public static final int SECTION_COUNT = 6;
+    public static final int ALL_SECTIONS = (1 << SECTION_COUNT) - 1;
+
+    public final int[] cellMillivolts;
+    public final int[] cellDeciTemps;
+    public int drivingDeciAmps;
+    public final int[] chargingDeciAmps;
+    public final int[] chargerDeciTemps;
+    public final int[] capacity;
+    private final long[] changed; // bit per field, only valid if delta
+    private boolean delta;
+    private int sections = ALL_SECTIONS; // sections the protocol of the frame has values for
+
+    /**
+     * @param cellCount number of cells of the whole battery
+     * @param tempSensorCount number of cell temperature sensors of the whole battery
+     * @param blockCount number of blocks (one charger per block)
+     */
+    public BmsFrame(int cellCount, int tempSensorCount, int blockCount) {
+        cellMillivolts = new int[cellCount];
+        cellDeciTemps = new int[tempSensorCount];
+        chargingDeciAmps = new int[blockCount];
+        chargerDeciTemps = new int[blockCount];
+        capacity = new int[blockCount];
+        changed = new long[(fieldCount() + 63) / 64];
+    }
+
+    /**
+     * makes a frame sized for the battery setup in battery_specs.xml
+     */
+    public static BmsFrame fromSpecs(Resources resources) {
+        int blocks = resources.getInteger(R.integer.blocks);
+        return new BmsFrame(
+                blocks * resources.getInteger(R.integer.cellsPerBlock),
+                blocks * resources.getInteger(R.integer.thermometer_per_block),
+                blocks);
+    }
+
+    public int cellCount() { return cellMillivolts.length; }
+
+    public int tempSensorCount() { return cellDeciTemps.length; }
+
+    public int blockCount() { return capacity.length; }
+
+    public int fieldCount() { return cellCount() + tempSensorCount() + 1 + 3 * blockCount(); }
+
+    public int tempField(int sensor) { return cellCount() + sensor; }
+
+    public int drivingField() { return cellCount() + tempSensorCount(); }
+
+    public int chargingField(int block) { return drivingField() + 1 + block; }
+
+    public int chargerTempField(int block) { return chargingField(blockCount()) + block; }
+
+    public int capacityField(int block) { return chargerTempField(blockCount()) + block; }
+
+    /**
+     * @return true if only the fields marked by isChanged() were updated by the last frame
+     */
+    public boolean isDelta() { return delta; }
+
+    /**
+     * @return the values the frame has, as SECTION_... bits (text frames only have the sections of their ProtocolSchema,
+     * the others were never set and should get old)
+     */
+    public int sections() { return sections; }
+
+    /**
+     * @param field field number (cell number for cells, see the ...Field() methods for the others)
+     * @return true if the field was updated by the last frame (always true for full frames)
+     */
+    public boolean isChanged(int field) {
+        return !delta || (changed[field >> 6] & 1L << field) != 0;
+    }
+
+    /**
+     * marks the frame as a full frame (all values updated)
+     */
+    void markAllChanged() {
+        markAllChanged(ALL_SECTIONS);
+    }
+
+    /**
+     * marks the frame as a full frame that only has the values of some sections
+     * @param sections SECTION_... bits of the values in the frame
+     */
+    void markAllChanged(int sections) {
+        delta = false;
+        this.sections = sections;
+    }
+
+    /**
+     * marks the frame as a delta frame without changes, the decoder adds the changed fields with setField()
+     */
+    void startDelta() {
+        delta = true;
+        sections = ALL_SECTIONS;
+        Arrays.fill(changed, 0);
+    }
+
+    /**
+     * Adds the changes of an older frame that was dropped on its way to the consumer, so they are not lost.
+     * (The values are always complete, only the marks of the dropped frame would be missing.)
+     */
+    void mergeChanges(BmsFrame older) {
+        if (!delta) return;
+        if (!older.delta) {
+            delta = false;
+            return;
+        }
+        for (int i = 0; i < changed.length; i++) changed[i] |= older.changed[i];
+    }
+
+    /**
+     * sets a field by its number and marks it as changed
+     */
+    void setField(int field, int value) {
+        changed[field >> 6] |= 1L << field;
+        int i = field;
+        if (i < cellMillivolts.length) { cellMillivolts[i] = value; return; }
+        i -= cellMillivolts.length;
+        if (i < cellDeciTemps.length) { cellDeciTemps[i] = value; return; }
+        i -= cellDeciTemps.length;
+        if (i == 0) { drivingDeciAmps = value; return; }
+        i -= 1;
+        if (i < chargingDeciAmps.length) { chargingDeciAmps[i] = value; return; }
+        i -= chargingDeciAmps.length;
+        if (i < chargerDeciTemps.length) { chargerDeciTemps[i] = value; return; }
+        capacity[i - chargerDeciTemps.length] = value;
+    }
+
+    /**
+     * @return the value of a field by its number
+     */
+    int getField(int field) {
+        int i = field;
+        if (i < cellMillivolts.length) return cellMillivolts[i];
+        i -= cellMillivolts.length;
+        if (i < cellDeciTemps.length) return cellDeciTemps[i];
+        i -= cellDeciTemps.length;
+        if (i == 0) return drivingDeciAmps;
+        i -= 1;
+        if (i < chargingDeciAmps.length) return chargingDeciAmps[i];
+        i -= chargingDeciAmps.length;
+        if (i < chargerDeciTemps.length) return chargerDeciTemps[i];
+        return capacity[i - chargerDeciTemps.length];
+    }
+
+    /**
+     * copies all values (and the delta marks) of another frame with the same layout into this one
+     */
+    public void copyFrom(BmsFrame other) {
+        System.arraycopy(other.cellMillivolts, 0, cellMillivolts, 0, cellMillivolts.length);
+        System.arraycopy(other.cellDeciTemps, 0, cellDeciTemps, 0, cellDeciTemps.length);
+        drivingDeciAmps = other.drivingDeciAmps;
+        System.arraycopy(other.chargingDeciAmps, 0, chargingDeciAmps, 0, chargingDeciAmps.length);
+        System.arraycopy(other.chargerDeciTemps, 0, chargerDeciTemps, 0, chargerDeciTemps.length);
+        System.arraycopy(other.capacity, 0, capacity, 0, capacity.length);
+        delta = other.delta;
+        sections = other.sections;
+        if (delta) System.arraycopy(other.changed, 0, changed, 0, changed.length);
+    }
+}
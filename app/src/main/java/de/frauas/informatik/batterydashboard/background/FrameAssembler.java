@@ -0,0 +1,281 @@
+package de.frauas.informatik.batterydashboard.background;
+
+/**
+ * Cuts the byte stream from the BMS into complete frames, no matter how the bytes are split up by the reads.
+ * Bytes of an incomplete frame are kept until the next feed() call, and the listener gets exactly one frame per callback.
+ * </br></br>
+ * Delimiters:
+ * <ul>
+ *     <li>text frames start with "CellVoltage:" and end with the line break after the "Capacity:" section
+ *     (or with the start of the next frame). Line breaks inside a frame are removed, like it was done when lines were concatenated.</li>
+ *     <li>binary frames start with the sync bytes and their length is taken from the header (see BinaryFrameCodec).</li>
+ * </ul>
+ * Every time bytes have to be thrown away to find the start of the next frame (garbage, a truncated frame, a frame that is too long
+ * or a broken binary header) this counts as a resync and the listener is told how many bytes were skipped.
+ * </br></br>
+ * The sync bytes can also appear by chance in noise or inside the values. A binary "frame" with a broken header or a wrong CRC
+ * is therefore not thrown away as a whole: only its first byte is skipped and the bytes after it are searched again
+ * (they are fed once more from a buffer), so a false sync doesn't swallow the good frames that were read as its payload.
+ * A frame with a wrong CRC is still passed to onRejected() before that, so it is counted and can be looked at
+ * (with noise this also counts false syncs whose declared length happened to be complete).
+ * </br></br>
+ * Not thread safe, feed it from one reading thread only.
+ *
+ * @see StatReceiver
+ */
+
+public class FrameAssembler {
+    public static final String FRAME_START = "CellVoltage:";
+    public static final String LAST_SECTION = "Capacity:";
+    public static final int MAX_TEXT_FRAME_LENGTH = 2048;
+
+    private static final int HUNT = 0;
+    private static final int TEXT = 1;
+    private static final int BINARY = 2;
+
+    private final FrameListener listener;
+    private final boolean acceptText;
+    private final boolean acceptBinary;
+    private final StringBuilder text = new StringBuilder(MAX_TEXT_FRAME_LENGTH);
+    private final byte[] binary = new byte[BinaryFrameCodec.MAX_FRAME_LENGTH];
+    // bytes after a false sync that are searched again (two buffers that are swapped, see rescan())
+    private byte[] pending = new byte[BinaryFrameCodec.MAX_FRAME_LENGTH];
+    private byte[] spare = new byte[BinaryFrameCodec.MAX_FRAME_LENGTH];
+    private int pendingPos, pendingLen;
+    private int state = HUNT;
+    private int startMatch;     // number of chars of FRAME_START matched so far
+    private int lastSectionMatch;
+    private boolean lastSectionSeen;
+    private boolean syncByteSeen;
+    private int binaryLength;   // bytes of the current binary frame collected so far
+    private int binaryExpected; // length of the current binary frame, 0 while the header is incomplete
+    private int skipped;        // bytes skipped since the last frame start
+
+    /**
+     * Gets the complete frames from a FrameAssembler
+     */
+    public interface FrameListener {
+        /**
+         * @param frame the complete text frame without line breaks, reused for the next frame
+         */
+        void onTextFrame(StringBuilder frame);
+
+        /**
+         * @param buf buffer containing the complete binary frame (sync bytes to crc), reused for the next frame
+         * @param len length of the frame
+         */
+        void onBinaryFrame(byte[] buf, int len);
+
+        /**
+         * @param skippedBytes number of bytes thrown away to get back in sync
+         */
+        void onResync(int skippedBytes);
+
+        /**
+         * @param buf buffer containing the rejected binary frame (sync bytes to crc), reused afterwards
+         * @param len length of the frame
+         * @param reason FrameValidator status, BAD_CRC
+         */
+        void onRejected(byte[] buf, int len, int reason);
+    }
+
+    /**
+     * @param protocol TEXT, BINARY or AUTO (accepts both frame types)
+     * @param listener gets the frames
+     */
+    public FrameAssembler(StatReceiver.Protocol protocol, FrameListener listener) {
+        this.listener = listener;
+        this.acceptText = protocol != StatReceiver.Protocol.BINARY;
+        this.acceptBinary = protocol != StatReceiver.Protocol.TEXT;
+    }
+
+    /**
+     * feeds the next bytes read from the stream
+     * @param buf buffer with the bytes
+     * @param off start of the bytes in buf
+     * @param len number of bytes
+     */
+    public void feed(byte[] buf, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            process(buf[i]);
+            // bytes after a false sync come before the next byte of the stream
+            while (pendingPos < pendingLen) {
+                process(pending[pendingPos++]);
+            }
+        }
+    }
+
+    private void process(byte b) {
+        switch (state) {
+            case TEXT:
+                feedText(b);
+                break;
+            case BINARY:
+                feedBinary(b);
+                break;
+            default:
+                hunt(b);
+                break;
+        }
+    }
+
+    /**
+     * drops an incomplete frame, e.g. when the source was reopened
+     */
+    public void reset() {
+        resetFrame();
+        pendingPos = 0;
+        pendingLen = 0;
+    }
+
+    /**
+     * starts hunting for the next frame (the pending bytes are kept)
+     */
+    private void resetFrame() {
+        state = HUNT;
+        text.setLength(0);
+        startMatch = 0;
+        lastSectionMatch = 0;
+        lastSectionSeen = false;
+        syncByteSeen = false;
+        binaryLength = 0;
+        binaryExpected = 0;
+        skipped = 0;
+    }
+
+    /**
+     * The binary frame collected so far started with a false sync: skips its first byte and searches the rest again.
+     * The rest is put in front of the bytes that are still pending (it was read after them, if it came from them at all,
+     * a frame that is collected while bytes are pending is made of pending bytes, so everything fits in one buffer).
+     */
+    private void rescan() {
+        int rest = binaryLength - 1;
+        int remaining = pendingLen - pendingPos;
+        System.arraycopy(binary, 1, spare, 0, rest);
+        System.arraycopy(pending, pendingPos, spare, rest, remaining);
+        byte[] swap = pending;
+        pending = spare;
+        spare = swap;
+        resetFrame();
+        pendingPos = 0;
+        pendingLen = rest + remaining;
+        skipped = 1; // the false SYNC_0, reported with the next frame start
+    }
+
+    private void hunt(byte b) {
+        if (b == '\n' || b == '\r') { // line breaks between frames are not garbage
+            syncByteSeen = false;
+            startMatch = 0;
+            return;
+        }
+        skipped++;
+        if (acceptBinary) {
+            if (syncByteSeen && b == BinaryFrameCodec.SYNC_1) {
+                startBinaryFrame(skipped - 2);
+                return;
+            }
+            syncByteSeen = b == BinaryFrameCodec.SYNC_0;
+        }
+        if (acceptText && matchFrameStart((char) (b & 0xFF))) {
+            startTextFrame(skipped - FRAME_START.length());
+        }
+    }
+
+    private void startTextFrame(int skippedBytes) {
+        if (skippedBytes > 0) listener.onResync(skippedBytes);
+        skipped = 0;
+        state = TEXT;
+        text.setLength(0);
+        text.append(FRAME_START);
+        lastSectionMatch = 0;
+        lastSectionSeen = false;
+    }
+
+    private void startBinaryFrame(int skippedBytes) {
+        if (skippedBytes > 0) listener.onResync(skippedBytes);
+        skipped = 0;
+        startMatch = 0;
+        syncByteSeen = false;
+        state = BINARY;
+        binary[0] = BinaryFrameCodec.SYNC_0;
+        binary[1] = BinaryFrameCodec.SYNC_1;
+        binaryLength = 2;
+        binaryExpected = 0;
+    }
+
+    private void feedText(byte b) {
+        char c = (char) (b & 0xFF);
+        if (c == '\n' || c == '\r') {
+            if (lastSectionSeen) {
+                endTextFrame(text.length());
+            }
+            return;
+        }
+        text.append(c);
+        if (matchFrameStart(c)) {
+            // the next frame starts, the current one ends before its marker
+            int end = text.length() - FRAME_START.length();
+            if (lastSectionSeen) {
+                endTextFrame(end);
+                startTextFrame(0);
+            } else {
+                startTextFrame(end);
+            }
+            return;
+        }
+        if (!lastSectionSeen) {
+            lastSectionMatch = match(LAST_SECTION, lastSectionMatch, c);
+            if (lastSectionMatch == LAST_SECTION.length()) lastSectionSeen = true;
+        }
+        if (text.length() >= MAX_TEXT_FRAME_LENGTH) {
+            int length = text.length();
+            resetFrame();
+            listener.onResync(length);
+        }
+    }
+
+    private void endTextFrame(int end) {
+        text.setLength(end);
+        listener.onTextFrame(text);
+        resetFrame();
+    }
+
+    private void feedBinary(byte b) {
+        binary[binaryLength++] = b;
+        if (binaryExpected == 0) {
+            if (binaryLength < BinaryFrameCodec.HEADER_LENGTH) return;
+            binaryExpected = BinaryFrameCodec.frameLength(binary, 0);
+            if (binaryExpected < BinaryFrameCodec.HEADER_LENGTH) {
+                rescan(); // broken header
+                return;
+            }
+        }
+        if (binaryLength == binaryExpected) {
+            if (!BinaryFrameCodec.hasValidCrc(binary, 0, binaryLength)) {
+                listener.onRejected(binary, binaryLength, FrameValidator.BAD_CRC);
+                rescan();
+                return;
+            }
+            listener.onBinaryFrame(binary, binaryLength);
+            resetFrame();
+        }
+    }
+
+    private boolean matchFrameStart(char c) {
+        startMatch = match(FRAME_START, startMatch, c);
+        if (startMatch == FRAME_START.length()) {
+            startMatch = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * advances a match of a marker by one char. Works for markers whose first char does not appear again (like the section names).
+     * @return number of chars matched after c
+     */
+    private static int match(String marker, int matched, char c) {
+        if (marker.charAt(matched) == c) return matched + 1;
+        return marker.charAt(0) == c ? 1 : 0;
+    }
+}
@@ -0,0 +1,138 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * Puts the frames of a StatReceiver in a FrameQueue (FrameRing or FrameMailbox) and passes them to the actual listener on its own consumer thread.
+ * This way the reader thread only copies a frame and goes back to reading, however long the processing takes.
+ * </br></br>
+ * Set a FrameDispatcher as the receiver's OnNewDataListener, start() it before the receiver and stop() and join() it after the receiver.
+ * The end-to-end latency (read off the device until processed) is counted in getStats(). The receiver passes the time of the read
+ * (see StatReceiver.OnNewDataListener), so the time in the receiver's buffers and the assembler is counted too.
+ *
+ * @see FrameRing
+ * @see FrameMailbox
+ * @see BatteryDataService
+ */
+
+public class FrameDispatcher implements StatReceiver.OnNewDataListener {
+    private static final String TAG = "FrameDispatcher";
+    private static final int STATS_LOG_INTERVAL = 100; // log the stats every n frames
+    private static final long JOIN_TIMEOUT_MILLIS = 500;
+
+    private final FrameQueue queue;
+    private final StatReceiver.OnNewDataListener target;
+    private final FrameQueue.Slot current;
+    private final ReceiverStats stats = new ReceiverStats();
+    private Thread consumerThread;
+
+    /**
+     * @param queue the queue to put the frames in
+     * @param target the listener that processes the frames (on the consumer thread)
+     * @param layout frame layout of the queue (the same as given to the queue), null for text frames only
+     */
+    public FrameDispatcher(FrameQueue queue, StatReceiver.OnNewDataListener target, BmsFrame layout) {
+        this.queue = queue;
+        this.target = target;
+        this.current = new FrameQueue.Slot(layout);
+    }
+
+    /**
+     * starts the consumer thread
+     */
+    public void start() {
+        stats.reset();
+        consumerThread = new Thread(this::consume, TAG + "-consumer");
+        consumerThread.start();
+    }
+
+    // producer side, called by the receiver
+
+    @WorkerThread
+    @Override
+    public void onNewData(StringBuilder packetAsString, long readNanos) {
+        queue.offerText(packetAsString, readNanos);
+    }
+
+    @WorkerThread
+    @Override
+    public void onNewFrame(BmsFrame frame, long readNanos) {
+        queue.offerFrame(frame, readNanos);
+    }
+
+    // without the time of the read (e.g. frames of another source) the latency starts here
+
+    @WorkerThread
+    @Override
+    public void onNewData(StringBuilder packetAsString) {
+        onNewData(packetAsString, SystemClock.elapsedRealtimeNanos());
+    }
+
+    @WorkerThread
+    @Override
+    public void onNewFrame(BmsFrame frame) {
+        onNewFrame(frame, SystemClock.elapsedRealtimeNanos());
+    }
+
+    // consumer side
+
+    @WorkerThread
+    private void consume() {
+        while (!queue.isClosed()) {
+            if (!queue.poll(current)) {
+                queue.awaitFrame();
+                continue;
+            }
+            try {
+                if (current.isBinary) {
+                    target.onNewFrame(current.frame);
+                    stats.onFrameDelivered(0, current.readNanos);
+                } else {
+                    target.onNewData(current.text);
+                    stats.onFrameDelivered(current.text.length(), current.readNanos);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "failed to process frame", e);
+            }
+            if (stats.frames() % STATS_LOG_INTERVAL == 0) {
+                Log.i(TAG, stats + " | " + queue);
+            }
+        }
+    }
+
+    /**
+     * closes the queue and wakes up the consumer thread, call join() afterwards to wait until it has finished
+     */
+    public void stop() {
+        queue.close();
+    }
+
+    /**
+     * Waits (max. JOIN_TIMEOUT_MILLIS) for the consumer thread to finish after stop() was called.
+     */
+    public void join() {
+        Thread t = consumerThread;
+        if (t == null) return;
+        try {
+            t.join(JOIN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (t.isAlive()) Log.w(TAG, "consumer thread did not finish in time");
+        consumerThread = null;
+    }
+
+    /**
+     * @return counters for the frames processed by the consumer (latency is measured from being read to being processed)
+     */
+    public ReceiverStats getStats() {
+        return stats;
+    }
+
+    public FrameQueue getQueue() {
+        return queue;
+    }
+}
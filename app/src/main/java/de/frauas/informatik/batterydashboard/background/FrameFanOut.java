@@ -0,0 +1,70 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import androidx.annotation.WorkerThread;
+
+import java.util.Arrays;
+
+/**
+ * Passes every frame of a StatReceiver on to several listeners (the receiver only has one).
+ * The listeners are called one after the other on the receiver's thread, so they should only queue the frame
+ * (e.g. FrameDispatchers with their own FrameQueue).
+ *
+ * @see BatteryDataService
+ */
+
+public class FrameFanOut implements StatReceiver.OnNewDataListener {
+    private volatile StatReceiver.OnNewDataListener[] targets = new StatReceiver.OnNewDataListener[0]; // copied on change, no iterator per frame
+
+    /**
+     * @param target listener to get every frame from now on (may be added while the receiver is running)
+     */
+    public synchronized void add(StatReceiver.OnNewDataListener target) {
+        StatReceiver.OnNewDataListener[] t = Arrays.copyOf(targets, targets.length + 1);
+        t[t.length - 1] = target;
+        targets = t;
+    }
+
+    public synchronized void remove(StatReceiver.OnNewDataListener target) {
+        StatReceiver.OnNewDataListener[] t = targets;
+        for (int i = 0; i < t.length; i++) {
+            if (t[i] == target) {
+                StatReceiver.OnNewDataListener[] rest = Arrays.copyOf(t, t.length - 1);
+                System.arraycopy(t, i + 1, rest, i, t.length - i - 1);
+                targets = rest;
+                return;
+            }
+        }
+    }
+
+    @WorkerThread
+    @Override
+    public void onNewData(StringBuilder packetAsString) {
+        for (StatReceiver.OnNewDataListener target : targets) {
+            target.onNewData(packetAsString);
+        }
+    }
+
+    @WorkerThread
+    @Override
+    public void onNewFrame(BmsFrame frame) {
+        for (StatReceiver.OnNewDataListener target : targets) {
+            target.onNewFrame(frame);
+        }
+    }
+
+    @WorkerThread
+    @Override
+    public void onNewData(StringBuilder packetAsString, long readNanos) {
+        for (StatReceiver.OnNewDataListener target : targets) {
+            target.onNewData(packetAsString, readNanos);
+        }
+    }
+
+    @WorkerThread
+    @Override
+    public void onNewFrame(BmsFrame frame, long readNanos) {
+        for (StatReceiver.OnNewDataListener target : targets) {
+            target.onNewFrame(frame, readNanos);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Coalescing mailbox for one producer and one consumer thread: only the newest frame that was not processed yet is kept.
+ * If the receiver is faster than the processing, the older frames are superseded instead of being queued,
+ * so the consumer always gets the current state and the latency stays below the time needed for one frame.
+ * </br></br>
+ * Triple buffer: the producer writes its own slot and swaps it with the middle slot (marked as fresh),
+ * the consumer swaps its own slot with the middle slot if it is fresh. Nobody waits for the other and nothing is allocated.
+ * </br></br>
+ * Consumers that need every frame (e.g. persistence or statistics) should use a FrameRing instead
+ * (see BatteryDataService.addLosslessListener()).
+ *
+ * @see FrameRing
+ * @see FrameDispatcher
+ */
+
+public class FrameMailbox implements FrameQueue {
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4; // set in middle if the producer put a frame there that the consumer hasn't taken
+
+    private final Slot[] slots = new Slot[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;  // only used by the producer
+    private int front = 2; // only used by the consumer
+    private int lastPublished = -1; // only used by the producer
+    private volatile Thread waitingConsumer;
+    private volatile boolean closed;
+
+    // metrics
+    private volatile long offered;
+    private volatile long superseded;
+
+    /**
+     * @param layout a frame with the layout of binary frames (e.g. BmsFrame.fromSpecs()), null for text frames only
+     */
+    public FrameMailbox(BmsFrame layout) {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(layout);
+        }
+    }
+
+    /**
+     * puts a copy of a text frame in the mailbox, replacing a frame the consumer hasn't taken yet (producer only)
+     * @return false if the mailbox was closed
+     */
+    @Override
+    public boolean offerText(CharSequence text, long readNanos) {
+        if (closed) return false;
+        slots[back].setText(text, readNanos);
+        publish();
+        return true;
+    }
+
+    /**
+     * puts a copy of a binary frame in the mailbox, replacing a frame the consumer hasn't taken yet (producer only)
+     * @return false if the mailbox was closed
+     */
+    @Override
+    public boolean offerFrame(BmsFrame frame, long readNanos) {
+        if (closed) return false;
+        Slot slot = slots[back];
+        slot.setFrame(frame, readNanos);
+        // if the last frame is still waiting it will be superseded, so this one has to carry its changes (delta frames)
+        if (lastPublished >= 0 && (middle.get() & FRESH) != 0 && slots[lastPublished].isBinary) {
+            slot.frame.mergeChanges(slots[lastPublished].frame);
+        }
+        publish();
+        return true;
+    }
+
+    private void publish() {
+        offered++;
+        lastPublished = back;
+        int old = middle.getAndSet(back | FRESH);
+        back = old & INDEX_MASK;
+        if ((old & FRESH) != 0) superseded++;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+    }
+
+    /**
+     * copies the newest frame into dst (consumer only)
+     * @param dst the consumer's own slot, made with the same layout
+     * @return false if there is no new frame
+     */
+    @Override
+    public boolean poll(Slot dst) {
+        if ((middle.get() & FRESH) == 0) return false;
+        front = middle.getAndSet(front) & INDEX_MASK;
+        dst.copyFrom(slots[front]);
+        return true;
+    }
+
+    @Override
+    public void awaitFrame() {
+        waitingConsumer = Thread.currentThread();
+        while (isEmpty() && !closed && !Thread.currentThread().isInterrupted()) {
+            LockSupport.park(this);
+        }
+        waitingConsumer = null;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+    }
+
+    @Override
+    public boolean isClosed() { return closed; }
+
+    @Override
+    public boolean isEmpty() { return (middle.get() & FRESH) == 0; }
+
+    public long offered() { return offered; }
+
+    /**
+     * @return number of frames replaced by a newer one before the consumer took them
+     */
+    public long superseded() { return superseded; }
+
+    @Override
+    public String toString() {
+        return String.format("mailbox: %d offered, %d superseded", offered, superseded);
+    }
+}
@@ -0,0 +1,100 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import java.util.Locale;
+
+/**
+ * Keeps copies of the last rejected frames with the reason they were rejected, so a bad link or a bug in the BMS firmware
+ * can be inspected later (e.g. logged when the service is stopped).</br>
+ * The buffers are allocated once, a full quarantine overwrites its oldest entry.
+ * Written by the receiver's thread, read by anyone – only rejected frames get here, so synchronized is cheap enough.
+ *
+ * @see FrameValidator
+ * @see StatReceiver#getQuarantine()
+ */
+
+public class FrameQuarantine {
+    public static final int DEFAULT_CAPACITY = 8;
+    private static final int MAX_TEXT_LENGTH = FrameAssembler.MAX_TEXT_FRAME_LENGTH;
+
+    private final StringBuilder[] texts;
+    private final byte[][] binaries;
+    private final int[] binaryLengths;
+    private final int[] reasons;
+    private final long[] nanos;
+    private int next;  // entry to be written next
+    private int count; // entries in use
+
+    public FrameQuarantine(int capacity) {
+        texts = new StringBuilder[capacity];
+        binaries = new byte[capacity][];
+        binaryLengths = new int[capacity];
+        reasons = new int[capacity];
+        nanos = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            texts[i] = new StringBuilder(MAX_TEXT_LENGTH);
+        }
+    }
+
+    /**
+     * stores a rejected text frame
+     * @param reason status of the FrameValidator
+     */
+    synchronized void put(CharSequence frame, int reason) {
+        int i = claim(reason);
+        texts[i].append(frame, 0, Math.min(frame.length(), MAX_TEXT_LENGTH));
+        binaryLengths[i] = -1;
+    }
+
+    /**
+     * stores a rejected binary frame
+     * @param reason status of the FrameValidator
+     */
+    synchronized void put(byte[] buf, int len, int reason) {
+        int i = claim(reason);
+        if (binaries[i] == null) binaries[i] = new byte[BinaryFrameCodec.MAX_FRAME_LENGTH]; // once per entry
+        len = Math.min(len, binaries[i].length);
+        System.arraycopy(buf, 0, binaries[i], 0, len);
+        binaryLengths[i] = len;
+    }
+
+    private int claim(int reason) {
+        int i = next;
+        next = (next + 1) % reasons.length;
+        if (count < reasons.length) count++;
+        reasons[i] = reason;
+        nanos[i] = System.nanoTime();
+        texts[i].setLength(0);
+        return i;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        count = 0;
+        next = 0;
+    }
+
+    /**
+     * @return the quarantined frames, oldest first, one per line (binary frames as hex)
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder s = new StringBuilder();
+        int first = (next - count + reasons.length) % reasons.length;
+        for (int n = 0; n < count; n++) {
+            int i = (first + n) % reasons.length;
+            s.append(FrameValidator.reason(reasons[i])).append(" @").append(nanos[i] / 1_000_000).append("ms: ");
+            if (binaryLengths[i] < 0) {
+                s.append(texts[i]);
+            } else {
+                for (int b = 0; b < binaryLengths[i]; b++) {
+                    s.append(String.format(Locale.ROOT, "%02X", binaries[i][b] & 0xFF));
+                }
+            }
+            s.append(System.lineSeparator());
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package de.frauas.informatik.batterydashboard.background;
+
+/**
+ * Hands frames from one producer thread (the receiver) to one consumer thread (see FrameDispatcher) without allocating objects per frame.
+ * </br></br>
+ * FrameRing: every frame is queued (lossless as long as the ring doesn't overflow, see FrameRing.OverflowPolicy).</br>
+ * FrameMailbox: only the newest frame is kept, older unprocessed ones are superseded (latest value wins).
+ *
+ * @see FrameDispatcher
+ */
+
+public interface FrameQueue {
+
+    /**
+     * A frame in the queue: either a text frame or a decoded binary frame.
+     */
+    class Slot {
+        public final StringBuilder text = new StringBuilder(FrameAssembler.MAX_TEXT_FRAME_LENGTH);
+        public final BmsFrame frame; // null if the queue was made for text frames only
+        public boolean isBinary;
+        public long readNanos; // SystemClock.elapsedRealtimeNanos() when the frame was read
+
+        public Slot(BmsFrame layout) {
+            frame = layout == null ? null : new BmsFrame(layout.cellCount(), layout.tempSensorCount(), layout.blockCount());
+        }
+
+        void copyFrom(Slot other) {
+            isBinary = other.isBinary;
+            readNanos = other.readNanos;
+            if (isBinary) {
+                frame.copyFrom(other.frame);
+            } else {
+                text.setLength(0);
+                text.append(other.text);
+            }
+        }
+
+        void setText(CharSequence text, long readNanos) {
+            isBinary = false;
+            this.readNanos = readNanos;
+            this.text.setLength(0);
+            this.text.append(text);
+        }
+
+        void setFrame(BmsFrame frame, long readNanos) {
+            isBinary = true;
+            this.readNanos = readNanos;
+            this.frame.copyFrom(frame);
+        }
+    }
+
+    /**
+     * puts a copy of a text frame in the queue (producer only)
+     * @return false if the frame was not queued
+     */
+    boolean offerText(CharSequence text, long readNanos);
+
+    /**
+     * puts a copy of a binary frame in the queue (producer only)
+     * @return false if the frame was not queued
+     */
+    boolean offerFrame(BmsFrame frame, long readNanos);
+
+    /**
+     * copies the next frame into dst and removes it from the queue (consumer only)
+     * @param dst the consumer's own slot, made with the same layout
+     * @return false if the queue is empty
+     */
+    boolean poll(Slot dst);
+
+    /**
+     * waits until a frame is available, the queue was closed or the thread was interrupted (consumer only)
+     */
+    void awaitFrame();
+
+    /**
+     * wakes up a waiting consumer and producer, e.g. when the service is stopped
+     */
+    void close();
+
+    boolean isClosed();
+
+    boolean isEmpty();
+}
@@ -0,0 +1,217 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer of preallocated frame slots.
+ * It decouples the receiver (producer, e.g. the reader thread of the StatReceiver) from the processing of the frames (consumer),
+ * so slow processing doesn't stall the reading. No objects are allocated per frame: the producer copies a frame into a slot,
+ * the consumer copies it out of the slot into its own Slot object.
+ * </br></br>
+ * What happens when the ring is full is set by the OverflowPolicy. For DROP_OLDEST the producer takes the oldest slot away from
+ * the consumer by moving the head with a CAS. The consumer only keeps a copy if its own CAS on the head succeeds afterwards,
+ * so a slot overwritten while it was being copied is never used.
+ * </br></br>
+ * Only one thread may call the offer methods, and only one (other) thread may call poll().
+ *
+ * @see FrameMailbox
+ * @see FrameDispatcher
+ */
+
+public class FrameRing implements FrameQueue {
+    private static final long BLOCK_PARK_NANOS = 100_000; // producer waiting for space (BLOCK policy)
+
+    /**
+     * DROP_OLDEST: overwrite the oldest frame that was not processed yet (the newest data always gets in)</br>
+     * DROP_NEWEST: reject the new frame</br>
+     * BLOCK: wait until the consumer made space (the receiver is stalled)
+     */
+    public enum OverflowPolicy {
+        DROP_OLDEST, DROP_NEWEST, BLOCK;
+
+        /**
+         * @param name value of frame_ring_overflow in battery_specs.xml (drop_oldest, drop_newest or block)
+         * @return the matching policy, DROP_OLDEST if the name is unknown
+         */
+        public static OverflowPolicy fromConfig(String name) {
+            for (OverflowPolicy p : values()) {
+                if (p.name().equalsIgnoreCase(name)) return p;
+            }
+            return DROP_OLDEST;
+        }
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final OverflowPolicy policy;
+    private final AtomicLong head = new AtomicLong(); // next slot to be consumed
+    private final AtomicLong tail = new AtomicLong(); // next slot to be written (only written by the producer)
+    private volatile Thread waitingConsumer;
+    private volatile boolean closed;
+    private boolean lostFrame; // only used by the producer: a frame was dropped, so the next one is passed on as a full frame
+
+    // metrics
+    private volatile long offered;
+    private volatile long droppedOldest;
+    private volatile long droppedNewest;
+    private volatile long blockedNanos;
+    private volatile int maxOccupancy;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     * @param policy what to do when the ring is full
+     * @param layout a frame with the layout of binary frames (e.g. BmsFrame.fromSpecs()), null for text frames only
+     */
+    public FrameRing(int capacity, OverflowPolicy policy, BmsFrame layout) {
+        int size = 2;
+        while (size < capacity) size <<= 1;
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(layout);
+        }
+        mask = size - 1;
+        this.policy = policy;
+    }
+
+    /**
+     * puts a copy of a text frame in the ring (producer only)
+     * @return false if the frame was dropped (DROP_NEWEST) or the ring was closed while waiting (BLOCK)
+     */
+    @Override
+    public boolean offerText(CharSequence text, long readNanos) {
+        Slot slot = claim();
+        if (slot == null) return false;
+        slot.setText(text, readNanos);
+        publish();
+        return true;
+    }
+
+    /**
+     * puts a copy of a decoded frame in the ring (producer only)
+     * @return false if the frame was dropped (DROP_NEWEST) or the ring was closed while waiting (BLOCK)
+     */
+    @Override
+    public boolean offerFrame(BmsFrame frame, long readNanos) {
+        Slot slot = claim();
+        if (slot == null) return false;
+        slot.setFrame(frame, readNanos);
+        if (lostFrame) {
+            // the changes of a dropped delta frame would be missing otherwise
+            slot.frame.markAllChanged(slot.frame.sections());
+            lostFrame = false;
+        }
+        publish();
+        return true;
+    }
+
+    private Slot claim() {
+        offered++;
+        long t = tail.get();
+        long h = head.get();
+        if (t - h > mask) {
+            switch (policy) {
+                case DROP_NEWEST:
+                    droppedNewest++;
+                    lostFrame = true;
+                    return null;
+                case BLOCK:
+                    long start = System.nanoTime();
+                    while (t - head.get() > mask) {
+                        if (closed) return null;
+                        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    }
+                    blockedNanos += System.nanoTime() - start;
+                    break;
+                default: // DROP_OLDEST
+                    // if the CAS fails, the consumer has just taken the oldest frame, so there is space now
+                    if (head.compareAndSet(h, h + 1)) {
+                        droppedOldest++;
+                        lostFrame = true;
+                    }
+                    break;
+            }
+        }
+        return slots[(int) t & mask];
+    }
+
+    private void publish() {
+        long t = tail.get() + 1;
+        tail.set(t);
+        int occupancy = (int) (t - head.get());
+        if (occupancy > maxOccupancy) maxOccupancy = occupancy;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+    }
+
+    /**
+     * copies the oldest frame into dst and removes it from the ring (consumer only)
+     * @param dst the consumer's own slot, made with the same layout
+     * @return false if the ring is empty
+     */
+    @Override
+    public boolean poll(Slot dst) {
+        while (true) {
+            long h = head.get();
+            if (h >= tail.get()) return false;
+            try {
+                dst.copyFrom(slots[(int) h & mask]);
+            } catch (RuntimeException overwritten) {
+                // the producer is writing this slot, so the CAS below fails too
+            }
+            if (head.compareAndSet(h, h + 1)) return true;
+            // the producer dropped this frame while we were copying it, try the next one
+        }
+    }
+
+    /**
+     * waits until a frame is available, the ring was closed or the thread was interrupted (consumer only)
+     */
+    @Override
+    public void awaitFrame() {
+        waitingConsumer = Thread.currentThread();
+        while (isEmpty() && !closed && !Thread.currentThread().isInterrupted()) {
+            LockSupport.park(this);
+        }
+        waitingConsumer = null;
+    }
+
+    /**
+     * wakes up a waiting consumer and producer, e.g. when the service is stopped
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+    }
+
+    @Override
+    public boolean isClosed() { return closed; }
+
+    @Override
+    public boolean isEmpty() { return head.get() >= tail.get(); }
+
+    public int capacity() { return slots.length; }
+
+    /**
+     * @return number of frames waiting to be consumed
+     */
+    public int occupancy() { return (int) Math.max(0, tail.get() - head.get()); }
+
+    public int maxOccupancy() { return maxOccupancy; }
+
+    public long offered() { return offered; }
+
+    public long droppedOldest() { return droppedOldest; }
+
+    public long droppedNewest() { return droppedNewest; }
+
+    public long blockedMillis() { return blockedNanos / 1_000_000; }
+
+    @Override
+    public String toString() {
+        return String.format("%s ring: %d/%d used (max %d), %d offered, %d oldest dropped, %d newest dropped, %dms blocked",
+                policy, occupancy(), capacity(), maxOccupancy, offered, droppedOldest, droppedNewest, blockedMillis());
+    }
+}
@@ -0,0 +1,105 @@
+package de.frauas.informatik.batterydashboard.background;
+
+/**
+ * Checks frames before they get to the battery model, so Battery.setValues() never gets a frame it can't handle.
+ * Bad frames are reported with a status code instead of an exception: exceptions are expensive
+ * and a noisy link can easily corrupt every second frame.
+ * </br></br>
+ * A text frame is decoded in one pass without allocating anything (see ProtocolSchema): the sections have to be in the order
+ * of the protocol schema with the number of values of the battery setup, every value has to be an integer and has to be plausible
+ * (the limits are far outside the warning limits in battery_specs.xml, they only catch values that can't be real).
+ * Binary frames are checked by the BinaryFrameCodec, toStatus() maps its status, validate(BmsFrame) checks the ranges.
+ *
+ * @see StatReceiver
+ * @see FrameQuarantine
+ */
+
+public class FrameValidator {
+    // results, also used as index of the counters in ReceiverStats
+    public static final int OK = 0;
+    public static final int TRUNCATED = 1;    // frame ends before all values were read
+    public static final int BAD_NUMBER = 2;   // something that isn't an integer where a value is expected
+    public static final int OUT_OF_RANGE = 3; // value that can't be real
+    public static final int BAD_CRC = 4;      // binary frame with a wrong checksum
+    public static final int BAD_LAYOUT = 5;   // wrong sections, number of values, header or delta sequence
+    public static final int REASON_COUNT = 6;
+    private static final String[] REASONS = {"ok", "truncated", "bad number", "out of range", "bad crc", "bad layout"};
+
+    // plausibility limits in the units of BmsFrame
+    private static final int MAX_CELL_MILLIVOLTS = 5000;
+    private static final int MIN_DECI_TEMP = -400;
+    private static final int MAX_DECI_TEMP = 1500;
+    private static final int MAX_DECI_AMPS = 10000;
+    private static final int MAX_CAPACITY = 255;
+
+    private final ProtocolSchema schema;
+    private final BmsFrame textFrame; // text frames are decoded into this one to check them
+
+    /**
+     * @param schema layout of the text protocol and the battery (e.g. ProtocolSchema.fromSpecs())
+     */
+    public FrameValidator(ProtocolSchema schema) {
+        this.schema = schema;
+        textFrame = schema.newFrame();
+    }
+
+    /**
+     * checks a text frame (CellVoltage:...;...Capacity:...)
+     * @return OK or one of TRUNCATED, BAD_NUMBER, OUT_OF_RANGE, BAD_LAYOUT
+     */
+    public int validate(CharSequence msg) {
+        int status = schema.decode(msg, textFrame, false);
+        return status != OK ? status : validate(textFrame);
+    }
+
+    /**
+     * The text frame decoded by the last validate(CharSequence), so it does not have to be parsed again.
+     * Only valid until the next call and if that returned OK.
+     */
+    public BmsFrame decoded() {
+        return textFrame;
+    }
+
+    /**
+     * checks the values of a decoded frame
+     * @return OK or OUT_OF_RANGE
+     */
+    public int validate(BmsFrame frame) {
+        for (int mv : frame.cellMillivolts) {
+            if (mv < 0 || mv > MAX_CELL_MILLIVOLTS) return OUT_OF_RANGE;
+        }
+        for (int t : frame.cellDeciTemps) {
+            if (t < MIN_DECI_TEMP || t > MAX_DECI_TEMP) return OUT_OF_RANGE;
+        }
+        if (frame.drivingDeciAmps < -MAX_DECI_AMPS || frame.drivingDeciAmps > MAX_DECI_AMPS) return OUT_OF_RANGE;
+        for (int i = 0; i < frame.blockCount(); i++) {
+            if (frame.chargingDeciAmps[i] < -MAX_DECI_AMPS || frame.chargingDeciAmps[i] > MAX_DECI_AMPS) return OUT_OF_RANGE;
+            if (frame.chargerDeciTemps[i] < MIN_DECI_TEMP || frame.chargerDeciTemps[i] > MAX_DECI_TEMP) return OUT_OF_RANGE;
+            if (frame.capacity[i] < 0 || frame.capacity[i] > MAX_CAPACITY) return OUT_OF_RANGE;
+        }
+        return OK;
+    }
+
+    /**
+     * maps a status of the BinaryFrameCodec to a status of the validator
+     */
+    public static int toStatus(int codecStatus) {
+        switch (codecStatus) {
+            case BinaryFrameCodec.OK:
+                return OK;
+            case BinaryFrameCodec.TRUNCATED:
+                return TRUNCATED;
+            case BinaryFrameCodec.BAD_CRC:
+                return BAD_CRC;
+            default: // BAD_HEADER, BAD_LAYOUT, BAD_SEQUENCE
+                return BAD_LAYOUT;
+        }
+    }
+
+    /**
+     * @return readable name of a status, e.g. for logs
+     */
+    public static String reason(int status) {
+        return status >= 0 && status < REASONS.length ? REASONS[status] : "unknown";
+    }
+}
@@ -0,0 +1,235 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import android.content.res.Resources;
+
+import com.example.batterydashboard.R;
+
+/**
+ * Layout of the text protocol (CellVoltage:...;...Capacity:...), loaded from battery_specs.xml instead of being hard-coded:
+ * the order of the sections, the number of values of every section, their scale factor and which value of the battery they are.
+ * So a firmware with another number of cells or with additional sections only needs other values in battery_specs.xml.
+ * </br></br>
+ * The schema is compiled once into a flat decode table with one entry per value of a frame (field of the BmsFrame,
+ * factor and divisor to get to the units of BmsFrame). decode() walks through a frame and the table at the same time,
+ * parses the numbers in place and writes them into a BmsFrame – one pass, no allocation, no exceptions.
+ * </br></br>
+ * Section types (protocol_fields): cell_voltage (V), cell_temp (°C), driving_amperage (A), charging_amperage (A),
+ * charger_temp (°C), capacity (%) and ignore (section is read but not used).
+ * Counts (protocol_counts): cells, thermometers, blocks or a fixed number.
+ * A value in the frame divided by the scale (protocol_scales) is the value in the unit of its type.
+ *
+ * @see BmsFrame
+ * @see FrameValidator
+ * @see de.frauas.informatik.batterydashboard.ui.Battery#setValues(CharSequence)
+ */
+
+public class ProtocolSchema {
+    private static final int IGNORE = -1;
+    private static final int MAX_DIGITS = 9; // more digits would overflow an int
+
+    private final int cellCount;
+    private final int tempSensorCount;
+    private final int blockCount;
+
+    // per section
+    private final String[] sectionNames; // with ':'
+    private final int[] sectionStart;    // index of the first value of the section in the decode table
+    private final boolean[] isList;      // count depends on the battery setup, a trailing ';' is allowed then
+    private int sections;                // BmsFrame.SECTION_... bits of the values in the schema
+
+    // decode table, per value of a frame
+    private final int[] field;
+    private final int[] factor;
+    private final int[] divisor;
+
+    /**
+     * @param names section names (without ':') in the order of the protocol
+     * @param fields section types (see class doc)
+     * @param counts number of values of every section (cells, thermometers, blocks or a number)
+     * @param scales scale factor of every section
+     * @param blockCount number of blocks of the battery
+     * @param cellsPerBlock cells per block
+     * @param tempSensorsPerBlock temperature sensors per block
+     * @throws IllegalArgumentException if the schema is not valid (checked once at startup)
+     */
+    public ProtocolSchema(String[] names, String[] fields, String[] counts, int[] scales,
+                          int blockCount, int cellsPerBlock, int tempSensorsPerBlock) {
+        if (fields.length != names.length || counts.length != names.length || scales.length != names.length)
+            throw new IllegalArgumentException("protocol schema: every section needs a field, a count and a scale");
+        this.blockCount = blockCount;
+        this.cellCount = blockCount * cellsPerBlock;
+        this.tempSensorCount = blockCount * tempSensorsPerBlock;
+        BmsFrame layout = newFrame();
+
+        sectionNames = new String[names.length];
+        sectionStart = new int[names.length + 1];
+        isList = new boolean[names.length];
+        int valueCount = 0;
+        for (int s = 0; s < names.length; s++) {
+            sectionNames[s] = names[s] + ":";
+            sectionStart[s] = valueCount;
+            isList[s] = !isNumber(counts[s]);
+            valueCount += count(counts[s]);
+        }
+        sectionStart[names.length] = valueCount;
+
+        field = new int[valueCount];
+        factor = new int[valueCount];
+        divisor = new int[valueCount];
+        for (int s = 0; s < names.length; s++) {
+            if (scales[s] <= 0) throw new IllegalArgumentException("protocol schema: scale of " + names[s] + " must be > 0");
+            for (int v = sectionStart[s], i = 0; v < sectionStart[s + 1]; v++, i++) {
+                divisor[v] = scales[s];
+                switch (fields[s]) {
+                    case "cell_voltage":     field[v] = i < cellCount ? i : IGNORE; factor[v] = 1000; break; // mV
+                    case "cell_temp":        field[v] = i < tempSensorCount ? layout.tempField(i) : IGNORE; factor[v] = 10; break;
+                    case "driving_amperage": field[v] = i == 0 ? layout.drivingField() : IGNORE; factor[v] = 10; break;
+                    case "charging_amperage":field[v] = i < blockCount ? layout.chargingField(i) : IGNORE; factor[v] = 10; break;
+                    case "charger_temp":     field[v] = i < blockCount ? layout.chargerTempField(i) : IGNORE; factor[v] = 10; break;
+                    case "capacity":         field[v] = i < blockCount ? layout.capacityField(i) : IGNORE; factor[v] = 1; break;
+                    case "ignore":           field[v] = IGNORE; factor[v] = 1; break;
+                    default: throw new IllegalArgumentException("protocol schema: unknown field " + fields[s]);
+                }
+                if (field[v] != IGNORE) sections |= sectionOf(fields[s]);
+            }
+        }
+    }
+
+    /**
+     * loads the schema of the text protocol and the battery setup from battery_specs.xml
+     */
+    public static ProtocolSchema fromSpecs(Resources resources) {
+        return new ProtocolSchema(
+                resources.getStringArray(R.array.protocol_sections),
+                resources.getStringArray(R.array.protocol_fields),
+                resources.getStringArray(R.array.protocol_counts),
+                resources.getIntArray(R.array.protocol_scales),
+                resources.getInteger(R.integer.blocks),
+                resources.getInteger(R.integer.cellsPerBlock),
+                resources.getInteger(R.integer.thermometer_per_block));
+    }
+
+    /**
+     * the text protocol as it is in battery_specs.xml by default (e.g. for tests without resources)
+     */
+    public static ProtocolSchema textProtocol(int blockCount, int cellsPerBlock, int tempSensorsPerBlock) {
+        return new ProtocolSchema(
+                new String[]{"CellVoltage", "CellTemp", "DrivingAmperage", "ChargingAmperage", "ChargerTemp", "Capacity"},
+                new String[]{"cell_voltage", "cell_temp", "driving_amperage", "charging_amperage", "charger_temp", "capacity"},
+                new String[]{"cells", "thermometers", "1", "blocks", "blocks", "blocks"},
+                new int[]{StatReceiver.VOLTAGE_SCALE, StatReceiver.TEMPERATURE_SCALE, StatReceiver.AMPERAGE_SCALE,
+                        StatReceiver.AMPERAGE_SCALE, 1, StatReceiver.CAPACITY_SCALE},
+                blockCount, cellsPerBlock, tempSensorsPerBlock);
+    }
+
+    private static int sectionOf(String field) {
+        switch (field) {
+            case "cell_voltage": return BmsFrame.SECTION_CELL_VOLTAGES;
+            case "cell_temp": return BmsFrame.SECTION_CELL_TEMPS;
+            case "driving_amperage": return BmsFrame.SECTION_DRIVING_AMPERAGE;
+            case "charging_amperage": return BmsFrame.SECTION_CHARGING_AMPERAGE;
+            case "charger_temp": return BmsFrame.SECTION_CHARGER_TEMPS;
+            case "capacity": return BmsFrame.SECTION_CAPACITY;
+            default: return 0;
+        }
+    }
+
+    private int count(String count) {
+        switch (count) {
+            case "cells": return cellCount;
+            case "thermometers": return tempSensorCount;
+            case "blocks": return blockCount;
+            default:
+                if (!isNumber(count)) throw new IllegalArgumentException("protocol schema: unknown count " + count);
+                return Integer.parseInt(count);
+        }
+    }
+
+    private static boolean isNumber(String s) {
+        if (s.isEmpty()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a frame with the layout of the battery of this schema
+     */
+    public BmsFrame newFrame() {
+        return new BmsFrame(cellCount, tempSensorCount, blockCount);
+    }
+
+    /**
+     * decodes a text frame into a (full) BmsFrame, its sections() are those of the schema then
+     * @param msg the frame
+     * @param frame frame made by newFrame(), fields not in the schema keep their values
+     * @param lenient like the old parser of Battery: values after the last one of a section and anything after the last section
+     *                are skipped, numbers may start with '+'
+     * @return FrameValidator.OK or one of FrameValidator.TRUNCATED, BAD_NUMBER, BAD_LAYOUT (then frame is partly written)
+     */
+    public int decode(CharSequence msg, BmsFrame frame, boolean lenient) {
+        int len = msg.length();
+        int p = 0;
+        for (int s = 0; s < sectionNames.length; s++) {
+            String section = sectionNames[s];
+            if (lenient) {
+                while (p < len && isValueChar(msg.charAt(p))) p++;
+            }
+            if (len - p < section.length()) return FrameValidator.TRUNCATED;
+            for (int i = 0; i < section.length(); i++) {
+                if (msg.charAt(p + i) != section.charAt(i)) return FrameValidator.BAD_LAYOUT;
+            }
+            p += section.length();
+            for (int v = sectionStart[s]; v < sectionStart[s + 1]; v++) {
+                if (v > sectionStart[s]) {
+                    if (p >= len) return FrameValidator.TRUNCATED;
+                    if (msg.charAt(p) != ';') return Character.isLetter(msg.charAt(p)) ? FrameValidator.BAD_LAYOUT : FrameValidator.BAD_NUMBER;
+                    p++;
+                }
+                // integer with optional sign
+                if (p >= len) return FrameValidator.TRUNCATED;
+                boolean negative = msg.charAt(p) == '-';
+                if (negative || (lenient && msg.charAt(p) == '+')) p++;
+                int start = p;
+                int value = 0;
+                while (p < len) {
+                    char c = msg.charAt(p);
+                    if (c < '0' || c > '9') break;
+                    if (p - start == MAX_DIGITS) return FrameValidator.BAD_NUMBER;
+                    value = value * 10 + (c - '0');
+                    p++;
+                }
+                if (p == start) return p >= len ? FrameValidator.TRUNCATED : FrameValidator.BAD_NUMBER;
+                if (field[v] != IGNORE) {
+                    long scaled = (long) (negative ? -value : value) * factor[v] / divisor[v];
+                    frame.setField(field[v], (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, scaled)));
+                }
+            }
+            if (isList[s] && p < len && msg.charAt(p) == ';') p++; // a trailing ';' is fine after a list
+        }
+        if (!lenient && p != len) return FrameValidator.BAD_LAYOUT;
+        frame.markAllChanged(sections);
+        return FrameValidator.OK;
+    }
+
+    private static boolean isValueChar(char c) {
+        return (c >= '0' && c <= '9') || c == ';' || c == '-' || c == '+';
+    }
+
+    public int cellCount() { return cellCount; }
+
+    public int tempSensorCount() { return tempSensorCount; }
+
+    public int blockCount() { return blockCount; }
+
+    /**
+     * @return the values a frame of this protocol has, as BmsFrame.SECTION_... bits (the others are never updated by text frames)
+     */
+    public int sections() { return sections; }
+
+    /**
+     * @return number of values of a frame
+     */
+    public int valueCount() { return field.length; }
+}
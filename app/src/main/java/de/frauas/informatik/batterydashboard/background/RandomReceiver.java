@@ -1,43 +1,128 @@
 package de.frauas.informatik.batterydashboard.background;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
-import android.widget.Toast;
+
+import androidx.annotation.WorkerThread;
 
 import java.io.File;
 import java.util.Random;
-import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.locks.LockSupport;
 
 /** This class extends StatReceiver and mocks a connection to the BMS (Battery Management System) by creating random values.</br>
  * Values seem to become unrealistic after some time (e.g. running overnight)...
+ * </br></br>
+ * Load mode (see the second constructor): frames are generated on a thread of their own at a fixed rate (or as fast as possible)
+ * instead of the timer, which can't go faster than one frame per ms. The values are generated with a seeded Random,
+ * so the same seed always gives the same sequence of frames, and the frame buffer is reused, so there is no garbage per frame.
+ * The achieved frame rate is logged every second and can be read with getAchievedFrameRate() –
+ * if it stays below the target rate (ring policy BLOCK) or the FrameDispatcher drops frames, the listener is saturated.
+ * Use it with a cell count matching battery_specs.xml if the frames are set in the Battery.
  * </br>
  * @author Lehmann, Deegener, (Julia)
  */
 
 public class RandomReceiver extends StatReceiver {
     private static final String TAG = "RandomReceiver";
-    private final Random rand = new Random(System.currentTimeMillis()); //
+    public static final int AS_FAST_AS_POSSIBLE = 0;
+    private static final int MOCK_CELL_COUNT = 60; // volt is the sum of this many cells
+    private static final int NOISE_AMPLITUDE = 3; // max. noise of a cell voltage (1/VOLTAGE_SCALE V)
+    private static final long RATE_LOG_INTERVAL_NANOS = 1_000_000_000L;
+    private static final long MAX_LAG_NANOS = 10_000_000L; // load mode: max. delay that is caught up
+
+    /**
+     * noise added to the cell voltages:</br>
+     * NONE: only the fixed offset of each cell</br>
+     * UNIFORM: +-NOISE_AMPLITUDE, evenly distributed</br>
+     * GAUSSIAN: normally distributed, NOISE_AMPLITUDE is the standard deviation
+     */
+    public enum NoiseProfile {
+        NONE, UNIFORM, GAUSSIAN;
+
+        /**
+         * @param name value of synthetic_load_noise in battery_specs.xml (none, uniform or gaussian)
+         * @return the matching profile, UNIFORM if the name is unknown
+         */
+        public static NoiseProfile fromConfig(String name) {
+            for (NoiseProfile p : values()) {
+                if (p.name().equalsIgnoreCase(name)) return p;
+            }
+            return UNIFORM;
+        }
+    }
+
+    private final Random rand;
     private int[] cells={0,3, 0, -2, 1, 4, -3,0,-2,-1,0,2,-5,-3,-4,
             1,-3,2,4,-3,-5,2,4,0,0,3,-2,4,-2, -5,
             -2,0,0,2,1,-1,0,3,0,-1,0,-1, 2, -1, -2,
             1,2,3,-2,-3,4,-1,0,0,-2,-2,0,2,0,-2};
+    private final int cellCount, tempSensorCount, blockCount;
+    private final NoiseProfile noise;
+    private final int framesPerSecond; // load mode only, -1 = timer mode
+    private final StringBuilder sb = new StringBuilder(FrameAssembler.MAX_TEXT_FRAME_LENGTH); // reused for every frame
 
     private int amp=200, volt=20000, capa=80;
     private boolean increase;
+
+    /**
+     * mock with the default layout (60 cells, 20 thermometers, 4 blocks), one frame per timer tick
+     */
+    public RandomReceiver() {
+        rand = new Random(System.currentTimeMillis());
+        cellCount = cells.length;
+        tempSensorCount = 20;
+        blockCount = 4;
+        noise = NoiseProfile.NONE;
+        framesPerSecond = -1;
+    }
+
+    /**
+     * load mode: reproducible frames at a high rate on a thread of their own (stop() and join() it like the reader thread)
+     * @param seed seed of the random values, the same seed gives the same frames
+     * @param cellCount number of cell voltages per frame
+     * @param tempSensorCount number of cell temperatures per frame
+     * @param blockCount number of charger values per frame
+     * @param noise noise added to the cell voltages
+     * @param framesPerSecond target rate, AS_FAST_AS_POSSIBLE = no waiting
+     */
+    public RandomReceiver(long seed, int cellCount, int tempSensorCount, int blockCount, NoiseProfile noise, int framesPerSecond) {
+        rand = new Random(seed);
+        this.cellCount = cellCount;
+        this.tempSensorCount = tempSensorCount;
+        this.blockCount = blockCount;
+        this.noise = noise;
+        this.framesPerSecond = framesPerSecond;
+        if (cellCount != cells.length) {
+            cells = new int[cellCount];
+            for (int i = 0; i < cellCount; i++) {
+                cells[i] = rand.nextInt(10) - 5;
+            }
+        }
+    }
+
+    @Override
+    public void startReading(File source, ReaderMode mode, int updatesPerTenSeconds, Context context) {
+        startReadingFromFile(source, updatesPerTenSeconds, context);
+    }
+
     @Override
     public void startReadingFromFile(File source, int updatesPerTenSeconds, Context context){
+        if (framesPerSecond >= 0) {
+            stats.reset();
+            startThread(this::loadLoop, TAG + "-load");
+            return;
+        }
         assert updatesPerTenSeconds != 0.0;
-        Timer statsTimer = new Timer();
+        stats.reset();
         statsTimer.schedule(new TimerTask() {
             @Override
             public void run() {
                 try {
-                    long tstart = System.currentTimeMillis();
+                    long tstart = SystemClock.elapsedRealtimeNanos();
                     StringBuilder randomString = genRandString();
-                    listener.onNewData(randomString);
-                    long tend = System.currentTimeMillis();
-                    //Log.i(TAG, String.format("processing statselement in %dms", tend - tstart));
+                    deliver(randomString, tstart);
                 } catch (Exception e) {
                     //TODO make toast
                     Log.d(TAG, "BMS-Informationen sind falsch formatiert!");
@@ -48,8 +133,49 @@ public class RandomReceiver extends StatReceiver {
         }, 500, (10000 / updatesPerTenSeconds));
     }
 
+    @WorkerThread
+    private void loadLoop() {
+        Log.i(TAG, "load mode: " + cellCount + " cells, " + noise + " noise, target "
+                + (framesPerSecond == AS_FAST_AS_POSSIBLE ? "max" : framesPerSecond + "/s"));
+        final long period = framesPerSecond > 0 ? 1_000_000_000L / framesPerSecond : 0;
+        long next = System.nanoTime();
+        long nextLog = next + RATE_LOG_INTERVAL_NANOS;
+        try {
+            while (isRunning()) {
+                long now = System.nanoTime();
+                if (period > 0) {
+                    if (now < next) {
+                        LockSupport.parkNanos(next - now);
+                        continue;
+                    }
+                    // catch up small delays, but don't send a burst of frames if the listener was too slow
+                    next = Math.max(next + period, now - MAX_LAG_NANOS);
+                }
+                try {
+                    deliver(genRandString(), SystemClock.elapsedRealtimeNanos());
+                } catch (Exception e) {
+                    Log.e(TAG, "failed to process frame", e);
+                }
+                if (now >= nextLog) {
+                    Log.i(TAG, "achieved " + String.format("%.0f", getAchievedFrameRate()) + " frames/s: " + stats);
+                    nextLog = now + RATE_LOG_INTERVAL_NANOS;
+                }
+            }
+        } finally {
+            finished();
+            Log.i(TAG, "load mode finished: " + stats);
+        }
+    }
+
+    /**
+     * @return frames per second delivered to the listener since the start
+     */
+    public float getAchievedFrameRate() {
+        return stats.framesPerSecond();
+    }
+
     private StringBuilder genRandString() {
-        StringBuilder sb = new StringBuilder(400);
+        sb.setLength(0);
         if (increase) {
             amp += 30;
             volt -= 90;
@@ -69,17 +195,17 @@ public class RandomReceiver extends StatReceiver {
         }
 
         sb.append("CellVoltage:");
-        addCellValues(sb, 60, 100);
+        addCellValues(sb, cellCount, 100);
         sb.append("CellTemp:");
-        addCellTempValues(sb, 20, 100);
+        addCellTempValues(sb, tempSensorCount, 100);
         sb.append("DrivingAmperage:");
         sb.append(amp);
         sb.append("ChargingAmperage:");
-        addChargingAmperageValues(sb, 4, 100);
+        addChargingAmperageValues(sb, blockCount, 100);
         sb.append("ChargerTemp:");
-        addChargerTempValues(sb, 4, 100);
+        addChargerTempValues(sb, blockCount, 100);
         sb.append("Capacity:");
-        addCapacityValues(sb, 4, 100);
+        addCapacityValues(sb, blockCount, 100);
 
         return sb;
     }
@@ -92,13 +218,23 @@ public class RandomReceiver extends StatReceiver {
         sb.deleteCharAt(sb.length() - 1);
     }
     private void addCellValues(StringBuilder sb, int count, int bound){
-        int cellv=volt/count;
+        int cellv=volt/MOCK_CELL_COUNT;
         for (int i = 0; i < count; i++) {
-            sb.append(cells[i]+cellv);
+            sb.append(cells[i]+cellv+cellNoise());
             sb.append(';');
         }
         sb.deleteCharAt(sb.length() - 1);
     }
+    private int cellNoise() {
+        switch (noise) {
+            case UNIFORM:
+                return rand.nextInt(2 * NOISE_AMPLITUDE + 1) - NOISE_AMPLITUDE;
+            case GAUSSIAN:
+                return (int) Math.round(rand.nextGaussian() * NOISE_AMPLITUDE);
+            default:
+                return 0;
+        }
+    }
     private void addChargingAmperageValues(StringBuilder sb, int count, int bound){
         for (int i = 0; i < count; i++) {
             sb.append(0);
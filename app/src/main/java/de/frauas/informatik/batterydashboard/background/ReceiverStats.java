@@ -0,0 +1,118 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import android.os.SystemClock;
+
+/**
+ * Counters of a StatReceiver, used to compare the reader modes (timer polling vs. blocking reader thread).</br>
+ * Latency is measured from the moment a frame was read from the device until the listener returned
+ * (with SystemClock.elapsedRealtimeNanos(), the clock of the frame times in the battery),
+ * throughput is counted since the receiver was started.
+ * </br></br>
+ * Rejected frames are counted per reason (see FrameValidator).
+ * </br></br>
+ * The counters are written by the reading thread only and read by anyone (e.g. logcat output), so plain volatile fields are enough
+ * (the reject counters may be read a little late, which doesn't matter for statistics).
+ *
+ * @see StatReceiver
+ */
+
+public class ReceiverStats {
+    private volatile long startNanos;
+    private volatile long frames;
+    private volatile long chars;
+    private volatile long lastLatencyNanos;
+    private volatile long maxLatencyNanos;
+    private volatile long totalLatencyNanos;
+    private volatile long resyncs;
+    private volatile long skippedBytes;
+    private final long[] rejected = new long[FrameValidator.REASON_COUNT];
+
+    void reset() {
+        startNanos = System.nanoTime();
+        frames = 0;
+        chars = 0;
+        lastLatencyNanos = 0;
+        maxLatencyNanos = 0;
+        totalLatencyNanos = 0;
+        resyncs = 0;
+        skippedBytes = 0;
+        for (int i = 0; i < rejected.length; i++) rejected[i] = 0;
+    }
+
+    /**
+     * @param length size of the frame in chars (or bytes)
+     * @param readNanos SystemClock.elapsedRealtimeNanos() when the frame was read from the source
+     */
+    void onFrameDelivered(int length, long readNanos) {
+        long latency = SystemClock.elapsedRealtimeNanos() - readNanos;
+        lastLatencyNanos = latency;
+        if (latency > maxLatencyNanos) maxLatencyNanos = latency;
+        totalLatencyNanos += latency;
+        chars += length;
+        frames++;
+    }
+
+    /**
+     * @param skipped number of bytes the frame assembler had to throw away to get back in sync
+     */
+    void onResync(int skipped) {
+        resyncs++;
+        skippedBytes += skipped;
+    }
+
+    /**
+     * @param reason status of the FrameValidator the frame was rejected with
+     */
+    void onRejected(int reason) {
+        rejected[reason]++;
+    }
+
+    public long frames() { return frames; }
+
+    /**
+     * @param reason status of the FrameValidator (e.g. FrameValidator.BAD_CRC)
+     * @return number of frames rejected for this reason
+     */
+    public long rejected(int reason) { return rejected[reason]; }
+
+    public long rejectedTotal() {
+        long sum = 0;
+        for (long r : rejected) sum += r;
+        return sum;
+    }
+
+    public long resyncs() { return resyncs; }
+
+    public long skippedBytes() { return skippedBytes; }
+
+    public long chars() { return chars; }
+
+    public long lastLatencyNanos() { return lastLatencyNanos; }
+
+    public long maxLatencyNanos() { return maxLatencyNanos; }
+
+    public long avrgLatencyNanos() {
+        long f = frames;
+        return f == 0 ? 0 : totalLatencyNanos / f;
+    }
+
+    /**
+     * @return delivered frames per second since the receiver was started
+     */
+    public float framesPerSecond() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0 : frames * 1e9f / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        String s = String.format("%d frames (%.1f/s), %d chars, latency avg %dus / max %dus, %d resyncs (%d bytes skipped)",
+                frames, framesPerSecond(), chars, avrgLatencyNanos() / 1000, maxLatencyNanos / 1000, resyncs, skippedBytes);
+        if (rejectedTotal() == 0) return s;
+        StringBuilder sb = new StringBuilder(s).append(", rejected:");
+        for (int i = 1; i < rejected.length; i++) {
+            if (rejected[i] > 0) sb.append(' ').append(FrameValidator.reason(i)).append(' ').append(rejected[i]);
+        }
+        return sb.toString();
+    }
+}
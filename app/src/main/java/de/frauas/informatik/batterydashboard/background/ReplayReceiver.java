@@ -0,0 +1,111 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/** This class extends StatReceiver and replays a session recorded by a StreamRecorder instead of reading the BMS.</br>
+ * The recorded bytes go through the same framing and decoding as live data and end up at the OnNewDataListener,
+ * so incidents can be reproduced and the whole pipeline (receiver -> battery model -> UI) can be measured without the vehicle.
+ * </br></br>
+ * Speed: 1 replays with the original timing, n replays n times faster and AS_FAST_AS_POSSIBLE doesn't wait at all.
+ * The reader mode is ignored, the replay always runs on its own thread (stop() and join() it like the reader thread).
+ *
+ * @see StreamRecorder
+ */
+
+public class ReplayReceiver extends StatReceiver {
+    private static final String TAG = "ReplayReceiver";
+    public static final float AS_FAST_AS_POSSIBLE = 0;
+
+    private final float speed;
+    private DataInputStream log;
+
+    /**
+     * @param speed 1 = original timing, 2 = twice as fast, ..., AS_FAST_AS_POSSIBLE = no waiting
+     */
+    public ReplayReceiver(float speed) {
+        this.speed = speed;
+    }
+
+    @Override
+    public void startReading(File source, ReaderMode mode, int updatesPerTenSeconds, Context context)
+            throws FileNotFoundException {
+        startReaderThread(source);
+    }
+
+    @Override
+    public void startReadingFromFile(File source, int updatesPerTenSeconds, Context context)
+            throws FileNotFoundException {
+        startReaderThread(source);
+    }
+
+    /**
+     * starts replaying a recording on its own thread
+     * @param source the recording (see StreamRecorder)
+     * @throws FileNotFoundException
+     */
+    @Override
+    public void startReaderThread(File source) throws FileNotFoundException {
+        prepare();
+        log = new DataInputStream(new BufferedInputStream(new FileInputStream(source)));
+        startThread(this::replayLoop, TAG);
+    }
+
+    @WorkerThread
+    private void replayLoop() {
+        final DataInputStream in = log;
+        // records are single reads of the receiver (StatReceiver reads up to 1024 bytes at a time)
+        final byte[] chunk = new byte[BinaryFrameCodec.MAX_FRAME_LENGTH];
+        try {
+            StreamRecorder.readMagic(in);
+            long startNanos = System.nanoTime();
+            while (isRunning()) {
+                long offset;
+                try {
+                    offset = in.readLong();
+                } catch (EOFException end) {
+                    break;
+                }
+                int length = in.readInt();
+                if (length < 0 || length > chunk.length) {
+                    // corrupt recording, the rest can't be trusted (and new byte[length] would throw or run out of memory)
+                    Log.e(TAG, "corrupt record (length " + length + "), replay stopped");
+                    break;
+                }
+                in.readFully(chunk, 0, length);
+                if (speed > 0) waitUntil(startNanos + (long) (offset / speed));
+                ingest(chunk, length);
+            }
+        } catch (EOFException e) {
+            Log.e(TAG, "recording is truncated, replay stopped");
+        } catch (IOException e) {
+            Log.e(TAG, "replay failed", e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            finished();
+            Log.i(TAG, "replay finished: " + stats);
+        }
+    }
+
+    private void waitUntil(long nanos) {
+        long wait;
+        while (isRunning() && (wait = nanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+}
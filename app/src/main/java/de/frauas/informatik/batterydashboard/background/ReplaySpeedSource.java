@@ -0,0 +1,119 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/** Stand-in for a real speed source: plays a text file with one sample per line, "&lt;ms since start&gt;;&lt;km/h&gt;"
+ * (e.g. "1500;42.5", lines starting with # are skipped), with the original timing like the ReplayReceiver does with BMS recordings.
+ * The samples are stamped with the time they are played, so they line up with the frames of a replay started at the same time.
+ * </br></br>
+ * Speed: 1 plays with the original timing, n plays n times faster and ReplayReceiver.AS_FAST_AS_POSSIBLE (0) doesn't wait at all,
+ * like the ReplayReceiver (both get replay_speed from battery_specs.xml).
+ *
+ * @see SpeedSource
+ * @see ReplayReceiver
+ */
+
+public class ReplaySpeedSource implements SpeedSource {
+    private static final String TAG = "ReplaySpeedSource";
+    private static final long JOIN_TIMEOUT_MILLIS = 500;
+
+    private final File source;
+    private final float speed;
+    private volatile OnSpeedListener listener;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param source the file with the samples
+     * @param speed 1 = original timing, 2 = twice as fast, ..., ReplayReceiver.AS_FAST_AS_POSSIBLE = no waiting
+     */
+    public ReplaySpeedSource(File source, float speed) {
+        this.source = source;
+        this.speed = speed;
+    }
+
+    @Override
+    public void setOnSpeedListener(OnSpeedListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void start() throws IOException {
+        final BufferedReader in = new BufferedReader(new FileReader(source));
+        running = true;
+        thread = new Thread(() -> replayLoop(in), TAG);
+        thread.start();
+    }
+
+    @WorkerThread
+    private void replayLoop(BufferedReader in) {
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        int samples = 0;
+        try {
+            String line;
+            while (running && (line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                int separator = line.indexOf(';');
+                long offsetMillis;
+                float kmh;
+                try {
+                    offsetMillis = Long.parseLong(line.substring(0, separator).trim());
+                    kmh = Float.parseFloat(line.substring(separator + 1).trim());
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "skipping bad line: " + line);
+                    continue;
+                }
+                if (speed > 0) waitUntil(startNanos + (long) (offsetMillis * 1_000_000L / speed));
+                OnSpeedListener l = listener;
+                if (running && l != null) l.onSpeed(SystemClock.elapsedRealtimeNanos(), kmh);
+                samples++;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "replay failed", e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            Log.i(TAG, "replay finished: " + samples + " samples");
+        }
+    }
+
+    private void waitUntil(long nanos) {
+        long wait;
+        while (running && (wait = nanos - SystemClock.elapsedRealtimeNanos()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        Thread t = thread;
+        if (t != null) t.interrupt();
+    }
+
+    @Override
+    public void join() {
+        Thread t = thread;
+        if (t == null) return;
+        try {
+            t.join(JOIN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (t.isAlive()) Log.w(TAG, "replay thread did not finish in time");
+        thread = null;
+    }
+}
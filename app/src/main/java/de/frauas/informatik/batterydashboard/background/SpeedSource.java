@@ -0,0 +1,45 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+
+/**
+ * Source of the vehicle speed (the BMS doesn't know it), e.g. the CAN bus of the vehicle or a GPS.
+ * Like a StatReceiver it runs on a thread of its own and hands every sample to its listener,
+ * stamped with SystemClock.elapsedRealtimeNanos() like the frames of the battery, so both can be aligned in time.
+ * </br></br>
+ * There is no real source yet, ReplaySpeedSource plays a file with speed samples for testing.
+ *
+ * @see ReplaySpeedSource
+ * @see de.frauas.informatik.batterydashboard.ui.DistanceMeter
+ */
+
+public interface SpeedSource {
+
+    interface OnSpeedListener {
+        /**
+         * @param timeNanos time of the sample (SystemClock.elapsedRealtimeNanos())
+         * @param kmh speed in km/h
+         */
+        @WorkerThread
+        void onSpeed(long timeNanos, float kmh);
+    }
+
+    void setOnSpeedListener(OnSpeedListener listener);
+
+    /**
+     * starts delivering samples on a thread of the source
+     */
+    void start() throws IOException;
+
+    /**
+     * stops delivering samples
+     */
+    void stop();
+
+    /**
+     * waits (a short time) for the thread of the source to finish after stop() was called
+     */
+    void join();
+}
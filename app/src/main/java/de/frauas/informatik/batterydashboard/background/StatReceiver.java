@@ -1,21 +1,41 @@
 package de.frauas.informatik.batterydashboard.background;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
 import androidx.annotation.WorkerThread;
 
-import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Timer;
 import java.util.TimerTask;
 
-/** This class is a Singleton. It reads values from a file provided by the BMS.
+/** This class reads values from a file provided by the BMS. There is one receiver per battery pack,
+ * getInstance() returns the one of the first pack.
+ * </br></br>
+ * There are two reader modes (see ReaderMode):
+ * TIMER polls the file with a java.util.Timer (the original implementation),
+ * BLOCKING_THREAD uses a dedicated thread doing blocking reads, so a frame is passed to the listener as soon as it arrives.
+ * Both modes count frames, throughput and latency in a ReceiverStats object (see getStats()).
+ * </br></br>
+ * The receiver understands the text protocol and the binary protocol (see Protocol and BinaryFrameCodec).
+ * The bytes read are cut into complete frames by a FrameAssembler, so the listener gets exactly one frame per call,
+ * however the frames were split up by the reads.
+ * Binary frames are decoded into a reusable BmsFrame and passed to OnNewDataListener.onNewFrame().
+ * Delta frames are applied on top of the last full frame in the same BmsFrame (see BmsFrame.isDelta()).
+ * </br></br>
+ * Every frame is checked by a FrameValidator (see setValidator()) before it is passed on. Bad frames don't throw:
+ * they are counted per reason in the stats and the last ones are kept in a FrameQuarantine (see getQuarantine()).
+ * </br></br>
+ * The raw stream can be recorded with a StreamRecorder (see setRecorder()) and replayed with a ReplayReceiver.
  * </br></br>
  * This class *might* have to be fixed before it works with a real device!
  * Things it depends on might have changed and due to Covid-19 I wasn't able to work with the real radio device. – J
@@ -27,8 +47,51 @@ public class StatReceiver {
     private static final String TAG = "StatReceiver";
     private static final int DEFAULT_UPDATE_FREQUENCY = 1;
     private static StatReceiver instance;
-    private Timer statsTimer = new Timer();
+    private static final int STATS_LOG_INTERVAL = 100; // log the stats every n frames
+    private static final long JOIN_TIMEOUT_MILLIS = 500;
+    Timer statsTimer = new Timer();
+    private Thread readerThread;
+    private volatile boolean running;
+    private static final int READ_CHUNK_SIZE = 1024;
+    private volatile InputStream input;
+    private FrameAssembler assembler;
+    private volatile StreamRecorder recorder;
+    private long chunkReadNanos; // when the bytes currently in the assembler were read (SystemClock.elapsedRealtimeNanos())
+    private Protocol protocol = Protocol.TEXT;
+    private BmsFrame frame;
+    private boolean haveKeyframe; // deltas can only be applied after a full frame
+    private int nextDeltaSequence;
+    private volatile FrameValidator validator;
+    private final FrameQuarantine quarantine = new FrameQuarantine(FrameQuarantine.DEFAULT_CAPACITY);
+    final ReceiverStats stats = new ReceiverStats();
+
+    /**
+     * TIMER: poll the source every 10000/updatesPerTenSeconds ms (adds up to one period of latency).</br>
+     * BLOCKING_THREAD: a dedicated thread blocks on the source and delivers every frame right away.
+     */
+    public enum ReaderMode { TIMER, BLOCKING_THREAD }
 
+    /**
+     * TEXT: CellVoltage:...;...Capacity:... (the original protocol)</br>
+     * BINARY: see BinaryFrameCodec</br>
+     * AUTO: accepts both, each frame is recognized by its start (sync bytes or "CellVoltage:")
+     */
+    public enum Protocol {
+        TEXT, BINARY, AUTO;
+
+        /**
+         * @param name value of bms_protocol in battery_specs.xml (text, binary or auto)
+         * @return the matching protocol, TEXT if the name is unknown
+         */
+        public static Protocol fromConfig(String name) {
+            for (Protocol p : values()) {
+                if (p.name().equalsIgnoreCase(name)) return p;
+            }
+            return TEXT;
+        }
+    }
+
+    // scales of the default text protocol (the ones that are used are protocol_scales in battery_specs.xml, see ProtocolSchema)
     public static final int VOLTAGE_SCALE = 100;
     public static final int TEMPERATURE_SCALE = 1;
     public static final int AMPERAGE_SCALE = 10;
@@ -36,7 +99,7 @@ public class StatReceiver {
 
     OnNewDataListener listener;
 
-    // Singleton implementation
+    // receiver of the first pack
     static StatReceiver getInstance() {
         if (instance == null)
             instance = new StatReceiver();
@@ -58,29 +121,24 @@ public class StatReceiver {
      */
     public void startReadingFromFile(File source, int updatesPerTenSeconds, Context context)
             throws FileNotFoundException {
-        final BufferedReader br = new BufferedReader(new FileReader(source));
+        final InputStream in = open(source);
+        final byte[] chunk = new byte[READ_CHUNK_SIZE];
         statsTimer.schedule(new TimerTask() {
             @Override
             public void run() {
-                StringBuilder msg = new StringBuilder();
                 try {
-                    while (br.ready()) {
-                        msg.append(br.readLine());
-                    }
-                    if (!msg.equals("")) {
-                        long tstart = System.currentTimeMillis();
-                        listener.onNewData(msg);
-                        long tend = System.currentTimeMillis();
-                        Log.i(TAG, String.format("processing statselement in %dms", tend - tstart));
+                    int available = in.available();
+                    while (available > 0) {
+                        int n = in.read(chunk, 0, Math.min(available, chunk.length));
+                        if (n < 0) break;
+                        ingest(chunk, n);
+                        available -= n;
                     }
-
                 } catch (IOException e) {
                     e.printStackTrace();
-                    Toast.makeText(context, "IO Error. Check console output.", Toast.LENGTH_LONG).show();
-                } catch (Exception e) {
-                    Toast.makeText(context, "Wrong format in stream", Toast.LENGTH_LONG).show();
-                    System.out.print(String.format("failed to parse message: \n%s", msg));
-                    e.printStackTrace();
+                    // this is the timer's thread, a Toast can only be shown on the main thread
+                    new Handler(Looper.getMainLooper()).post(() ->
+                            Toast.makeText(context, "IO Error. Check console output.", Toast.LENGTH_LONG).show());
                 }
             }
         }, 500, 1000 / updatesPerTenSeconds);
@@ -88,15 +146,294 @@ public class StatReceiver {
 
 
 
+    /**
+     * Starts the reader in the given mode.
+     * @param source source file (e.g. /dev/ttyACM0)
+     * @param mode TIMER or BLOCKING_THREAD
+     * @param updatesPerTenSeconds only used in TIMER mode
+     * @param context
+     * @throws FileNotFoundException
+     */
+    public void startReading(File source, ReaderMode mode, int updatesPerTenSeconds, Context context)
+            throws FileNotFoundException {
+        if (mode == ReaderMode.BLOCKING_THREAD)
+            startReaderThread(source);
+        else
+            startReadingFromFile(source, updatesPerTenSeconds, context);
+    }
+
+    /**
+     * Sets the protocol. Has to be called before starting to read.
+     * @param protocol TEXT, BINARY or AUTO
+     * @param frame reusable frame binary data is decoded into, sized for the battery (see BmsFrame.fromSpecs()). May be null for TEXT.
+     */
+    public void setProtocol(Protocol protocol, BmsFrame frame) {
+        this.protocol = protocol;
+        this.frame = frame;
+    }
+
+    /**
+     * Starts a dedicated thread that blocks on the source and hands every frame to the listener as soon as it is complete.
+     * Stop it with stop() and wait for it with join().
+     * @param source source file (e.g. /dev/ttyACM0)
+     * @throws FileNotFoundException
+     */
+    public void startReaderThread(File source) throws FileNotFoundException {
+        if (readerThread != null && readerThread.isAlive()) {
+            Log.w(TAG, "reader thread is already running");
+            return;
+        }
+        open(source);
+        startThread(this::readLoop, TAG + "-reader");
+    }
+
+    /**
+     * starts the thread that reads (or replays) the data
+     */
+    void startThread(Runnable loop, String name) {
+        running = true;
+        readerThread = new Thread(loop, name);
+        readerThread.start();
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * to be called by the reading thread when it ends
+     */
+    void finished() {
+        running = false;
+        StreamRecorder r = recorder;
+        if (r != null) r.close();
+    }
+
+    /**
+     * opens the source and prepares it for reading
+     */
+    private InputStream open(File source) throws FileNotFoundException {
+        prepare();
+        input = new FileInputStream(source);
+        return input;
+    }
+
+    /**
+     * prepares a new frame assembler and the stats for reading a stream
+     */
+    void prepare() {
+        if (protocol != Protocol.TEXT && frame == null) {
+            throw new IllegalStateException("binary protocol needs a frame, call setProtocol() first");
+        }
+        assembler = new FrameAssembler(protocol, frameListener);
+        haveKeyframe = false;
+        stats.reset();
+    }
+
+    /**
+     * Sets the validator that checks every frame before it is passed to the listener. Has to be called before starting to read.
+     * @param validator validator for the battery setup or null to pass on every frame unchecked
+     */
+    public void setValidator(FrameValidator validator) {
+        this.validator = validator;
+    }
+
+    /**
+     * @return the last rejected frames
+     */
+    public FrameQuarantine getQuarantine() {
+        return quarantine;
+    }
+
+    /**
+     * Records every byte read from now on to a log file that can be replayed with a ReplayReceiver.
+     * @param recorder the recorder (closed when reading ends) or null to stop recording
+     */
+    public void setRecorder(StreamRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @WorkerThread
+    private void readLoop() {
+        final InputStream in = input;
+        final byte[] chunk = new byte[READ_CHUNK_SIZE];
+        try {
+            while (running) {
+                int n = in.read(chunk); // blocks until data arrives
+                if (n < 0) break;        // end of stream
+                ingest(chunk, n);
+            }
+        } catch (IOException e) {
+            if (running) Log.e(TAG, "IO Error while reading", e);
+        } finally {
+            closeInput();
+            finished();
+            Log.i(TAG, "reader thread finished: " + stats);
+        }
+    }
+
+    /**
+     * passes the bytes of one read to the frame assembler, which calls frameListener for every complete frame
+     */
+    void ingest(byte[] chunk, int length) {
+        chunkReadNanos = SystemClock.elapsedRealtimeNanos(); // same clock as the frame times of the battery
+        StreamRecorder r = recorder;
+        if (r != null) r.record(chunk, length, chunkReadNanos);
+        assembler.feed(chunk, 0, length);
+    }
+
+    /**
+     * gets the complete frames from the assembler
+     */
+    private final FrameAssembler.FrameListener frameListener = new FrameAssembler.FrameListener() {
+        @Override
+        public void onTextFrame(StringBuilder msg) {
+            try {
+                deliver(msg, chunkReadNanos);
+            } catch (Exception e) {
+                Log.e(TAG, "failed to parse message: " + msg, e);
+            }
+        }
+
+        @Override
+        public void onBinaryFrame(byte[] buf, int len) {
+            int status;
+            if (BinaryFrameCodec.frameType(buf, 0) == BinaryFrameCodec.TYPE_DELTA) {
+                if (!haveKeyframe) return; // waiting for the next full frame
+                status = BinaryFrameCodec.decodeDelta(buf, 0, len, frame, nextDeltaSequence);
+                if (status == BinaryFrameCodec.OK)
+                    nextDeltaSequence++;
+                else
+                    haveKeyframe = false; // a delta is missing, the values are only complete again after the next full frame
+            } else {
+                status = BinaryFrameCodec.decode(buf, 0, len, frame);
+                if (status == BinaryFrameCodec.OK) {
+                    haveKeyframe = true;
+                    nextDeltaSequence = 1;
+                }
+            }
+            if (status != BinaryFrameCodec.OK) {
+                reject(buf, len, FrameValidator.toStatus(status));
+                return;
+            }
+            FrameValidator v = validator;
+            status = v == null ? FrameValidator.OK : v.validate(frame);
+            if (status != FrameValidator.OK) {
+                // the values are in the frame now, deltas on top of them would be wrong too
+                haveKeyframe = false;
+                reject(buf, len, status);
+                return;
+            }
+            deliver(frame, len, chunkReadNanos);
+        }
+
+        @Override
+        public void onResync(int skippedBytes) {
+            stats.onResync(skippedBytes);
+        }
+
+        @Override
+        public void onRejected(byte[] buf, int len, int reason) {
+            reject(buf, len, reason);
+        }
+    };
+
+    /**
+     * passes a frame to the listener and updates the stats
+     * @param msg the frame
+     * @param readNanos SystemClock.elapsedRealtimeNanos() when the frame was read
+     */
+    void deliver(StringBuilder msg, long readNanos) {
+        FrameValidator v = validator;
+        if (v != null) {
+            int status = v.validate(msg);
+            if (status != FrameValidator.OK) {
+                stats.onRejected(status);
+                quarantine.put(msg, status);
+                return;
+            }
+            listener.onNewFrame(v.decoded(), readNanos); // already decoded, the battery doesn't have to parse it again
+            onDelivered(msg.length(), readNanos);
+            return;
+        }
+        listener.onNewData(msg, readNanos);
+        onDelivered(msg.length(), readNanos);
+    }
+
+    /**
+     * passes a decoded frame to the listener and updates the stats
+     * @param frame the decoded frame
+     * @param length size of the frame in bytes
+     * @param readNanos SystemClock.elapsedRealtimeNanos() when the frame was read
+     */
+    void deliver(BmsFrame frame, int length, long readNanos) {
+        listener.onNewFrame(frame, readNanos);
+        onDelivered(length, readNanos);
+    }
+
+    private void reject(byte[] buf, int len, int reason) {
+        stats.onRejected(reason);
+        quarantine.put(buf, len, reason);
+    }
+
+    private void onDelivered(int length, long readNanos) {
+        stats.onFrameDelivered(length, readNanos);
+        if (stats.frames() % STATS_LOG_INTERVAL == 0) {
+            Log.i(TAG, stats.toString());
+        }
+    }
+
+    private void closeInput() {
+        InputStream in = input;
+        input = null;
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     private int[] toIntArr(String[] input) {
         return Arrays.stream(input)
                 .mapToInt(Integer::parseInt)
                 .toArray();
     }
 
+    /**
+     * Stops the timer and/or the reader thread. The reader thread is interrupted and its source is closed to unblock the read,
+     * call join() afterwards to wait until it has finished.</br>
+     * Only the FileInputStream is closed here, never a reader wrapped around it: a BufferedReader/InputStreamReader
+     * holds its lock while the reader thread is blocked in read(), so closing it from here would wait for the next data.
+     */
     public void stop(){
         statsTimer.cancel();
         statsTimer.purge();
+        StreamRecorder r = recorder;
+        if (r != null && readerThread == null) r.close(); // timer mode, the reader thread closes it otherwise
+        running = false;
+        if (readerThread != null) readerThread.interrupt();
+        closeInput(); // also in timer mode, the stream was left open there
+    }
+
+    /**
+     * Waits (max. JOIN_TIMEOUT_MILLIS) for the reader thread to finish after stop() was called.
+     */
+    public void join() {
+        Thread t = readerThread;
+        if (t == null) return;
+        try {
+            t.join(JOIN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (t.isAlive()) Log.w(TAG, "reader thread did not finish in time");
+        readerThread = null;
+    }
+
+    public ReceiverStats getStats() {
+        return stats;
     }
 
     public void setOnNewDataListener(OnNewDataListener listener) {
@@ -106,5 +443,29 @@ public class StatReceiver {
     public interface OnNewDataListener{
         @WorkerThread
         void onNewData(StringBuilder packetAsString);
+
+        /**
+         * called for frames of the binary protocol and for text frames that were decoded by the FrameValidator
+         * (then onNewData() isn't called). The frame is reused for the next one, so copy what you need.
+         */
+        @WorkerThread
+        default void onNewFrame(BmsFrame frame) {}
+
+        /**
+         * like onNewData(StringBuilder), with the time the frame was read off the device
+         * (SystemClock.elapsedRealtimeNanos(), before buffering and assembling), for listeners that measure the latency
+         */
+        @WorkerThread
+        default void onNewData(StringBuilder packetAsString, long readNanos) {
+            onNewData(packetAsString);
+        }
+
+        /**
+         * like onNewFrame(BmsFrame), with the time the frame was read off the device (SystemClock.elapsedRealtimeNanos())
+         */
+        @WorkerThread
+        default void onNewFrame(BmsFrame frame, long readNanos) {
+            onNewFrame(frame);
+        }
     }
 }
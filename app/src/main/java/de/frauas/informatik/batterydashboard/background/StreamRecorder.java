@@ -0,0 +1,86 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Records the raw byte stream of a StatReceiver (every read as it came from the device, before framing) to a log file,
+ * so a session can be replayed later with a ReplayReceiver.
+ * <pre>
+ * file:   MAGIC (8 bytes) record*
+ * record: time since start of recording in ns (long) | length n (int) | n bytes
+ * </pre>
+ * (big-endian, as written by DataOutputStream)
+ *
+ * @see StatReceiver#setRecorder(StreamRecorder)
+ * @see ReplayReceiver
+ */
+
+public class StreamRecorder {
+    private static final String TAG = "StreamRecorder";
+    static final byte[] MAGIC = {'B', 'M', 'S', 'R', 'E', 'C', '1', '\n'};
+
+    private final DataOutputStream out;
+    private final File file;
+    private long startNanos = -1;
+    private long records;
+    private boolean closed;
+
+    /**
+     * @param file log file to write (will be overwritten)
+     * @throws IOException if the file cannot be created
+     */
+    public StreamRecorder(File file) throws IOException {
+        this.file = file;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.write(MAGIC);
+    }
+
+    /**
+     * appends the bytes of one read to the log
+     * @param buf the bytes read
+     * @param len number of bytes
+     * @param readNanos SystemClock.elapsedRealtimeNanos() of the read
+     */
+    synchronized void record(byte[] buf, int len, long readNanos) {
+        if (closed) return;
+        if (startNanos < 0) startNanos = readNanos;
+        try {
+            out.writeLong(readNanos - startNanos);
+            out.writeInt(len);
+            out.write(buf, 0, len);
+            records++;
+        } catch (IOException e) {
+            Log.e(TAG, "writing " + file + " failed", e);
+        }
+    }
+
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            out.close();
+            Log.i(TAG, records + " records written to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "closing " + file + " failed", e);
+        }
+    }
+
+    /**
+     * reads and checks the MAGIC at the start of a log
+     * @throws IOException if the file is not a recording
+     */
+    static void readMagic(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) throw new IOException("not a BMS stream recording");
+        }
+    }
+}
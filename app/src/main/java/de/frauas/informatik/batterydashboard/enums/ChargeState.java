@@ -0,0 +1,29 @@
+package de.frauas.informatik.batterydashboard.enums;
+
+/**
+ * This enum contains the states of the battery as the ChargeStateMachine of a battery sees them. </br>
+ * The UiService shows the charger dashboard while a pack is CHARGING or CHARGE_COMPLETE.
+ *
+ * @see de.frauas.informatik.batterydashboard.ui.ChargeStateMachine
+ */
+
+public enum ChargeState {
+    IDLE ("Bereit"),
+    DRIVING ("Fahren"),
+    REGEN ("Rekuperation"),
+    CHARGING ("Laden"),
+    CHARGE_COMPLETE ("Voll geladen");
+
+    public final String label;
+
+    ChargeState(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return true if a charger is connected (charger dashboard)
+     */
+    public boolean isAtCharger() {
+        return this == CHARGING || this == CHARGE_COMPLETE;
+    }
+}
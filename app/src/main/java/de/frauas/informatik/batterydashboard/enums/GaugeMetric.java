@@ -16,13 +16,14 @@ public enum GaugeMetric {
     DRIVING_AMP("DrivingAmperage","A", -50,150),
     TAGES_KILOMETER_ZAEHLER("Strecke","KM", -50,150),
     CHARGER_TEMP("Charger-Temp","°C"),
-    CONSUMPTION("Aktueller-Verbrauch","unit"),
-    DURCHSCHNITTSVERBRAUCH("Verbrauch","kWh"),
-    RANGE("Reichweite","km"),
+    CONSUMPTION("Aktueller-Verbrauch","kW", -10, 30),
+    DURCHSCHNITTSVERBRAUCH("Verbrauch","kW", -10, 30),
+    RANGE("Reichweite","km", 0, 400),
     CELL_VOLTAGES("Zellspannungen","V"),
     ODOMETER("Gefahrene-Kilometer","km"),
     CAPACITY("Kapazität","%", 0, 100),
-    CELL_TEMPS("Zelltemperaturen", "°C");
+    CELL_TEMPS("Zelltemperaturen", "°C"),
+    INNENWIDERSTAND("Innenwiderstand", "mΩ", 0, 5);
 
     public final String label;
     public final String unit;
@@ -3,22 +3,41 @@ package de.frauas.informatik.batterydashboard.ui;
 import android.annotation.TargetApi;
 import android.content.res.Resources;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.TypedValue;
 import com.example.batterydashboard.R;
+import de.frauas.informatik.batterydashboard.background.BmsFrame;
+import de.frauas.informatik.batterydashboard.background.FrameValidator;
+import de.frauas.informatik.batterydashboard.background.ProtocolSchema;
+import de.frauas.informatik.batterydashboard.enums.ChargeState;
+import de.frauas.informatik.batterydashboard.enums.GaugeMetric;
 import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Date;
-
-// scale factors are used to convert the 3-digit integers in protocol to floating point numbers
-import static de.frauas.informatik.batterydashboard.background.StatReceiver.AMPERAGE_SCALE;
-import static de.frauas.informatik.batterydashboard.background.StatReceiver.TEMPERATURE_SCALE;
-import static de.frauas.informatik.batterydashboard.background.StatReceiver.VOLTAGE_SCALE;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 
 /** This class is a model for the hardware battery system.</br>
  * A battery object is created by the UiService when the app is started, and given to the DataService when bound.
  * The DataService writes data in the battery object, the UiService reads values from it to display them in the UI.
  * It contains n blocks (n = value BLOCK_COUNT from battery_specs.xml), usually 4.</br>
  * It also contains other info about the battery: currentDrivingAmperage and many calculated values like e.g. VoltageSum.
+ * The cell values of all blocks are stored in two arrays (millivolts and tenths of degrees as short), they are converted to float
+ * only when the UI asks for them. That's half the memory of float/int arrays per block and the aggregates are simple loops over one array.
+ * The aggregates (voltage sum, min/max/average cell values...) are computed once per frame when the values are set,
+ * the getters just read them. frameSequence() tells if there was a new frame since the last look.
+ * </br></br>
+ * The values are set by the DataService's worker thread and read by the UI thread. So the UI never sees half of a frame
+ * (e.g. the min cell voltage of one frame and the max of the next), every frame is published as a Snapshot
+ * through a triple buffer (like the FrameMailbox): the writer fills its own snapshot and swaps it with the middle one,
+ * the reader swaps its snapshot with the middle one if it's newer. Nobody waits and nothing is allocated.
+ * Every getter of the battery takes the newest snapshot, so two getters can see two different frames. Code that needs several
+ * values of the same frame (like the UI on every update) takes one snapshot() and reads all of them from it.
+ * The getters and snapshot() are meant for one reader thread (the UI thread), setValues()/applyDelta()/toString() for the writer.
+ * The values of the last minutes are kept in a history per GaugeMetric and per cell (see history(), cellVoltageHistory()),
+ * fixed size ring buffers sized by history_horizon and history_rate in battery_specs.xml.
+ * For longer times there are rollups (min/max/mean/last per second, per 10 seconds, per minute, see rollup()).
+ * Consumption, range, the running statistics of the cells (see CellStats) and their internal resistance (see InternalResistance)
+ * are updated with every frame too.
  * The battery object itself is not connected to the Receiver, but only handled by the services.
  * </br>
  * See also: documentation of summer term 2020 (contains class diagram and graphical representation of battery system).</br></br>
@@ -31,282 +50,996 @@ import static de.frauas.informatik.batterydashboard.background.StatReceiver.VOLT
 
 public class Battery {
     private final Resources r;
-    private int MAXAGE_MILLIS; // values older than this will be ignored in UI
+    private int MAXAGE_MILLIS; // values older than this will be ignored in UI (shown as stale, see isStale())
     private int CELL_COUNT_PER_BLOCK;
     private int BLOCK_COUNT;
     private int MAX_AMPERE_HOURS_PER_CELL;
+    private int NOMINAL_CELL_MILLIVOLTS = 3700;   // energy of the battery = cells * nominal voltage * max Ah
+    private int REFERENCE_CONSUMPTION = 150;      // Wh/km, for the range as long as there is no speed
     private int TEMPERATURE_SENSOR_PER_BLOCK;
     private int CELLS_PER_THERMOMETER;
     private float WARNING_THRESHOLD;
-    private Date timestamp;
+    private long frameNanos; // SystemClock.elapsedRealtimeNanos() of the last frame
+    private final long[] sectionNanos = new long[BmsFrame.SECTION_COUNT]; // time of the last update of every section
     private Block[] blocks;
+    // all cells of the pack in one array each (struct of arrays), a block is a range of indices (see Block)
+    private short[] cellMillivolts;
+    private short[] cellDeciTemps;
     private float currentDrivingAmperage;
-    private boolean isCharging;
+    private final ProtocolSchema schema; // layout of the text protocol
+    private final BmsFrame textFrame;    // text frames are decoded into this one, only used by setValues(CharSequence)
+
+    // history (see history()), sized from history_horizon and history_rate in battery_specs.xml
+    private static final int DEFAULT_MAX_GAP_MILLIS = 2000; // energy isn't integrated over longer gaps between frames (max_data_age)
+    private static final int DEFAULT_HISTORY_SECONDS = 600;
+    private static final int DEFAULT_HISTORY_RATE = 10;
+    private int HISTORY_SECONDS = DEFAULT_HISTORY_SECONDS;
+    private int HISTORY_RATE = DEFAULT_HISTORY_RATE; // samples per second, frames in between are not recorded
+    private MetricHistory[] metricHistory; // index = GaugeMetric.ordinal()
+    private CellHistory cellVoltageHistory;
+    private CellHistory cellTempHistory;
+    private long lastSampleNanos; // only used by the writer
+    private float[] metricValues; // values of the last frame per GaugeMetric (NaN if not calculated), only used by the writer
+
+    // rollups of all frames (see rollup()), tiers from rollup_seconds and rollup_buckets in battery_specs.xml
+    private static final int[] DEFAULT_ROLLUP_SECONDS = {1, 10, 60};
+    private static final int[] DEFAULT_ROLLUP_BUCKETS = {600, 360, 720};
+    private int[] ROLLUP_SECONDS = DEFAULT_ROLLUP_SECONDS;
+    private int[] ROLLUP_BUCKETS = DEFAULT_ROLLUP_BUCKETS;
+    private Rollup metricRollup; // series = GaugeMetric.ordinal()
+    private Rollup cellVoltageRollup;
+    private Rollup cellTempRollup;
+
+    private long frameCount; // frames set so far, only used by the writer
+    private EnergyMeter energy; // only used by the writer, the results are published in the snapshots
+    private RangeEstimator rangeEstimator; // only used by the writer
+    private volatile DistanceMeter distance; // speed of the vehicle, null if there is none
+    private CellStats cellStats; // only used by the writer
+    private WarningEngine warningEngine; // only used by the writer
+    private ChargeStateMachine chargeStateMachine; // only used by the writer
+    private int CHARGE_CURRENT_THRESHOLD = 5;  // 1/10 A, smaller currents count as none (charge state)
+    private int CHARGE_STATE_DEBOUNCE = 1000;  // ms
+    private int FULL_CAPACITY = 100;           // %
+    private int[] chargerDeciTemps, chargingDeciAmps, capacities; // block values for the warning engine, only used by the writer
+    private int CELL_STATS_WINDOW = 60; // seconds
+    private InternalResistance internalResistance; // only used by the writer
+    private double RESISTANCE_FORGETTING = 0.99; // forgetting factor of the resistance estimate (per current step)
+    private int RESISTANCE_MIN_STEP = 20;         // 1/10 A, smaller changes of the current are not used for the resistance
+    private float frameSpeed = Float.NaN; // speed at the time of the last frame, only used by the writer
+    private final LongSupplier clock; // monotonic ns, SystemClock.elapsedRealtimeNanos() in the app (not mocked in unit tests)
+
+    // triple buffer of snapshots (see publish() and snapshot())
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4; // set in middle if there is a snapshot the reader hasn't taken
+    private Snapshot[] snapshots;
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;  // only used by the writer
+    private int front = 2; // only used by the reader
+    private int lastPublished = 2; // only used by the writer
 
 
     public Battery(Resources resources){
         this.r = resources;
+        clock = SystemClock::elapsedRealtimeNanos;
+        schema = ProtocolSchema.fromSpecs(resources);
         MAXAGE_MILLIS                = resources.getInteger(R.integer.max_data_age); // values older than this will be ignored in UI
         CELL_COUNT_PER_BLOCK         = resources.getInteger(R.integer.cellsPerBlock);
         BLOCK_COUNT                  = resources.getInteger(R.integer.blocks);
         MAX_AMPERE_HOURS_PER_CELL    = resources.getInteger(R.integer.maxAHPerCell);
+        NOMINAL_CELL_MILLIVOLTS      = resources.getInteger(R.integer.nominalCellVoltage);
+        REFERENCE_CONSUMPTION        = resources.getInteger(R.integer.referenceConsumption);
+        CELL_STATS_WINDOW            = resources.getInteger(R.integer.cell_stats_window);
+        RESISTANCE_FORGETTING        = getFloat(resources, R.dimen.resistanceForgetting);
+        RESISTANCE_MIN_STEP          = resources.getInteger(R.integer.resistance_min_step);
+        CHARGE_CURRENT_THRESHOLD     = resources.getInteger(R.integer.charge_current_threshold);
+        CHARGE_STATE_DEBOUNCE        = resources.getInteger(R.integer.charge_state_debounce);
+        FULL_CAPACITY                = Math.round(getFloat(resources, R.fraction.maxCapacity));
         TEMPERATURE_SENSOR_PER_BLOCK = resources.getInteger(R.integer.thermometer_per_block);
         CELLS_PER_THERMOMETER        = resources.getInteger(R.integer.cellsPerThermometer);
         WARNING_THRESHOLD = (resources.getInteger(R.integer.warningThreshold));
+        HISTORY_SECONDS              = resources.getInteger(R.integer.history_horizon);
+        HISTORY_RATE                 = Math.max(1, resources.getInteger(R.integer.history_rate));
+        ROLLUP_SECONDS               = resources.getIntArray(R.array.rollup_seconds);
+        ROLLUP_BUCKETS               = resources.getIntArray(R.array.rollup_buckets);
+        textFrame = schema.newFrame();
+        makeBlocks();
+    }
+
+    /**
+     * battery with the given setup and without resources (for unit tests)
+     */
+    Battery(int blockCount, int cellCountPerBlock, int tempSensorPerBlock, int cellsPerThermometer){
+        this(blockCount, cellCountPerBlock, tempSensorPerBlock, cellsPerThermometer, System::nanoTime);
+    }
 
-        // make blocks
+    /**
+     * battery with the given setup and clock, without resources (for unit tests that set the time of the frames)
+     * @param clock monotonic time in ns
+     */
+    Battery(int blockCount, int cellCountPerBlock, int tempSensorPerBlock, int cellsPerThermometer, LongSupplier clock){
+        this.r = null;
+        this.clock = clock;
+        MAXAGE_MILLIS                = DEFAULT_MAX_GAP_MILLIS; // the default max_data_age
+        schema = ProtocolSchema.textProtocol(blockCount, cellCountPerBlock, tempSensorPerBlock);
+        BLOCK_COUNT                  = blockCount;
+        CELL_COUNT_PER_BLOCK         = cellCountPerBlock;
+        TEMPERATURE_SENSOR_PER_BLOCK = tempSensorPerBlock;
+        CELLS_PER_THERMOMETER        = cellsPerThermometer;
+        textFrame = schema.newFrame();
+        makeBlocks();
+    }
+
+    private void makeBlocks() {
+        cellMillivolts = new short[BLOCK_COUNT * CELL_COUNT_PER_BLOCK];
+        cellDeciTemps = new short[BLOCK_COUNT * TEMPERATURE_SENSOR_PER_BLOCK];
         blocks = new Block[BLOCK_COUNT];
         for (int i = 0; i < blocks.length; i++) {
-            blocks[i] = new Block(i, CELL_COUNT_PER_BLOCK, TEMPERATURE_SENSOR_PER_BLOCK);
+            blocks[i] = new Block(i);
+        }
+        int samples = HISTORY_SECONDS * HISTORY_RATE;
+        metricHistory = new MetricHistory[GaugeMetric.values().length];
+        for (int i = 0; i < metricHistory.length; i++) {
+            metricHistory[i] = new MetricHistory(samples);
+        }
+        cellVoltageHistory = new CellHistory(samples, cellMillivolts.length);
+        cellTempHistory = new CellHistory(samples, cellDeciTemps.length);
+        metricValues = new float[metricHistory.length];
+        Arrays.fill(metricValues, Float.NaN);
+        metricRollup = new Rollup(ROLLUP_SECONDS, ROLLUP_BUCKETS, metricValues.length);
+        cellVoltageRollup = new Rollup(ROLLUP_SECONDS, ROLLUP_BUCKETS, cellMillivolts.length);
+        cellTempRollup = new Rollup(ROLLUP_SECONDS, ROLLUP_BUCKETS, cellDeciTemps.length);
+        long maxGapNanos = (MAXAGE_MILLIS > 0 ? MAXAGE_MILLIS : DEFAULT_MAX_GAP_MILLIS) * 1_000_000L;
+        energy = new EnergyMeter(maxGapNanos);
+        rangeEstimator = new RangeEstimator(REFERENCE_CONSUMPTION, maxGapNanos);
+        cellStats = new CellStats(cellMillivolts.length, CELL_STATS_WINDOW * 1_000_000_000L, maxGapNanos);
+        internalResistance = new InternalResistance(cellMillivolts.length, RESISTANCE_FORGETTING, RESISTANCE_MIN_STEP, maxGapNanos);
+        chargerDeciTemps = new int[BLOCK_COUNT];
+        chargingDeciAmps = new int[BLOCK_COUNT];
+        capacities = new int[BLOCK_COUNT];
+        warningEngine = new WarningEngine(cellMillivolts.length, cellDeciTemps.length, BLOCK_COUNT,
+                r == null ? 0 : r.getInteger(R.integer.warningDebounce) * 1_000_000L);
+        if (r != null) setWarningLimits(r); // no warnings without battery_specs.xml (unit tests)
+        chargeStateMachine = new ChargeStateMachine(CHARGE_CURRENT_THRESHOLD, FULL_CAPACITY, CHARGE_STATE_DEBOUNCE * 1_000_000L);
+        snapshots = new Snapshot[3];
+        for (int i = 0; i < snapshots.length; i++) {
+            snapshots[i] = new Snapshot(BLOCK_COUNT, cellMillivolts.length, cellDeciTemps.length);
+        }
+        publish();
+    }
+
+    /**
+     * all values of one frame as the UI gets them (see publish() and snapshot()).</br>
+     * The getters are the same as the ones of the battery, but they all read the same frame.
+     */
+    public class Snapshot {
+        long frameSequence;
+        long frameNanos;
+        final long[] sectionNanos = new long[BmsFrame.SECTION_COUNT];
+        float drivingAmperage;
+        int voltageSum;
+        int durchschnitt;
+        float power;
+        float consumption, tripAverageConsumption; // kW
+        float tripEnergy, tripRegenEnergy, sinceChargeEnergy; // kWh
+        int range; // km
+        final float[][] cellMeans;      // [CellStats.TRIP or WINDOW][cell], V
+        final float[][] cellStdDevs;    // V
+        final float[][] cellDeviations; // from the mean of the pack, mV
+        float imbalance;                // mV
+        final float[] cellResistances;  // mΩ, NaN = no estimate yet
+        float minResistance, maxResistance, avrgResistance; // NaN = no estimate yet
+        int warnings;                   // categories with warnings (see WarningEngine)
+        ChargeState chargeState = ChargeState.IDLE;
+        final long[] warningBits;
+        float minCellVoltage, maxCellVoltage, avrgCellVoltage;
+        float minCellTemp, maxCellTemp, avrgCellTemp;
+        float avrgChargerTemp;
+        int capacity;
+        final float[] chargingAmperages;
+        final float[] chargerTemps;
+        final short[] cellMillivolts;
+        final short[] cellDeciTemps;
+
+        Snapshot(int blockCount, int cellCount, int tempSensorCount) {
+            chargingAmperages = new float[blockCount];
+            chargerTemps = new float[blockCount];
+            cellMillivolts = new short[cellCount];
+            cellDeciTemps = new short[tempSensorCount];
+            cellMeans = new float[2][cellCount];
+            cellStdDevs = new float[2][cellCount];
+            cellDeviations = new float[2][cellCount];
+            cellResistances = new float[cellCount];
+            warningBits = new long[(2 * cellCount + 2 * tempSensorCount + 4 * blockCount + 63) / 64];
+        }
+
+        /**
+         * @return number of frames set in the battery up to this one
+         */
+        public long frameSequence() {
+            return frameSequence;
+        }
+
+        /**
+         * @return SystemClock.elapsedRealtimeNanos() of the frame, 0 if there was none
+         */
+        public long frameNanos() {
+            return frameNanos;
+        }
+
+        /**
+         * @param sections BmsFrame.SECTION_... bits of the values that are needed
+         * @return age of the oldest of these values in ms (Long.MAX_VALUE if one of them was never set)
+         */
+        public long ageMillis(int sections) {
+            long oldest = Long.MAX_VALUE;
+            for (int i = 0; i < BmsFrame.SECTION_COUNT; i++) {
+                if ((sections & (1 << i)) != 0) oldest = Math.min(oldest, sectionNanos[i]);
+            }
+            if (oldest == Long.MAX_VALUE) return 0; // no sections
+            if (oldest == 0) return Long.MAX_VALUE;
+            return (clock.getAsLong() - oldest) / 1_000_000;
+        }
+
+        /**
+         * @param sections BmsFrame.SECTION_... bits of the values that are needed
+         * @return true if one of these values is older than max_data_age (the UI marks its gauges then)
+         */
+        public boolean isStale(int sections) {
+            return ageMillis(sections) > MAXAGE_MILLIS;
+        }
+
+        public ChargeState chargeState() {
+            return chargeState;
+        }
+
+        public float drivingAmperage() {
+            return drivingAmperage;
+        }
+
+        public int voltageSum() {
+            return voltageSum;
+        }
+
+        public int durchscnitt() {
+            return durchschnitt;
+        }
+
+        public float power() {
+            return power;
+        }
+
+        public float consumption() {
+            return consumption;
+        }
+
+        public float tripAverageConsumption() {
+            return tripAverageConsumption;
+        }
+
+        public float tripEnergy() {
+            return tripEnergy;
+        }
+
+        public float tripRegenEnergy() {
+            return tripRegenEnergy;
+        }
+
+        public float sinceChargeEnergy() {
+            return sinceChargeEnergy;
+        }
+
+        public int range() {
+            return range;
+        }
+
+        public float[] getChargingAmperages(float[] result) {
+            System.arraycopy(chargingAmperages, 0, result, 0, chargingAmperages.length);
+            return result;
+        }
+
+        public float[] getChargerTemperatures(float[] result) {
+            System.arraycopy(chargerTemps, 0, result, 0, chargerTemps.length);
+            return result;
+        }
+
+        public float getAvrgChargerTemp() {
+            return avrgChargerTemp;
+        }
+
+        public float cellVoltage(int cell) {
+            return cellMillivolts[cell] / 1000f;
+        }
+
+        public float cellTemp(int sensor) {
+            return cellDeciTemps[sensor] / 10f;
+        }
+
+        public float[] getCellVoltages(float[] voltages) {
+            voltages[0] = minCellVoltage;
+            voltages[1] = maxCellVoltage;
+            voltages[2] = avrgCellVoltage;
+            return voltages;
+        }
+
+        public float[] getCellMeans(int range, float[] result) {
+            System.arraycopy(cellMeans[range], 0, result, 0, cellMeans[range].length);
+            return result;
+        }
+
+        public float[] getCellStdDevs(int range, float[] result) {
+            System.arraycopy(cellStdDevs[range], 0, result, 0, cellStdDevs[range].length);
+            return result;
+        }
+
+        public float[] getCellDeviations(int range, float[] result) {
+            System.arraycopy(cellDeviations[range], 0, result, 0, cellDeviations[range].length);
+            return result;
+        }
+
+        public float[] getCellResistances(float[] result) {
+            System.arraycopy(cellResistances, 0, result, 0, cellResistances.length);
+            return result;
+        }
+
+        public float[] getResistances(float[] resistances) {
+            resistances[0] = minResistance;
+            resistances[1] = maxResistance;
+            resistances[2] = avrgResistance;
+            return resistances;
+        }
+
+        public float imbalance() {
+            return imbalance;
+        }
+
+        public int warnings() {
+            return warnings;
+        }
+
+        public boolean hasWarning(int category, int item) {
+            int bit = warningEngine.bit(category, item);
+            return (warningBits[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        public float[] getCellTemps(float[] temps) {
+            temps[0] = minCellTemp;
+            temps[1] = maxCellTemp;
+            temps[2] = avrgCellTemp;
+            return temps;
+        }
+
+        public float capacity() {
+            return capacity;
         }
     }
 
     /**
      * models one of the battery's [four] blocks with a number of cells specified by cellcount in battery and so on. </br>
-     * The Block class contains methods for setting the values of its components (charger, cells, block itself),
+     * The cells and temperature sensors of a block are not stored in the block, they are the index ranges
+     * [firstCell, endCell) and [firstTemp, endTemp) of the battery's cell arrays.
+     * The Block class contains the values of the block itself (charger etc.) and methods for setting them,
      * those are called by the battery's setValues method.
      */
     class Block {
-        float[] cellVoltages;
-        int[] cellTemps;
+        final int firstCell, endCell;
+        final int firstTemp, endTemp;
         float chargingAmperage;
         // boolean chargerTempWarning;
-        int chargerTemp;
+        int chargerTemp;     // °C (whole degrees, like in the text protocol)
+        int chargerDeciTemp; // 1/10 °C as in the frame, for the warnings and the snapshot
         int capacity;
         private final int blockId;
 
-        Block(int id, int cellCountPerBlock, int tempSensorPerBlock) {
+        Block(int id) {
             this.blockId = id;
-            cellTemps = new int[tempSensorPerBlock];
-            cellVoltages = new float[cellCountPerBlock];
+            firstCell = id * CELL_COUNT_PER_BLOCK;
+            endCell = firstCell + CELL_COUNT_PER_BLOCK;
+            firstTemp = id * TEMPERATURE_SENSOR_PER_BLOCK;
+            endTemp = firstTemp + TEMPERATURE_SENSOR_PER_BLOCK;
         }
 
-        void setCellTemps(String[] cellTempString) {
-            int j = 0;
-            for(int i = blockId*TEMPERATURE_SENSOR_PER_BLOCK; i < blockId*TEMPERATURE_SENSOR_PER_BLOCK+TEMPERATURE_SENSOR_PER_BLOCK; i++){
-                cellTemps[j] = Integer.parseInt(cellTempString[i]) / TEMPERATURE_SCALE;
-                j++;
-            }
+        void setValues(BmsFrame frame) {
+            chargingAmperage = frame.chargingDeciAmps[blockId] / 10f;
+            setChargerTemp(frame.chargerDeciTemps[blockId]);
+            capacity = frame.capacity[blockId];
         }
 
-        void setCellVoltages(String[] cellVoltageString) {
-            int j = 0;
-            for(int i = blockId*CELL_COUNT_PER_BLOCK; i < blockId*CELL_COUNT_PER_BLOCK+CELL_COUNT_PER_BLOCK; i++){
-                cellVoltages[j] = Float.parseFloat(cellVoltageString[i]) / VOLTAGE_SCALE;
-                j++;
-            }
+        void applyDelta(BmsFrame frame) {
+            if (frame.isChanged(frame.chargingField(blockId))) chargingAmperage = frame.chargingDeciAmps[blockId] / 10f;
+            if (frame.isChanged(frame.chargerTempField(blockId))) setChargerTemp(frame.chargerDeciTemps[blockId]);
+            if (frame.isChanged(frame.capacityField(blockId))) capacity = frame.capacity[blockId];
         }
 
-        void setChargingAmperage(String[] chargingAmperageString){
-            chargingAmperage = Float.parseFloat(chargingAmperageString[blockId]) / AMPERAGE_SCALE;
-        }
-
-        void setChargerTemp(String[] chargerTempString) {
-            chargerTemp = Integer.parseInt(chargerTempString[blockId]);
+        private void setChargerTemp(int deciTemp) {
+            chargerDeciTemp = deciTemp;
+            chargerTemp = deciTemp / 10;
         }
+    }
 
-        void setCapacity(String[] capacityString){
-            capacity = Integer.parseInt(capacityString[blockId]);
-        }
+    Block getBlock(int index) {
+        return blocks[index];
     }
 
     private int totalCellThermometerCount() {
         return BLOCK_COUNT * CELL_COUNT_PER_BLOCK / CELLS_PER_THERMOMETER;
     }
 
+    /**
+     * @return energy of the full battery in kWh (cells * nominal voltage * max Ah)
+     */
+    private double totalEnergy() {
+        return totalCellCount() * NOMINAL_CELL_MILLIVOLTS / 1000.0 * MAX_AMPERE_HOURS_PER_CELL / 1000;
+    }
+
+    /**
+     * sets the limits of the warning engine from battery_specs.xml, in the units of the frames
+     */
+    private void setWarningLimits(Resources resources) {
+        float threshold = WARNING_THRESHOLD; // percent
+        float hysteresis = resources.getInteger(R.integer.warningHysteresis) / 100f; // share of (max - min)
+        float maxV = getFloat(resources, R.fraction.maxCellVoltage) * 1000;
+        float minV = getFloat(resources, R.fraction.minCellVoltage) * 1000;
+        warningEngine.setLimit(WarningEngine.CELL_VOLTAGE_HIGH, maxV, threshold, hysteresis * (maxV - minV));
+        warningEngine.setLimit(WarningEngine.CELL_VOLTAGE_LOW, minV, threshold, hysteresis * (maxV - minV));
+        float maxT = getFloat(resources, R.fraction.maxCellTemperature) * 10;
+        float minT = getFloat(resources, R.fraction.minCellTemperature) * 10;
+        warningEngine.setLimit(WarningEngine.CELL_TEMP_HIGH, maxT, threshold, hysteresis * (maxT - minT));
+        warningEngine.setLimit(WarningEngine.CELL_TEMP_LOW, minT, threshold, hysteresis * (maxT - minT));
+        float maxCT = getFloat(resources, R.fraction.maxChargerTemperature) * 10;
+        float minCT = getFloat(resources, R.fraction.minChargerTemperature) * 10;
+        warningEngine.setLimit(WarningEngine.CHARGER_TEMP_HIGH, maxCT, threshold, hysteresis * (maxCT - minCT));
+        warningEngine.setLimit(WarningEngine.CHARGER_TEMP_LOW, minCT, threshold, hysteresis * (maxCT - minCT));
+        float maxA = getFloat(resources, R.fraction.maxChargerAmperage) * 10;
+        float minA = getFloat(resources, R.fraction.minChargerAmperage) * 10;
+        warningEngine.setLimit(WarningEngine.CHARGING_AMPERAGE_HIGH, maxA, threshold, hysteresis * (maxA - minA));
+        float maxC = getFloat(resources, R.fraction.maxCapacity);
+        float minC = getFloat(resources, R.fraction.minCapacity);
+        warningEngine.setLimit(WarningEngine.CAPACITY_LOW, minC, threshold, hysteresis * (maxC - minC));
+    }
+
+    /**
+     * reads a number like 3.7 from battery_specs.xml. The &lt;fraction&gt; values there have no %, so they are floats
+     * and getFraction() would throw a NotFoundException.
+     */
+    private static float getFloat(Resources resources, int id) {
+        TypedValue value = new TypedValue();
+        resources.getValue(id, value, true);
+        return value.type == TypedValue.TYPE_FRACTION ? value.getFraction(1, 1) : value.getFloat();
+    }
+
     private int totalCellCount() {
         return BLOCK_COUNT * CELL_COUNT_PER_BLOCK;
     }
 
 
     /**
-     * parses a stringBuilder object and sets the values in the battery model
+     * parses a frame of the text protocol and sets the values in the battery model</br>
+     * The frame is decoded with the protocol schema from battery_specs.xml (see ProtocolSchema) in one pass without allocating anything
+     * and then set like a binary frame. Values of more cells than the battery has are ignored.
      * @param msg a StringBuilder object containing the data from the receiver (from the hardware), following the communication protocol format
      *            (find file Kommunikation_App_BMS_Charger.txt)
+     * Frames checked by a FrameValidator don't come here, the StatReceiver passes the frame decoded by the validator to setValues(BmsFrame).
+     * @throws NumberFormatException if the frame doesn't follow the protocol
      */
+    public void setValues(CharSequence msg) {
+        int status = schema.decode(msg, textFrame, true);
+        if (status != FrameValidator.OK) throw new NumberFormatException("text frame not readable: " + FrameValidator.reason(status));
+        setValues(textFrame); // sections the protocol doesn't have get old
+    }
 
-    public void setValues(StringBuilder msg) {
-        String[] cellVoltage =
-                msg.substring(msg.indexOf("CellVoltage:")+12, msg.indexOf("CellTemp:")).split(";");
-        String[] cellTemp =
-                msg.substring(msg.indexOf("CellTemp:")+9, msg.indexOf("DrivingAmperage:")).split(";");
-        String drivingAmperage =
-                msg.substring(msg.indexOf("DrivingAmperage:")+16, msg.indexOf("ChargingAmperage:"));
-        String[] chargingAmperage =
-                msg.substring(msg.indexOf("ChargingAmperage:")+17, msg.indexOf("ChargerTemp:")).split(";");
-        String[] chargerTemp =
-                msg.substring(msg.indexOf("ChargerTemp:")+12,msg.indexOf("Capacity:")).split(";");
-        String[] capacity =
-                msg.substring(msg.indexOf("Capacity:")+9).split(";");
+    /**
+     * values that don't fit in a short (only possible with frames that weren't validated) are clipped
+     */
+    private static short toShort(int value) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+    }
 
-        timestamp = Calendar.getInstance().getTime();
-        int i = 0;
+    /**
+     * sets the values of a decoded frame (binary protocol or a text frame decoded by the FrameValidator) in the battery model
+     * @param frame a frame sized for this battery (see BmsFrame.fromSpecs()), only its sections() are up to date afterwards
+     */
+    public void setValues(BmsFrame frame) {
+        stamp(frame.sections());
 
-        // check if battery is charging (it's charging if any chargingAmperage value is bigger than 0)
-        int chargingAmpSum = 0;
-        for(i = 0; i < chargingAmperage.length; i++){
-            chargingAmpSum += Integer.parseInt(chargingAmperage[i]);
+        currentDrivingAmperage = frame.drivingDeciAmps / 10f;
+        for (int i = 0; i < cellMillivolts.length; i++) {
+            cellMillivolts[i] = toShort(frame.cellMillivolts[i]);
         }
-        if(chargingAmpSum > 0){
-            isCharging = true;
+        for (int i = 0; i < cellDeciTemps.length; i++) {
+            cellDeciTemps[i] = toShort(frame.cellDeciTemps[i]);
         }
+        for (Block block : blocks) {
+            block.setValues(frame);
+        }
+        publish();
+    }
 
-        // set value(s) in battery
-        currentDrivingAmperage = Integer.parseInt(drivingAmperage)/10f;
+    /**
+     * sets only the values that changed with a delta frame (see BmsFrame.isChanged()), the others are kept
+     * @param frame a frame sized for this battery, with the values of the last full frame and all deltas since
+     */
+    public void applyDelta(BmsFrame frame) {
+        stamp(BmsFrame.ALL_SECTIONS); // values that didn't change are up to date as well
 
-        // set values in blocks
+        if (frame.isChanged(frame.drivingField())) currentDrivingAmperage = frame.drivingDeciAmps / 10f;
+        for (int i = 0; i < cellMillivolts.length; i++) {
+            if (frame.isChanged(i)) cellMillivolts[i] = toShort(frame.cellMillivolts[i]);
+        }
+        for (int i = 0; i < cellDeciTemps.length; i++) {
+            if (frame.isChanged(frame.tempField(i))) cellDeciTemps[i] = toShort(frame.cellDeciTemps[i]);
+        }
         for (Block block : blocks) {
-            block.setCellTemps(cellTemp);
-            block.setCellVoltages(cellVoltage);
-            block.setChargerTemp(chargerTemp);
-            block.setChargingAmperage(chargingAmperage);
-            block.setCapacity(capacity);
+            block.applyDelta(frame);
+        }
+        publish();
+    }
+
+    /**
+     * sets the time of the frame and of the given sections (monotonic clock, not affected by changes of the system time)
+     */
+    private void stamp(int sections) {
+        frameNanos = clock.getAsLong();
+        for (int i = 0; i < BmsFrame.SECTION_COUNT; i++) {
+            if ((sections & (1 << i)) != 0) sectionNanos[i] = frameNanos;
+        }
+    }
+
+    /**
+     * computes all values derived from the cells and blocks in one pass over the arrays into the writer's snapshot
+     * and publishes it, so the getters only read fields (the UI asks for them for every gauge on every update).
+     * Called by the thread that sets the values, after every frame.
+     */
+    private void publish() {
+        Snapshot s = snapshots[back];
+        int mvSum = 0;
+        int mvMin = cellMillivolts.length > 0 ? cellMillivolts[0] : 0;
+        int mvMax = mvMin;
+        for (short mV : cellMillivolts) {
+            mvSum += mV;
+            if(mV < mvMin) { mvMin = mV; }
+            if(mV > mvMax) { mvMax = mV; }
+        }
+        int tSum = 0;
+        int tMin = cellDeciTemps.length > 0 ? cellDeciTemps[0] : 0;
+        int tMax = tMin;
+        for (short t : cellDeciTemps) {
+            tSum += t;
+            if(t < tMin) { tMin = t; }
+            if(t > tMax) { tMax = t; }
+        }
+        int capa = blocks[0].capacity;
+        float chargerTempSum = 0;
+        int chargingDeciAmpSum = 0;
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            Block block = blocks[i];
+            if(block.capacity < capa) { capa = block.capacity; }
+            chargerDeciTemps[i] = block.chargerDeciTemp;
+            chargingDeciAmps[i] = Math.round(block.chargingAmperage * 10);
+            chargingDeciAmpSum += chargingDeciAmps[i];
+            capacities[i] = block.capacity;
+            chargerTempSum += block.chargerDeciTemp / 10f;
+            s.chargingAmperages[i] = block.chargingAmperage;
+            s.chargerTemps[i] = block.chargerDeciTemp / 10f;
+        }
+        System.arraycopy(cellMillivolts, 0, s.cellMillivolts, 0, cellMillivolts.length);
+        System.arraycopy(cellDeciTemps, 0, s.cellDeciTemps, 0, cellDeciTemps.length);
+
+        s.frameSequence = ++frameCount;
+        s.frameNanos = frameNanos;
+        System.arraycopy(sectionNanos, 0, s.sectionNanos, 0, sectionNanos.length);
+        s.drivingAmperage = currentDrivingAmperage;
+        s.voltageSum = Math.round(mvSum / 1000f);
+        s.durchschnitt = Math.round(3 + mvSum / 1000f);
+        // Leistung = Spannung * Stromstärke
+        // 1W = a V * A => 1kW = (V*A)/1000
+        s.power = Math.round(s.voltageSum*currentDrivingAmperage/100) / 10f;
+        // Zustand: Fahren, Rekuperieren, Laden... (entprellt)
+        if (frameNanos != 0) {
+            chargeStateMachine.update(frameNanos, chargingDeciAmpSum, Math.round(currentDrivingAmperage * 10), capa);
         }
+        s.chargeState = chargeStateMachine.state();
+        // Verbrauch: Leistung über die Zeit aufintegriert (mit der ungerundeten Leistung)
+        if (frameNanos != 0) {
+            if (s.chargeState == ChargeState.CHARGING) energy.resetSinceCharge(); // counts from the end of the last charge
+            double kW = mvSum / 1000.0 * currentDrivingAmperage / 1000;
+            energy.add(frameNanos, kW);
+            // Reichweite: Restenergie (Kapazität) / Verbrauch pro km
+            DistanceMeter d = distance;
+            frameSpeed = d == null ? Float.NaN : d.speedAt(frameNanos);
+            if (!Float.isNaN(frameSpeed)) rangeEstimator.addSpeed(frameNanos, frameSpeed);
+            rangeEstimator.add(frameNanos, kW, capa / 100.0 * totalEnergy());
+        }
+        s.consumption = Math.round(energy.instantKw() * 10) / 10f;
+        s.tripAverageConsumption = Math.round(energy.tripAverageKw() * 10) / 10f;
+        s.tripEnergy = Math.round(energy.tripKWh() * 100) / 100f;
+        s.tripRegenEnergy = Math.round(energy.tripRegenKWh() * 100) / 100f;
+        s.sinceChargeEnergy = Math.round(energy.sinceChargeKWh() * 100) / 100f;
+        s.range = Double.isNaN(rangeEstimator.rangeKm()) ? 0 : (int) Math.round(rangeEstimator.rangeKm());
+        // Statistik der Zellen (schwache Zellen erkennen)
+        if (frameNanos != 0) cellStats.add(frameNanos, cellMillivolts);
+        for (int range = CellStats.TRIP; range <= CellStats.WINDOW; range++) {
+            cellStats.means(range, s.cellMeans[range]);
+            cellStats.stdDevs(range, s.cellStdDevs[range]);
+            cellStats.deviations(range, s.cellDeviations[range]);
+        }
+        s.imbalance = Math.round(cellStats.imbalance() * 10) / 10f;
+        // Innenwiderstand der Zellen (ΔV bei Stromänderung)
+        if (frameNanos != 0) internalResistance.add(frameNanos, cellMillivolts, Math.round(currentDrivingAmperage * 10));
+        internalResistance.resistances(s.cellResistances);
+        float rMin = Float.NaN, rMax = Float.NaN, rSum = 0;
+        for (float mOhm : s.cellResistances) {
+            if (!(rMin <= mOhm)) rMin = mOhm;
+            if (!(rMax >= mOhm)) rMax = mOhm;
+            rSum += mOhm;
+        }
+        s.minResistance = rMin;
+        s.maxResistance = rMax;
+        s.avrgResistance = Float.isNaN(rMin) || Float.isNaN(rSum) ? Float.NaN : Math.round(100 * rSum / s.cellResistances.length) / 100f;
+        // Warnungen (Grenzwerte aus battery_specs.xml)
+        if (frameNanos != 0) warningEngine.check(frameNanos, cellMillivolts, cellDeciTemps, chargerDeciTemps, chargingDeciAmps, capacities);
+        s.warnings = warningEngine.categories();
+        warningEngine.copyBits(s.warningBits);
+        s.minCellVoltage = mvMin / 1000f;
+        s.maxCellVoltage = mvMax / 1000f;
+        s.avrgCellVoltage = Math.round(100*(mvSum / 1000f / totalCellCount()))/100f;
+        s.minCellTemp = tMin / 10f;
+        s.maxCellTemp = tMax / 10f;
+        s.avrgCellTemp = Math.round(((float)tSum)/(totalCellThermometerCount()))/10f; // auf eine Nachkommastelle "abgeschnitten"
+        s.avrgChargerTemp = chargerTempSum / BLOCK_COUNT;
+        s.capacity = capa;
 
+        lastPublished = back;
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+        recordHistory(s);
     }
 
-    /*public boolean isCharging() {
-        return isCharging;
-    }*/
+    /**
+     * adds the values of a frame to the rollups (every frame) and to the history (at most HISTORY_RATE times per second), writer only
+     */
+    private void recordHistory(Snapshot s) {
+        if (s.frameNanos == 0) return; // no frame yet
+        long t = s.frameNanos;
+        metricValues[GaugeMetric.VOLTAGE.ordinal()] = s.voltageSum;
+        metricValues[GaugeMetric.DURCHSCHNITTSGESCHWINDIGKEIT.ordinal()] = s.durchschnitt;
+        metricValues[GaugeMetric.POWER.ordinal()] = s.power;
+        metricValues[GaugeMetric.CONSUMPTION.ordinal()] = s.consumption;
+        metricValues[GaugeMetric.DURCHSCHNITTSVERBRAUCH.ordinal()] = s.tripAverageConsumption;
+        metricValues[GaugeMetric.RANGE.ordinal()] = s.range;
+        metricValues[GaugeMetric.GESCHWINDIGKEIT.ordinal()] = frameSpeed;
+        metricValues[GaugeMetric.DRIVING_AMP.ordinal()] = s.drivingAmperage;
+        metricValues[GaugeMetric.CHARGER_TEMP.ordinal()] = s.avrgChargerTemp;
+        metricValues[GaugeMetric.CELL_VOLTAGES.ordinal()] = s.avrgCellVoltage;
+        metricValues[GaugeMetric.CELL_TEMPS.ordinal()] = s.avrgCellTemp;
+        metricValues[GaugeMetric.CAPACITY.ordinal()] = s.capacity;
+        metricValues[GaugeMetric.INNENWIDERSTAND.ordinal()] = s.avrgResistance;
+        metricRollup.add(t, metricValues);
+        cellVoltageRollup.add(t, cellMillivolts, 1 / 1000f);
+        cellTempRollup.add(t, cellDeciTemps, 1 / 10f);
+
+        if (lastSampleNanos != 0 && t - lastSampleNanos < 1_000_000_000L / HISTORY_RATE) return;
+        lastSampleNanos = t;
+        for (int i = 0; i < metricValues.length; i++) {
+            if (!Float.isNaN(metricValues[i])) metricHistory[i].append(t, metricValues[i]);
+        }
+        cellVoltageHistory.append(t, cellMillivolts);
+        cellTempHistory.append(t, cellDeciTemps);
+    }
+
+    /**
+     * @param metric a metric of a gauge
+     * @return the history of the metric (values as shown by the gauges, for cell voltages and temperatures the average),
+     *         empty for metrics the battery doesn't calculate
+     */
+    public MetricHistory history(GaugeMetric metric) {
+        return metricHistory[metric.ordinal()];
+    }
+
+    /**
+     * @return history of the voltages of all cells in mV
+     */
+    public CellHistory cellVoltageHistory() {
+        return cellVoltageHistory;
+    }
+
+    /**
+     * @return history of all temperature sensors in 1/10 °C
+     */
+    public CellHistory cellTempHistory() {
+        return cellTempHistory;
+    }
+
+    /**
+     * @return min/max/mean/last of every frame at several resolutions, series = GaugeMetric.ordinal() (same values as history())
+     */
+    public Rollup rollup() {
+        return metricRollup;
+    }
+
+    /**
+     * @return min/max/mean/last of the voltage of every cell in V at several resolutions, series = cell
+     */
+    public Rollup cellVoltageRollup() {
+        return cellVoltageRollup;
+    }
+
+    /**
+     * @return min/max/mean/last of every temperature sensor in °C at several resolutions, series = sensor
+     */
+    public Rollup cellTempRollup() {
+        return cellTempRollup;
+    }
+
+    /**
+     * Takes the newest published snapshot: all values of one frame, read them all from it instead of from the getters
+     * of the battery (e.g. once per UI update). It stays the same until the next call of snapshot() or of a getter
+     * (then the writer may reuse it), so don't keep it longer. Reader thread only.
+     * @return the newest snapshot
+     */
+    public Snapshot snapshot() {
+        if ((middle.get() & FRESH) != 0) front = middle.getAndSet(front) & INDEX_MASK;
+        return snapshots[front];
+    }
+
+    /**
+     * @return number of frames set in this battery, changes whenever the values change
+     */
+    public long frameSequence() {
+        return snapshot().frameSequence();
+    }
+
+    /**
+     * @return SystemClock.elapsedRealtimeNanos() of the last frame, 0 if there was none
+     */
+    public long frameNanos() {
+        return snapshot().frameNanos();
+    }
+
+    /**
+     * @param sections BmsFrame.SECTION_... bits of the values that are needed
+     * @return age of the oldest of these values in ms (Long.MAX_VALUE if one of them was never set)
+     */
+    public long ageMillis(int sections) {
+        return snapshot().ageMillis(sections);
+    }
+
+    /**
+     * @param sections BmsFrame.SECTION_... bits of the values that are needed
+     * @return true if one of these values is older than max_data_age (the UI marks its gauges then)
+     */
+    public boolean isStale(int sections) {
+        return snapshot().isStale(sections);
+    }
+
+    /**
+     * @return IDLE, DRIVING, REGEN, CHARGING or CHARGE_COMPLETE (see ChargeStateMachine)
+     */
+    public ChargeState chargeState() {
+        return snapshot().chargeState();
+    }
 
     public float drivingAmperage(){
-        return currentDrivingAmperage;
+        return snapshot().drivingAmperage();
     }
 
     public int voltageSum(){
-        float sum = 0;
-        for (Block block : blocks) {
-            for (float cV : block.cellVoltages) {
-                sum += cV;
-            }
-        }
-        return Math.round(sum);
+        return snapshot().voltageSum();
     }
     public int durchscnitt(){
-        float sum = 3;
-        for (Block block : blocks) {
-            for (float cV : block.cellVoltages) {
-                sum += cV;
-            }
-        }
-        return Math.round(sum);
+        return snapshot().durchscnitt();
     }
 
     public float power(){
-        // Leistung = Spannung * Stromstärke
-        // 1W = a V * A => 1kW = (V*A)/1000
-        return Math.round(voltageSum()*drivingAmperage()/100) / 10f;
+        return snapshot().power();
+    }
+
+    /**
+     * @return current consumption in kW (the power of the last frame, negative when recuperating)
+     */
+    public float consumption(){
+        return snapshot().consumption();
+    }
+
+    /**
+     * @return average consumption since the trip started (app start) in kW: used minus recuperated energy / time
+     */
+    public float tripAverageConsumption(){
+        return snapshot().tripAverageConsumption();
+    }
+
+    /**
+     * @return energy used since the trip started minus the recuperated energy, in kWh
+     */
+    public float tripEnergy(){
+        return snapshot().tripEnergy();
+    }
+
+    /**
+     * @return energy recuperated since the trip started in kWh
+     */
+    public float tripRegenEnergy(){
+        return snapshot().tripRegenEnergy();
+    }
+
+    /**
+     * @return energy used since the battery was charged the last time minus the recuperated energy, in kWh
+     */
+    public float sinceChargeEnergy(){
+        return snapshot().sinceChargeEnergy();
+    }
+
+    /**
+     * sets where the battery gets the speed of the vehicle from (for the range and the history), set by the BatteryFleet
+     */
+    void setDistanceMeter(DistanceMeter distance) {
+        this.distance = distance;
+    }
+
+    /**
+     * @return estimated range in km (see RangeEstimator)
+     */
+    public int range(){
+        return snapshot().range();
+    }
+
+    public int blockCount() {
+        return BLOCK_COUNT;
     }
 
     public float[] getChargingAmperages(){
-        float[] result = new float[BLOCK_COUNT];
-        for (int i = 0; i < result.length; i++) {
-            result[i] = blocks[i].chargingAmperage;
-        }
-        return result;
+        return getChargingAmperages(new float[BLOCK_COUNT]);
+    }
+
+    /**
+     * like getChargingAmperages(), but fills the given array instead of allocating one
+     * @param result array with at least blockCount() elements
+     * @return result
+     */
+    public float[] getChargingAmperages(float[] result){
+        return snapshot().getChargingAmperages(result);
     }
 
     public float[] getChargerTemperatures() {
-        float[] result = new float[BLOCK_COUNT];
-        for (int i = 0; i < result.length; i++) {
-            result[i] = blocks[i].chargerTemp;
-        }
-        return result;
+        return getChargerTemperatures(new float[BLOCK_COUNT]);
+    }
+
+    /**
+     * like getChargerTemperatures(), but fills the given array instead of allocating one
+     * @param result array with at least blockCount() elements
+     * @return result
+     */
+    public float[] getChargerTemperatures(float[] result) {
+        return snapshot().getChargerTemperatures(result);
     }
 
     public float getAvrgChargerTemp(){
-        float[] temps = getChargerTemperatures();
-        float sum = 0;
-        for (float temp : temps) {
-            sum += temp;
-        }
-        return sum / BLOCK_COUNT;
+        return snapshot().getAvrgChargerTemp();
     }
 
-    private float minCellVoltage(){
-        float min = blocks[0].cellVoltages[0];
-        for (Block block : blocks) {
-            for (float cV : block.cellVoltages) {
-                if(cV < min) { min = cV; }
-            }
-        }
-        return min;
+    public int cellCount() {
+        return cellMillivolts.length;
     }
 
-    private float maxCellVoltage(){
-        float max = blocks[0].cellVoltages[0];
-        for (Block block : blocks) {
-            for (float cV : block.cellVoltages) {
-                if(cV > max) { max = cV; }
-            }
-        }
-        return max;
+    public int tempSensorCount() {
+        return cellDeciTemps.length;
     }
 
-    private float avrgCellVoltage(){
-        float sum = 0;
-        for (Block block : blocks) {
-            for (float cV : block.cellVoltages) {
-                sum += cV;
-            }
-        }
-        return Math.round(100*(sum/totalCellCount()))/100f;
+    /**
+     * @param cell index of the cell in the pack (block * cellsPerBlock + cell in block)
+     * @return voltage of the cell in V
+     */
+    public float cellVoltage(int cell) {
+        return snapshot().cellVoltage(cell);
     }
 
-    private float minCellTemp(){
-        float min = blocks[0].cellTemps[0];
-        for (Block block : blocks) {
-            for (float cT : block.cellTemps) {
-                if(cT < min) { min = cT; }
-            }
-        }
-        return min;
+    /**
+     * @param sensor index of the temperature sensor in the pack (block * thermometer_per_block + sensor in block)
+     * @return temperature in °C
+     */
+    public float cellTemp(int sensor) {
+        return snapshot().cellTemp(sensor);
     }
 
-    private float maxCellTemp(){
-        float max = blocks[0].cellTemps[0];
-        for (Block block : blocks) {
-            for (float cT : block.cellTemps) {
-                if(cT > max) { max = cT; }
-            }
-        }
-        return max;
+    public float[] getCellVoltages(){
+        return getCellVoltages(new float[3]);
     }
 
-    private float avrgCellTemp(){
-        int sum = 0;
-        for (Block block : blocks) {
-            for (float cT : block.cellTemps) {
-                sum += cT;
-            }
-        }
-        return Math.round(10*((float)sum)/(totalCellThermometerCount()))/10f; // auf eine Nachkommastelle "abgeschnitten"
+    /**
+     * fills min, max and average cell voltage into the given array (no allocation, for the UI updates)
+     * @param voltages array with at least 3 elements
+     * @return voltages
+     */
+    public float[] getCellVoltages(float[] voltages){
+        return snapshot().getCellVoltages(voltages);
     }
 
-    public float[] getCellVoltages(){
-        float[] voltages = new float[3];
-        voltages[0] = minCellVoltage();
-        voltages[1] = maxCellVoltage();
-        voltages[2] = avrgCellVoltage();
-        return voltages;
+    /**
+     * fills the mean voltage of every cell (in V) into the given array
+     * @param range CellStats.TRIP (since the app started) or CellStats.WINDOW (about the last cell_stats_window seconds)
+     * @param result array with at least cellCount() elements
+     * @return result
+     * @see CellStats
+     */
+    public float[] getCellMeans(int range, float[] result){
+        return snapshot().getCellMeans(range, result);
+    }
+
+    /**
+     * fills the standard deviation of every cell voltage (in V) into the given array
+     * @param range CellStats.TRIP or CellStats.WINDOW
+     * @param result array with at least cellCount() elements
+     * @return result
+     */
+    public float[] getCellStdDevs(int range, float[] result){
+        return snapshot().getCellStdDevs(range, result);
+    }
+
+    /**
+     * fills the mean deviation of every cell from the mean of all cells (in mV, negative = weaker than the others) into the given array
+     * @param range CellStats.TRIP or CellStats.WINDOW
+     * @param result array with at least cellCount() elements
+     * @return result
+     */
+    public float[] getCellDeviations(int range, float[] result){
+        return snapshot().getCellDeviations(range, result);
+    }
+
+    /**
+     * fills the estimated internal resistance of every cell (in mΩ, NaN = no estimate yet) into the given array
+     * @param result array with at least cellCount() elements
+     * @return result
+     * @see InternalResistance
+     */
+    public float[] getCellResistances(float[] result){
+        return snapshot().getCellResistances(result);
+    }
+
+    /**
+     * fills min, max and average internal resistance of the cells (in mΩ) into the given array (no allocation, for the UI updates)
+     * @param resistances array with at least 3 elements, NaN until the current changed enough for an estimate
+     * @return resistances
+     */
+    public float[] getResistances(float[] resistances){
+        return snapshot().getResistances(resistances);
+    }
+
+    /**
+     * @return how different the cells are (root mean square of the windowed deviations in mV, 0 = all the same)
+     */
+    public float imbalance(){
+        return snapshot().imbalance();
+    }
+
+    /**
+     * @return bit (1 << WarningEngine.CELL_VOLTAGE_HIGH etc.) for every category with a warning, 0 = no warnings
+     */
+    public int warnings(){
+        return snapshot().warnings();
+    }
+
+    /**
+     * @param category WarningEngine.CELL_VOLTAGE_HIGH etc.
+     * @param item cell, temperature sensor or block (depends on the category)
+     * @return true if there is a warning for this item
+     */
+    public boolean hasWarning(int category, int item){
+        return snapshot().hasWarning(category, item);
     }
 
     public float[] getCellTemps(){
-        float[] temps = new float[3];
-        temps[0] = minCellTemp();
-        temps[1] = maxCellTemp();
-        temps[2] = avrgCellTemp();
-        return temps;
+        return getCellTemps(new float[3]);
+    }
+
+    /**
+     * fills min, max and average cell temperature into the given array (no allocation, for the UI updates)
+     * @param temps array with at least 3 elements
+     * @return temps
+     */
+    public float[] getCellTemps(float[] temps){
+        return snapshot().getCellTemps(temps);
     }
 
     public float capacity(){
-        int min = blocks[0].capacity;
-        for (Block block : blocks) {
-            if(block.capacity < min) {
-                min = block.capacity;
-            }
-        }
-        return min;
+        return snapshot().capacity();
     }
 
     /**
@@ -315,17 +1048,26 @@ public class Battery {
      */
     @Override
     public String toString(){
+        Snapshot last = snapshots[lastPublished]; // the writer's last frame, toString() is called by the writer (see printBattery())
         StringBuilder s = new StringBuilder(" ");
         s.append(System.lineSeparator()).append("--- B A T T E R Y  S T A T E ---").append(System.lineSeparator());
-        s.append(super.toString()).append(" @ ").append(timestamp).append(System.lineSeparator());
-        s.append("Overall capacity (min capa of all blocks): ").append(capacity()).append(System.lineSeparator());
-        s.append("Voltage sum (voltages of all cells): ").append(voltageSum()).append(System.lineSeparator());
-        s.append("Power (Leistung in kW): ").append(power()).append(System.lineSeparator());
+        s.append(super.toString()).append(" @ ").append(frameNanos / 1_000_000).append(" ms (elapsed realtime)").append(System.lineSeparator());
+        s.append("Overall capacity (min capa of all blocks): ").append(last.capacity).append(System.lineSeparator());
+        s.append("Voltage sum (voltages of all cells): ").append(last.voltageSum).append(System.lineSeparator());
+        s.append("Power (Leistung in kW): ").append(last.power).append(System.lineSeparator());
         for (Block block : blocks) {
             s.append("BLOCK ").append(block.blockId).append(System.lineSeparator());
-            s.append("CellVoltages in V ").append(Arrays.toString((block.cellVoltages))).append(System.lineSeparator());
-            s.append("CellTemp Sensors in °C ").append(Arrays.toString((block.cellTemps))).append(System.lineSeparator());
-            s.append("Charger Temperature in °C: ").append(block.chargerTemp).append(System.lineSeparator());
+            s.append("CellVoltages in V [");
+            for (int i = block.firstCell; i < block.endCell; i++) {
+                s.append(i > block.firstCell ? ", " : "").append(cellMillivolts[i] / 1000f);
+            }
+            s.append("]").append(System.lineSeparator());
+            s.append("CellTemp Sensors in °C [");
+            for (int i = block.firstTemp; i < block.endTemp; i++) {
+                s.append(i > block.firstTemp ? ", " : "").append(cellDeciTemps[i] / 10f);
+            }
+            s.append("]").append(System.lineSeparator());
+            s.append("Charger Temperature in °C: ").append(block.chargerDeciTemp / 10f).append(System.lineSeparator());
             s.append("Charging Amperage in A: ").append(block.chargingAmperage).append(System.lineSeparator());
             s.append("Capacity in Ah (or %): ").append(block.capacity).append(System.lineSeparator());
         }
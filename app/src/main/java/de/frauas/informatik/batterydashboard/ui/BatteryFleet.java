@@ -0,0 +1,312 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import android.content.res.Resources;
+
+import com.example.batterydashboard.R;
+
+import de.frauas.informatik.batterydashboard.enums.ChargeState;
+
+/** Model for several battery packs (e.g. on the test bench), each with the setup from battery_specs.xml.</br>
+ * Every pack is a Battery object of its own and is fed by its own receiver and worker thread in the BatteryDataService,
+ * so the packs are updated in parallel. The number of packs is the number of entries in pack_sources.
+ * </br></br>
+ * Besides the packs, the fleet offers aggregates over all packs (total power, global min/max cell values...)
+ * and the values of the vehicle itself (speed and distance, see distance()).
+ * A gauge selects a pack with its pack index (see GaugeBlueprint), FLEET selects these aggregates.
+ * Like with a single battery, the UI takes one snapshot() per update and reads the packs and the aggregates from it,
+ * so all gauges of one update show the same frame of every pack.
+ *
+ * @see Battery
+ * @see de.frauas.informatik.batterydashboard.background.BatteryDataService
+ */
+
+public class BatteryFleet {
+    /** pack index of gauges showing the aggregates of all packs */
+    public static final int FLEET = -1;
+
+    private final Battery[] packs;
+    private final DistanceMeter distance; // the packs share the vehicle's speed
+    private final float[] packValues = new float[3]; // buffer for the values of one pack, only used by the reader (UI thread)
+    private final Snapshot snapshot;
+
+    public BatteryFleet(Resources resources) {
+        distance = new DistanceMeter(resources.getInteger(R.integer.max_data_age) * 1_000_000L);
+        packs = new Battery[Math.max(1, resources.getStringArray(R.array.pack_sources).length)];
+        for (int i = 0; i < packs.length; i++) {
+            packs[i] = new Battery(resources);
+            packs[i].setDistanceMeter(distance);
+        }
+        snapshot = new Snapshot();
+    }
+
+    /**
+     * fleet of the given packs (for the tests, without resources)
+     */
+    BatteryFleet(DistanceMeter distance, Battery... packs) {
+        this.distance = distance;
+        this.packs = packs;
+        for (Battery pack : packs) {
+            pack.setDistanceMeter(distance);
+        }
+        snapshot = new Snapshot();
+    }
+
+    /**
+     * @return trip and lifetime distance and the speed of the vehicle (fed by the SpeedSource of the BatteryDataService)
+     */
+    public DistanceMeter distance() {
+        return distance;
+    }
+
+    public int packCount() {
+        return packs.length;
+    }
+
+    /**
+     * @param pack pack index (0 = first pack)
+     * @return the pack, the first one if the index is not valid (e.g. a saved dashboard with more packs than the current setup)
+     */
+    public Battery getPack(int pack) {
+        return pack >= 0 && pack < packs.length ? packs[pack] : packs[0];
+    }
+
+    /**
+     * Takes the newest snapshot of every pack (see Battery.snapshot()). It stays the same until the next call of snapshot()
+     * or of a getter of the fleet or the packs, so don't keep it longer. Reader thread only.
+     * @return the snapshots of the packs and the aggregates over them, the same object on every call
+     */
+    public Snapshot snapshot() {
+        for (int i = 0; i < packs.length; i++) {
+            snapshot.packs[i] = packs[i].snapshot();
+        }
+        return snapshot;
+    }
+
+    /**
+     * the snapshots of all packs of one UI update and the aggregates over them (see snapshot())
+     */
+    public class Snapshot {
+        private final Battery.Snapshot[] packs = new Battery.Snapshot[BatteryFleet.this.packs.length];
+
+        /**
+         * @param pack pack index (0 = first pack)
+         * @return snapshot of the pack, of the first one if the index is not valid (like getPack())
+         */
+        public Battery.Snapshot pack(int pack) {
+            return pack >= 0 && pack < packs.length ? packs[pack] : packs[0];
+        }
+
+        /**
+         * @return changes whenever one of the packs gets a frame (sum of the frame sequences of the packs)
+         */
+        public long frameSequence() {
+            long sum = 0;
+            for (Battery.Snapshot pack : packs) {
+                sum += pack.frameSequence();
+            }
+            return sum;
+        }
+
+        /**
+         * @param sections BmsFrame.SECTION_... bits of the values that are needed
+         * @return true if these values of one of the packs are stale (see Battery.isStale())
+         */
+        public boolean isStale(int sections) {
+            for (Battery.Snapshot pack : packs) {
+                if (pack.isStale(sections)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return CHARGING if a pack is charging, CHARGE_COMPLETE if a pack is full at the charger, the state of the first pack otherwise
+         */
+        public ChargeState chargeState() {
+            ChargeState state = packs[0].chargeState();
+            for (Battery.Snapshot pack : packs) {
+                ChargeState s = pack.chargeState();
+                if (s == ChargeState.CHARGING) return s;
+                if (s == ChargeState.CHARGE_COMPLETE) state = s;
+            }
+            return state;
+        }
+
+        /**
+         * @return the warning categories of all packs (see Battery.warnings())
+         */
+        public int warnings() {
+            int mask = 0;
+            for (Battery.Snapshot pack : packs) {
+                mask |= pack.warnings();
+            }
+            return mask;
+        }
+
+        /**
+         * @return power of all packs together in kW
+         */
+        public float totalPower() {
+            float sum = 0;
+            for (Battery.Snapshot pack : packs) {
+                sum += pack.power();
+            }
+            return Math.round(sum * 10) / 10f;
+        }
+
+        /**
+         * @return driving amperage of all packs together
+         */
+        public float totalDrivingAmperage() {
+            float sum = 0;
+            for (Battery.Snapshot pack : packs) {
+                sum += pack.drivingAmperage();
+            }
+            return sum;
+        }
+
+        /**
+         * @return the lowest capacity of all packs
+         */
+        public float minCapacity() {
+            float min = packs[0].capacity();
+            for (Battery.Snapshot pack : packs) {
+                min = Math.min(min, pack.capacity());
+            }
+            return min;
+        }
+
+        /**
+         * fills min, max and average cell voltage of all packs (like Battery.getCellVoltages()) into the given array
+         * @param result array with at least 3 elements
+         * @return result
+         */
+        public float[] getCellVoltages(float[] result) {
+            float min = Float.MAX_VALUE, max = -Float.MAX_VALUE, sum = 0;
+            for (Battery.Snapshot pack : packs) {
+                pack.getCellVoltages(packValues);
+                min = Math.min(min, packValues[0]);
+                max = Math.max(max, packValues[1]);
+                sum += packValues[2];
+            }
+            result[0] = min;
+            result[1] = max;
+            result[2] = Math.round(100 * sum / packs.length) / 100f;
+            return result;
+        }
+
+        /**
+         * fills min, max and average cell temperature of all packs (like Battery.getCellTemps()) into the given array
+         * @param result array with at least 3 elements
+         * @return result
+         */
+        public float[] getCellTemps(float[] result) {
+            float min = Float.MAX_VALUE, max = -Float.MAX_VALUE, sum = 0;
+            for (Battery.Snapshot pack : packs) {
+                pack.getCellTemps(packValues);
+                min = Math.min(min, packValues[0]);
+                max = Math.max(max, packValues[1]);
+                sum += packValues[2];
+            }
+            result[0] = min;
+            result[1] = max;
+            result[2] = Math.round(10 * sum / packs.length) / 10f;
+            return result;
+        }
+
+        /**
+         * @return average charger temperature of all packs
+         */
+        public float getAvrgChargerTemp() {
+            float sum = 0;
+            for (Battery.Snapshot pack : packs) {
+                sum += pack.getAvrgChargerTemp();
+            }
+            return sum / packs.length;
+        }
+    }
+
+    /**
+     * @return changes whenever one of the packs gets a frame (sum of the frame sequences of the packs)
+     */
+    public long frameSequence() {
+        return snapshot().frameSequence();
+    }
+
+    /**
+     * @param sections BmsFrame.SECTION_... bits of the values that are needed
+     * @return true if these values of one of the packs are stale (see Battery.isStale())
+     */
+    public boolean isStale(int sections) {
+        return snapshot().isStale(sections);
+    }
+
+    /**
+     * @return CHARGING if a pack is charging, CHARGE_COMPLETE if a pack is full at the charger, the state of the first pack otherwise
+     */
+    public ChargeState chargeState() {
+        return snapshot().chargeState();
+    }
+
+    /**
+     * @return the warning categories of all packs (see Battery.warnings())
+     */
+    public int warnings() {
+        return snapshot().warnings();
+    }
+
+    /**
+     * @return power of all packs together in kW
+     */
+    public float totalPower() {
+        return snapshot().totalPower();
+    }
+
+    /**
+     * @return driving amperage of all packs together
+     */
+    public float totalDrivingAmperage() {
+        return snapshot().totalDrivingAmperage();
+    }
+
+    /**
+     * @return the lowest capacity of all packs
+     */
+    public float minCapacity() {
+        return snapshot().minCapacity();
+    }
+
+    /**
+     * @return min, max and average cell voltage of all packs (like Battery.getCellVoltages())
+     */
+    public float[] getCellVoltages() {
+        return getCellVoltages(new float[3]);
+    }
+
+    /**
+     * like getCellVoltages(), but fills the given array (at least 3 elements) instead of allocating one
+     */
+    public float[] getCellVoltages(float[] result) {
+        return snapshot().getCellVoltages(result);
+    }
+
+    /**
+     * @return min, max and average cell temperature of all packs (like Battery.getCellTemps())
+     */
+    public float[] getCellTemps() {
+        return getCellTemps(new float[3]);
+    }
+
+    /**
+     * like getCellTemps(), but fills the given array (at least 3 elements) instead of allocating one
+     */
+    public float[] getCellTemps(float[] result) {
+        return snapshot().getCellTemps(result);
+    }
+
+    /**
+     * @return average charger temperature of all packs
+     */
+    public float getAvrgChargerTemp() {
+        return snapshot().getAvrgChargerTemp();
+    }
+}
@@ -0,0 +1,63 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+/**
+ * History of all cells (or temperature sensors) of a battery: one row of shorts per sample in one flat array,
+ * in the fixed point units of the battery (mV or 1/10 °C).
+ *
+ * @see Battery#cellVoltageHistory()
+ * @see Battery#cellTempHistory()
+ * @see HistoryRing
+ */
+
+public class CellHistory extends HistoryRing {
+    private final int width;
+    private final short[] values; // sample after sample, width values each
+
+    /**
+     * @param capacity number of samples
+     * @param width number of cells per sample
+     */
+    public CellHistory(int capacity, int width) {
+        super(capacity);
+        this.width = width;
+        values = new short[nanos.length * width];
+    }
+
+    public synchronized void append(long timeNanos, short[] row) {
+        System.arraycopy(row, 0, values, claim(timeNanos) * width, width);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    /**
+     * copies the values of one cell from fromNanos to toNanos (both included), oldest first.
+     * If there are more than fit into the arrays, the newest ones are copied.
+     * @param cell index of the cell
+     * @param nanosOut times of the samples, null if not needed
+     * @param valuesOut values of the cell
+     * @return number of samples copied
+     */
+    public synchronized int copyCell(int cell, long fromNanos, long toNanos, long[] nanosOut, short[] valuesOut) {
+        int max = nanosOut == null ? valuesOut.length : Math.min(nanosOut.length, valuesOut.length);
+        int end = rangeEnd(toNanos);
+        int start = Math.max(firstAtOrAfter(fromNanos), end - max);
+        for (int i = start; i < end; i++) {
+            int slot = slot(i);
+            if (nanosOut != null) nanosOut[i - start] = nanos[slot];
+            valuesOut[i - start] = values[slot * width + cell];
+        }
+        return Math.max(0, end - start);
+    }
+
+    /**
+     * copies all cells of the i-th sample (0 = oldest) into row
+     * @return time of the sample
+     */
+    public synchronized long copySample(int i, short[] row) {
+        int slot = slot(i);
+        System.arraycopy(values, slot * width, row, 0, width);
+        return nanos[slot];
+    }
+}
@@ -0,0 +1,151 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+/**
+ * Running statistics of every cell voltage, so weak cells show up while driving:
+ * mean and standard deviation of every cell, its deviation from the mean of the pack and an imbalance score of the whole pack.
+ * </br></br>
+ * TRIP: since the trip started (app start / resetTrip()), with Welford's algorithm (numerically stable, one pass).</br>
+ * WINDOW: the last minute or so, as exponentially weighted mean and variance with the time constant windowNanos
+ * (the incremental form of Welford's algorithm for weighted samples). A real sliding window would need the samples
+ * that fall out of it, this needs nothing but the last values.
+ * </br></br>
+ * The deviation of a cell is its voltage minus the mean voltage of all cells of the same frame, averaged like the voltage.
+ * A cell that is always a bit lower than the others has a negative mean deviation, even if the whole pack goes up and down.
+ * The imbalance is the root mean square of the windowed deviations of all cells.
+ * </br></br>
+ * add() is O(cells) per frame in primitive arrays and allocates nothing. Only used by the thread that sets the battery's values,
+ * the UI gets the statistics through the battery's snapshots.
+ *
+ * @see Battery#getCellMeans(int, float[])
+ */
+
+public class CellStats {
+    public static final int TRIP = 0;
+    public static final int WINDOW = 1;
+
+    private final int cells;
+    private final double windowNanos;
+    private final long maxGapNanos;
+
+    // TRIP: Welford
+    private long count;
+    private final double[] mean;    // mV
+    private final double[] m2;      // sum of squared differences from the mean
+    private final double[] devMean; // deviation from the mean of the pack in mV
+    // WINDOW: exponentially weighted
+    private final double[] windowMean;
+    private final double[] windowVar;
+    private final double[] windowDevMean;
+    private long lastNanos; // 0 = no frame yet
+    private double imbalance;
+
+    /**
+     * @param cells number of cells
+     * @param windowNanos time constant of the WINDOW statistics
+     * @param maxGapNanos longer times between two frames are counted as this long
+     */
+    public CellStats(int cells, long windowNanos, long maxGapNanos) {
+        this.cells = cells;
+        this.windowNanos = windowNanos;
+        this.maxGapNanos = maxGapNanos;
+        mean = new double[cells];
+        m2 = new double[cells];
+        devMean = new double[cells];
+        windowMean = new double[cells];
+        windowVar = new double[cells];
+        windowDevMean = new double[cells];
+    }
+
+    /**
+     * adds the cell voltages of a frame
+     * @param timeNanos time of the frame (SystemClock.elapsedRealtimeNanos())
+     * @param millivolts one value per cell
+     */
+    public void add(long timeNanos, short[] millivolts) {
+        if (cells == 0 || (lastNanos != 0 && timeNanos <= lastNanos)) return;
+        int sum = 0;
+        for (int i = 0; i < cells; i++) {
+            sum += millivolts[i];
+        }
+        double packMean = (double) sum / cells;
+
+        count++;
+        boolean first = lastNanos == 0;
+        double a = first ? 1 : 1 - Math.exp(-Math.min(timeNanos - lastNanos, maxGapNanos) / windowNanos);
+        lastNanos = timeNanos;
+        double squares = 0;
+        for (int i = 0; i < cells; i++) {
+            double x = millivolts[i];
+            double dev = x - packMean;
+            // Welford
+            double diff = x - mean[i];
+            mean[i] += diff / count;
+            m2[i] += diff * (x - mean[i]);
+            devMean[i] += (dev - devMean[i]) / count;
+            // exponentially weighted
+            diff = x - windowMean[i];
+            double increment = a * diff;
+            windowMean[i] += increment;
+            windowVar[i] = first ? 0 : (1 - a) * (windowVar[i] + diff * increment);
+            windowDevMean[i] += a * (dev - windowDevMean[i]);
+            squares += windowDevMean[i] * windowDevMean[i];
+        }
+        imbalance = Math.sqrt(squares / cells);
+    }
+
+    /**
+     * @param range TRIP or WINDOW
+     * @param result mean voltage of every cell in V
+     */
+    public void means(int range, float[] result) {
+        double[] m = range == TRIP ? mean : windowMean;
+        for (int i = 0; i < cells; i++) {
+            result[i] = (float) (m[i] / 1000);
+        }
+    }
+
+    /**
+     * @param range TRIP or WINDOW
+     * @param result standard deviation of every cell in V (0 before the second frame)
+     */
+    public void stdDevs(int range, float[] result) {
+        for (int i = 0; i < cells; i++) {
+            double variance = range == TRIP ? (count > 1 ? m2[i] / (count - 1) : 0) : windowVar[i];
+            result[i] = (float) (Math.sqrt(variance) / 1000);
+        }
+    }
+
+    /**
+     * @param range TRIP or WINDOW
+     * @param result mean deviation of every cell from the mean of the pack in mV (negative = weaker than the others)
+     */
+    public void deviations(int range, float[] result) {
+        double[] d = range == TRIP ? devMean : windowDevMean;
+        for (int i = 0; i < cells; i++) {
+            result[i] = (float) d[i];
+        }
+    }
+
+    /**
+     * @return root mean square of the windowed deviations of all cells in mV (0 = all cells are the same)
+     */
+    public double imbalance() {
+        return imbalance;
+    }
+
+    /**
+     * @return number of frames since the trip started
+     */
+    public long count() {
+        return count;
+    }
+
+    public void resetTrip() {
+        count = 0;
+        for (int i = 0; i < cells; i++) {
+            mean[i] = 0;
+            m2[i] = 0;
+            devMean[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import de.frauas.informatik.batterydashboard.enums.ChargeState;
+
+/**
+ * Decides from the currents and the capacity of every frame if the battery is IDLE, DRIVING, REGEN (recuperating),
+ * CHARGING or CHARGE_COMPLETE (charger still connected, battery full).
+ * </br></br>
+ * CHARGING: the charging amperages of the blocks add up to more than the current threshold.</br>
+ * CHARGE_COMPLETE: after CHARGING the charging current stops and the capacity is at maxCapacity, until the car drives.
+ * (if the capacity isn't full when the current stops, the charger was disconnected -> IDLE)</br>
+ * DRIVING / REGEN: the driving amperage is above / below +- the current threshold, IDLE otherwise.
+ * </br></br>
+ * Debounce: a new state is taken only when the frames say so for debounceNanos without interruption,
+ * so e.g. a single frame without charging current doesn't switch the dashboard back and forth.
+ * Only used by the thread that sets the battery's values, the UI gets the state through the battery's snapshots.
+ *
+ * @see Battery#chargeState()
+ */
+
+public class ChargeStateMachine {
+    private final int currentThreshold; // 1/10 A
+    private final int fullCapacity;     // %
+    private final long debounceNanos;
+
+    private ChargeState state = ChargeState.IDLE;
+    private ChargeState candidate;      // state the frames say, if it is not state
+    private long candidateNanos;        // since when
+
+    /**
+     * @param currentThreshold smaller currents count as none (in 1/10 A)
+     * @param fullCapacity capacity of a full battery in %
+     * @param debounceNanos how long the frames have to say a new state until it is taken
+     */
+    public ChargeStateMachine(int currentThreshold, int fullCapacity, long debounceNanos) {
+        this.currentThreshold = currentThreshold;
+        this.fullCapacity = fullCapacity;
+        this.debounceNanos = debounceNanos;
+    }
+
+    /**
+     * @param timeNanos time of the frame (SystemClock.elapsedRealtimeNanos())
+     * @param chargingDeciAmps sum of the charging amperages of all blocks in 1/10 A
+     * @param drivingDeciAmps driving amperage in 1/10 A (negative when recuperating)
+     * @param capacity capacity in % (the lowest of the blocks)
+     * @return the state after this frame
+     */
+    public ChargeState update(long timeNanos, int chargingDeciAmps, int drivingDeciAmps, int capacity) {
+        ChargeState next = classify(chargingDeciAmps, drivingDeciAmps, capacity);
+        if (next == state) {
+            candidate = null;
+            return state;
+        }
+        if (next != candidate) {
+            candidate = next;
+            candidateNanos = timeNanos;
+        }
+        if (timeNanos - candidateNanos >= debounceNanos) {
+            state = next;
+            candidate = null;
+        }
+        return state;
+    }
+
+    private ChargeState classify(int chargingDeciAmps, int drivingDeciAmps, int capacity) {
+        if (chargingDeciAmps > currentThreshold) return ChargeState.CHARGING;
+        if (state.isAtCharger() && capacity >= fullCapacity && Math.abs(drivingDeciAmps) <= currentThreshold)
+            return ChargeState.CHARGE_COMPLETE;
+        if (drivingDeciAmps > currentThreshold) return ChargeState.DRIVING;
+        if (drivingDeciAmps < -currentThreshold) return ChargeState.REGEN;
+        return ChargeState.IDLE;
+    }
+
+    public ChargeState state() {
+        return state;
+    }
+}
@@ -0,0 +1,111 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import android.os.SystemClock;
+
+import de.frauas.informatik.batterydashboard.background.SpeedSource;
+
+/**
+ * Integrates the speed of a SpeedSource to the distance: the trip (since the app started or resetTrip())
+ * and the lifetime odometer, both in millimetres as long (fixed point metres with three decimals, no float rounding over the years).
+ * </br></br>
+ * Every sample adds the distance since the previous one (trapezoid), gaps longer than maxGapNanos are not counted.
+ * The battery asks for the speed at the time of its frames (speedAt()), interpolated between the two newest samples,
+ * so consumption and range use the speed that belongs to the frame.
+ * </br></br>
+ * The samples are added by the thread of the speed source (O(1) each, so 50 Hz are no problem), not by the UI thread.
+ * The methods are synchronized, the odometers can be read without lock.
+ *
+ * @see SpeedSource
+ * @see BatteryFleet#distance()
+ */
+
+public class DistanceMeter implements SpeedSource.OnSpeedListener {
+    private static final double NANOS_KMH_PER_MM = 3.6e6; // 1 km/h = 1 mm per 3.6 ms
+
+    private final long maxGapNanos;
+
+    private long lastNanos; // time of the newest sample, 0 = none yet
+    private float lastKmh;
+    private long previousNanos;
+    private float previousKmh;
+    private double restMm;  // less than a millimetre, not counted yet
+
+    private volatile long tripMm;
+    private volatile long lifetimeMm;
+
+    /**
+     * @param maxGapNanos longest time between two samples that is counted (and the speed is known after the newest sample)
+     */
+    public DistanceMeter(long maxGapNanos) {
+        this.maxGapNanos = maxGapNanos;
+    }
+
+    @Override
+    public synchronized void onSpeed(long timeNanos, float kmh) {
+        if (lastNanos != 0 && timeNanos <= lastNanos) return; // late sample
+        if (lastNanos != 0 && timeNanos - lastNanos <= maxGapNanos) {
+            // in double: a float product of speed and nanoseconds would lose millimetres on every sample
+            restMm += (Math.abs((double) lastKmh) + Math.abs(kmh)) / 2 * (timeNanos - lastNanos) / NANOS_KMH_PER_MM;
+            long mm = (long) restMm;
+            restMm -= mm;
+            tripMm += mm;
+            lifetimeMm += mm;
+        }
+        previousNanos = lastNanos;
+        previousKmh = lastKmh;
+        lastNanos = timeNanos;
+        lastKmh = kmh;
+    }
+
+    /**
+     * @param timeNanos time of a frame (SystemClock.elapsedRealtimeNanos())
+     * @return speed in km/h at that time, NaN if there is no sample that recent
+     */
+    public synchronized float speedAt(long timeNanos) {
+        if (lastNanos == 0 || timeNanos - lastNanos > maxGapNanos) return Float.NaN;
+        if (timeNanos >= lastNanos || previousNanos == 0) return lastKmh;
+        if (timeNanos <= previousNanos) return previousKmh;
+        float f = (float) (timeNanos - previousNanos) / (lastNanos - previousNanos);
+        return previousKmh + f * (lastKmh - previousKmh);
+    }
+
+    /**
+     * @return current speed in km/h, NaN if there is no recent sample
+     */
+    public float speed() {
+        return speedAt(SystemClock.elapsedRealtimeNanos());
+    }
+
+    public long tripMillimetres() {
+        return tripMm;
+    }
+
+    public long lifetimeMillimetres() {
+        return lifetimeMm;
+    }
+
+    /**
+     * @return trip distance in km (one decimal)
+     */
+    public float tripKm() {
+        return tripMm / 100_000 / 10f;
+    }
+
+    /**
+     * @return lifetime distance in km (one decimal)
+     */
+    public float lifetimeKm() {
+        return lifetimeMm / 100_000 / 10f;
+    }
+
+    public synchronized void resetTrip() {
+        tripMm = 0;
+    }
+
+    /**
+     * sets the lifetime odometer (when it is loaded at the start)
+     */
+    public synchronized void setLifetimeMillimetres(long mm) {
+        lifetimeMm = mm;
+    }
+}
@@ -0,0 +1,134 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+/**
+ * Integrates the power of the battery over time: the energy used for driving and the energy recuperated (regen),
+ * since the trip started (app start / resetTrip()) and since the last charge.
+ * </br></br>
+ * Every frame adds the area under the power curve since the previous frame (trapezoid, in double precision).
+ * If the power changes its sign in between, the interval is split at zero, so driving and regen are not mixed up.
+ * Intervals longer than maxGapNanos (no frames for a while) are not integrated, the values of the frames before and after
+ * the gap say nothing about the power during it. Frames that are not newer than the last one are ignored.
+ * </br></br>
+ * Only used by the thread that sets the battery's values, the UI gets the results through the battery's snapshots.
+ *
+ * @see Battery#consumption()
+ */
+
+public class EnergyMeter {
+    private static final double NANOS_PER_HOUR = 3600e9;
+
+    private final long maxGapNanos;
+
+    private long lastNanos;      // time of the last frame, 0 = none yet
+    private double lastKw;       // power of the last frame
+
+    private double tripDriveKWh;
+    private double tripRegenKWh; // positive
+    private long tripNanos;      // integrated time of the trip (without gaps)
+    private double chargeDriveKWh;
+    private double chargeRegenKWh;
+    private long chargeNanos;
+
+    /**
+     * @param maxGapNanos longest time between two frames that is integrated
+     */
+    public EnergyMeter(long maxGapNanos) {
+        this.maxGapNanos = maxGapNanos;
+    }
+
+    /**
+     * adds the power of a frame
+     * @param timeNanos time of the frame (SystemClock.elapsedRealtimeNanos())
+     * @param kW power, positive when driving, negative when recuperating
+     */
+    public void add(long timeNanos, double kW) {
+        if (lastNanos != 0 && timeNanos <= lastNanos) return; // late frame
+        long dt = timeNanos - lastNanos;
+        if (lastNanos != 0 && dt <= maxGapNanos) {
+            double drive, regen; // kW * ns
+            if ((lastKw >= 0) == (kW >= 0)) {
+                double area = (lastKw + kW) / 2 * dt;
+                drive = area > 0 ? area : 0;
+                regen = area < 0 ? -area : 0;
+            } else {
+                // sign change: the part before the zero crossing and the part after it
+                double before = dt * lastKw / (lastKw - kW);
+                double first = lastKw / 2 * before;
+                double second = kW / 2 * (dt - before);
+                drive = Math.max(first, second);
+                regen = -Math.min(first, second);
+            }
+            tripDriveKWh += drive / NANOS_PER_HOUR;
+            tripRegenKWh += regen / NANOS_PER_HOUR;
+            chargeDriveKWh += drive / NANOS_PER_HOUR;
+            chargeRegenKWh += regen / NANOS_PER_HOUR;
+            tripNanos += dt;
+            chargeNanos += dt;
+        }
+        lastNanos = timeNanos;
+        lastKw = kW;
+    }
+
+    /**
+     * @return power of the last frame in kW
+     */
+    public double instantKw() {
+        return lastKw;
+    }
+
+    public double tripDriveKWh() {
+        return tripDriveKWh;
+    }
+
+    public double tripRegenKWh() {
+        return tripRegenKWh;
+    }
+
+    /**
+     * @return energy used since the trip started minus the recuperated energy
+     */
+    public double tripKWh() {
+        return tripDriveKWh - tripRegenKWh;
+    }
+
+    /**
+     * @return average power since the trip started in kW (energy / time), 0 at the start
+     */
+    public double tripAverageKw() {
+        return tripNanos == 0 ? 0 : tripKWh() * NANOS_PER_HOUR / tripNanos;
+    }
+
+    public double sinceChargeDriveKWh() {
+        return chargeDriveKWh;
+    }
+
+    public double sinceChargeRegenKWh() {
+        return chargeRegenKWh;
+    }
+
+    /**
+     * @return energy used since the last charge minus the recuperated energy
+     */
+    public double sinceChargeKWh() {
+        return chargeDriveKWh - chargeRegenKWh;
+    }
+
+    /**
+     * @return average power since the last charge in kW, 0 right after it
+     */
+    public double sinceChargeAverageKw() {
+        return chargeNanos == 0 ? 0 : sinceChargeKWh() * NANOS_PER_HOUR / chargeNanos;
+    }
+
+    public void resetTrip() {
+        tripDriveKWh = 0;
+        tripRegenKWh = 0;
+        tripNanos = 0;
+    }
+
+    public void resetSinceCharge() {
+        chargeDriveKWh = 0;
+        chargeRegenKWh = 0;
+        chargeNanos = 0;
+    }
+}
@@ -4,10 +4,12 @@ import java.util.HashMap;
 import java.util.List;
 import android.content.Context;
 import android.view.LayoutInflater;
+import android.view.Menu;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseExpandableListAdapter;
 import android.widget.ImageButton;
+import android.widget.PopupMenu;
 import android.widget.TextView;
 
 import com.example.batterydashboard.R;
@@ -16,6 +18,8 @@ import com.example.batterydashboard.R;
  * This is a custom ExpandableListAdapter to make the list of Gauge(Blueprints) in the add window. </br>
  * Every child list element contains the string gotten by gaugeBlueprint.toString() and a button
  * that calls the gaugeManager to create a new gauge from the passed blueprint. </br>
+ * With more than one battery pack (pack_sources in battery_specs.xml) the button first shows a popup menu to choose
+ * the pack the gauge shows, or "Fleet" for the values of all packs (see BatteryFleet). </br>
  * The ExpListGaugeDataProvider provides the data needed. </br>
  * >> You will most likely not have to change this class, but rather the provider or the layout files. </br>
  * For layout see the xml files list_item and list_group in res/layout.
@@ -59,7 +63,24 @@ public class ExpListForGaugeBlueprintsAdapter extends BaseExpandableListAdapter
         ImageButton expandedListAddButton = (ImageButton) convertView.findViewById(R.id.expandedListAddButton);
         expandedListAddButton.setOnClickListener( v -> {
             GaugeBlueprint gaugeBlueprint = (GaugeBlueprint) getChild(listPosition, expandedListPosition);
-            gaugeManager.addGaugeToCurrent(context, gaugeBlueprint);
+            String[] packSources = context.getResources().getStringArray(R.array.pack_sources);
+            if (packSources.length <= 1) {
+                gaugeManager.addGaugeToCurrent(context, gaugeBlueprint);
+                return;
+            }
+            // several packs: choose the pack of the new gauge (menu item id = pack index, the last one is the fleet)
+            PopupMenu packMenu = new PopupMenu(context, v);
+            for (int i = 0; i < packSources.length; i++) {
+                packMenu.getMenu().add(Menu.NONE, i, i, "Pack " + (i + 1) + " (" + packSources[i] + ")");
+            }
+            packMenu.getMenu().add(Menu.NONE, packSources.length, packSources.length, "Fleet (alle Packs)");
+            packMenu.setOnMenuItemClickListener(item -> {
+                GaugeBlueprint blueprint = new GaugeBlueprint(gaugeBlueprint.gaugeMetric, gaugeBlueprint.gaugeType);
+                blueprint.setPack(item.getItemId() == packSources.length ? BatteryFleet.FLEET : item.getItemId());
+                gaugeManager.addGaugeToCurrent(context, blueprint);
+                return true;
+            });
+            packMenu.show();
         });
         return convertView;
     }
@@ -70,10 +70,9 @@ class ExpListGaugeDataProvider {
         List<GaugeBlueprint> celltemps = new ArrayList<>();
         celltemps.add(new GaugeBlueprint(GaugeMetric.CELL_TEMPS, GaugeType.TEXT_ONLY));
 
-        /* the values for the following gauges are not yet implemented
-            TODO do it! :)
+        /* adding a new gauge to the lists:
              step 1
-                - implement calculation of range, odometer and consumption in Battery (there are notes!)
+                - implement the calculation of the value in Battery (like range, odometer and consumption)
              step 1 b (nice-to-have graphical gauges!)
                 - for graphical gauges create a layout (xml), a class and a graphicView class implementing IGraphicView
                     (take a look at one of the existing graphical gauges!)
@@ -91,6 +90,9 @@ class ExpListGaugeDataProvider {
         odometer.add(new GaugeBlueprint(GaugeMetric.ODOMETER, GaugeType.TEXT_ONLY));
         odometer.add(new GaugeBlueprint(GaugeMetric.ODOMETER, GaugeType.BIG_NUMBER));
 
+        List<GaugeBlueprint> innenwiderstand = new ArrayList<>(); // min, max and average of the cells like the cell voltages
+        innenwiderstand.add(new GaugeBlueprint(GaugeMetric.INNENWIDERSTAND, GaugeType.TEXT_ONLY));
+
         expandableListDetail.put("Fahrten Statistiken", fahrtenStatisten);
         expandableListDetail.put("Spannung", voltage);
         expandableListDetail.put("Geschwindigkeit", geschwindigkeit);
@@ -102,6 +104,9 @@ class ExpListGaugeDataProvider {
         expandableListDetail.put("Zellspannungen", cellvoltages);
         expandableListDetail.put("Tages kilometer zaehler", tagesKilometerzaehler);
         expandableListDetail.put(celltemps.get(0).gaugeMetric.label, celltemps);
+        expandableListDetail.put(range.get(0).gaugeMetric.label, range);
+        expandableListDetail.put(odometer.get(0).gaugeMetric.label, odometer);
+        expandableListDetail.put(innenwiderstand.get(0).gaugeMetric.label, innenwiderstand);
 
         return expandableListDetail;
     }
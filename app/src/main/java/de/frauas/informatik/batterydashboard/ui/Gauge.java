@@ -2,6 +2,7 @@ package de.frauas.informatik.batterydashboard.ui;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.content.res.ColorStateList;
 import android.graphics.Color;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -15,6 +16,7 @@ import com.example.batterydashboard.R;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import de.frauas.informatik.batterydashboard.enums.GaugeMetric;
 import de.frauas.informatik.batterydashboard.enums.GaugeType;
@@ -49,6 +51,7 @@ public class Gauge extends ConstraintLayout {
     private static final String TAG = "Gauge class";
     GaugeMetric gaugeMetric;
     GaugeType gaugeType;
+    int pack; // battery pack whose values are shown, see BatteryFleet
     private boolean isGraphical = false;
     private float dX, dY, posX, posY;
     private int lastAction;
@@ -61,6 +64,12 @@ public class Gauge extends ConstraintLayout {
     private StatistiksGaugeManager state;
     private GaugeManager gg;
     private boolean statistik = false;
+    // last rendered state, so unchanged values are not drawn again
+    long renderedSequence = -1; // frame sequence of the values shown (see UiService.updateGauge())
+    private boolean stale;
+    private boolean warning;
+    private float lastValue = Float.NaN;
+    private float[] lastValues = new float[0];
 
     public boolean isStatistik() {
         return statistik;
@@ -106,6 +115,7 @@ public class Gauge extends ConstraintLayout {
         super(context);
         gaugeMetric = blueprint.gaugeMetric;
         gaugeType = blueprint.gaugeType;
+        pack = blueprint.pack;
 
         inflateAndInit(context);
 
@@ -133,7 +143,7 @@ public class Gauge extends ConstraintLayout {
         // inflate layout depending on metric and type
         LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         assert inflater != null;
-        if (gaugeMetric == GaugeMetric.CELL_VOLTAGES || gaugeMetric == GaugeMetric.CELL_TEMPS) {
+        if (gaugeMetric == GaugeMetric.CELL_VOLTAGES || gaugeMetric == GaugeMetric.CELL_TEMPS || gaugeMetric == GaugeMetric.INNENWIDERSTAND) {
             content = (ViewGroup) inflater.inflate(R.layout.cellvoltages_gauge, this);
         } else if (gaugeType == GaugeType.BIG_NUMBER) {
             content = (ViewGroup) inflater.inflate(R.layout.big_number_gauge, this);
@@ -172,7 +182,12 @@ public class Gauge extends ConstraintLayout {
 
         // set variables and static values
         TextView label = content.findViewWithTag("label");
-        label.setText(gaugeMetric.label());
+        if (pack == BatteryFleet.FLEET)
+            label.setText(gaugeMetric.label() + " (alle Packs)");
+        else if (pack > 0)
+            label.setText(gaugeMetric.label() + " (Pack " + (pack + 1) + ")");
+        else
+            label.setText(gaugeMetric.label());
         TextView unit = content.findViewWithTag("unit");
         // set unit for all views tagged with "unit"
         ArrayList<View> unitViews = getViewsByTag(content, "unit");
@@ -331,21 +346,50 @@ public class Gauge extends ConstraintLayout {
         content.removeView(findViewWithTag("gaugeDeleteIcon"));
     }
 
+    /**
+     * marks the gauge (red background) if one of its values is beyond a warning limit (see WarningEngine), only touches the view when this changes
+     */
+    void setWarning(boolean warning){
+        if(warning == this.warning) return;
+        this.warning = warning;
+        View bg = content.findViewWithTag("background");
+        bg.setBackgroundTintList(warning ? ColorStateList.valueOf(getContext().getColor(R.color.redAccent)) : null);
+    }
+
+    /**
+     * marks the gauge if its values are too old (see Battery.isStale()), only touches the view when this changes
+     */
+    void setStale(boolean stale){
+        if(stale == this.stale) return;
+        this.stale = stale;
+        content.setAlpha(stale ? .4f : 1f);
+    }
+
     void update(float value){
+        if(value == lastValue) return; // not changed, nothing to draw
+        lastValue = value;
         numberView.setText(String.valueOf(value));
         if(isGraphical){
             graphicView.setCurrentValue(value);
         }
     }
     void update(int value){
+        if(value == lastValue) return;
+        lastValue = value;
         numberView.setText(String.valueOf(value));
         if(isGraphical){
             graphicView.setCurrentValue((float)value);
         }
     }
     void update(float[] values){
+        if(lastValues.length != values.length){
+            lastValues = new float[values.length];
+            Arrays.fill(lastValues, Float.NaN);
+        }
         // iterate over numberView array and set values, e.g. for cell voltages gauge
         for(int i = 0; i < values.length; i++){
+            if(values[i] == lastValues[i]) continue;
+            lastValues[i] = values[i];
             numberView = findViewWithTag("value"+(i+1));
             numberView.setText(String.valueOf(values[i]));
         }
@@ -360,7 +404,9 @@ public class Gauge extends ConstraintLayout {
     }
 
     GaugeBlueprint getBlueprint(){
-        return new GaugeBlueprint(this.gaugeMetric, this.gaugeType, this.posX, this.posY);
+        GaugeBlueprint blueprint = new GaugeBlueprint(this.gaugeMetric, this.gaugeType, this.posX, this.posY);
+        blueprint.setPack(pack);
+        return blueprint;
     }
 
     private static ArrayList<View> getViewsByTag(ViewGroup viewGroup, String tag){
@@ -12,6 +12,7 @@ import de.frauas.informatik.batterydashboard.enums.GaugeType;
  * a lot of functionality set up in its constructor (like draggability) that we don't need for saving Dashboard Configurations.
  * As we only need the metric, type and position of a gauge to recreate it, we use this blueprint class. </br>
  * A blueprint without a position specified will be initiated as a gauge at x100/y100.
+ * The pack index selects the battery pack whose values the gauge shows (0 = first pack, BatteryFleet.FLEET = all packs).
  *
  * @see GaugeManager GaugeManager and its instantiateConfigBlueprints() and addGaugeToCurrent() methods
  *
@@ -24,6 +25,7 @@ class GaugeBlueprint {
     float posX=0;
 
     float posY=0;
+    int pack=0; // battery pack, see BatteryFleet
 
 
 
@@ -59,9 +61,14 @@ class GaugeBlueprint {
         this.posY = posY;
     }
 
+    public void setPack(int pack) {
+        this.pack = pack;
+    }
+
 
     @Override
     public String toString(){
-        return gaugeMetric.label + " " +  gaugeType.description + " " +  posX + " " +  posY;
+        // the pack is only added for other packs than the first one, so profiles of a single pack stay as they were
+        return gaugeMetric.label + " " +  gaugeType.description + " " +  posX + " " +  posY + (pack != 0 ? " " + pack : "");
     }
 }
@@ -20,6 +20,7 @@ import de.frauas.informatik.batterydashboard.enums.GaugeType;
  * Responsibilities:
  * - manages dashboard configurations (= set of gaugeBlueprints for the gauges to be displayed, each with their positions, metric and type)</br>
  * - manages active Gauges (visible in UI)</br>
+ * - manages the gauges of the charger dashboard, shown instead of the active gauges while the battery is at the charger</br>
  * - instantiate a config (making gauges from blueprints) to be then displayed by the uiService</br>
  * - save a changed config</br>
  * - add a gauge (chosen from configuration window) to the current config</br>
@@ -42,6 +43,8 @@ public class GaugeManager {
     private Hashtable<String, DashboardConfiguration> dashboardConfigs;
     private DashboardConfiguration currentConfig;
     private ArrayList<Gauge> activeGauges;
+    private ArrayList<Gauge> chargerGauges = new ArrayList<>(); // charger dashboard, inflated once and then only shown/hidden
+    private boolean chargerMode;
         static final String BROADCAST_ACTION = "requestConfigUpdate";
     private static Intent intent = new Intent(BROADCAST_ACTION);
     private boolean IsDeleteMode;
@@ -132,7 +135,8 @@ public class GaugeManager {
     /**
      * load custom user profiles, this takes the customUserProfile ArrrayList of Strings,
      * splits the strings on empty spaces and therefore gets the parameters which we need
-     * the Gauge Type, the Gauge Visual Repesentation Type, the X Pos, the Y pos. After that
+     * the Gauge Type, the Gauge Visual Repesentation Type, the X Pos, the Y pos and optionally the battery pack
+     * (index, BatteryFleet.FLEET for all packs, first pack if missing). After that
      * it creates a corresponding Gauge Blueprint Object and puts it into activeGauges
      *
      * If adding new gauge types please add the corresponding code in the switch statement
@@ -160,6 +164,8 @@ public class GaugeManager {
             GaugeVisual = GaugeObjekt[1];
             XPos = Integer.parseInt(GaugeObjekt[2]);
             YPos = Integer.parseInt(GaugeObjekt[3]);
+            int pack = GaugeObjekt.length > 4 ? Integer.parseInt(GaugeObjekt[4]) : 0;
+            int added = gauges.size();
 
             //now add gauge based on params
             //if you can simplify this code, then youre free to go >D
@@ -328,6 +334,14 @@ public class GaugeManager {
 
                         gauges.add(new GaugeBlueprint(GaugeMetric.POWER, GaugeType.TEXT_ONLY, XPos, YPos));
                         break;
+
+                case "Innenwiderstand":
+                        // min, max and average of the cells like the cell voltages
+                        gauges.add(new GaugeBlueprint(GaugeMetric.INNENWIDERSTAND, GaugeType.TEXT_ONLY, XPos, YPos));
+                        break;
+            }
+            for (int i = added; i < gauges.size(); i++) {
+                gauges.get(i).setPack(pack);
             }
 
 
@@ -405,6 +419,47 @@ public class GaugeManager {
         return activeGauges;
     }
 
+    /**
+     * makes the gauges of the charger dashboard (only the first time, the UiService keeps them in the dashboard frame
+     * and just hides them while driving, so switching to the charger dashboard doesn't inflate anything).
+     * @return the charger gauges
+     */
+    ArrayList<Gauge> instantiateChargerBlueprints(Context context){
+        if (chargerGauges.isEmpty()) {
+            chargerGauges.add(new Gauge(context, new GaugeBlueprint(GaugeMetric.CAPACITY, GaugeType.GRAPHICAL, 20, 20)));
+            chargerGauges.add(new Gauge(context, new GaugeBlueprint(GaugeMetric.CHARGER_TEMP, GaugeType.BIG_NUMBER, 180, 40)));
+            chargerGauges.add(new Gauge(context, new GaugeBlueprint(GaugeMetric.POWER, GaugeType.BIG_NUMBER, 180, 160)));
+            chargerGauges.add(new Gauge(context, new GaugeBlueprint(GaugeMetric.CELL_VOLTAGES, GaugeType.TEXT_ONLY, 20, 300)));
+            chargerGauges.add(new Gauge(context, new GaugeBlueprint(GaugeMetric.CELL_TEMPS, GaugeType.TEXT_ONLY, 180, 300)));
+        }
+        return chargerGauges;
+    }
+
+    ArrayList<Gauge> getChargerGauges(){
+        return chargerGauges;
+    }
+
+    /**
+     * @return the gauges that are currently shown: the charger gauges in charger mode, the active gauges otherwise
+     */
+    ArrayList<Gauge> getShownGauges(){
+        return chargerMode ? chargerGauges : activeGauges;
+    }
+
+    boolean isChargerMode(){
+        return chargerMode;
+    }
+
+    /**
+     * @param on true while a charger is connected (see ChargeState.isAtCharger())
+     * @return true if the mode changed (the UiService has to switch the shown gauges then)
+     */
+    boolean setChargerMode(boolean on){
+        if (on == chargerMode) return false;
+        chargerMode = on;
+        return true;
+    }
+
 
     private void savePositions(){
         ArrayList<GaugeBlueprint> blueprints = new ArrayList<>();
@@ -0,0 +1,82 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+/**
+ * Base of the history stores of the battery: a circular buffer of timestamps (SystemClock.elapsedRealtimeNanos()),
+ * the subclasses keep the values in primitive arrays in the same slots. A full ring overwrites its oldest sample.
+ * </br></br>
+ * Samples are appended in time order, so a range of time can be found by binary search.
+ * Appending is O(1) and allocates nothing, queries copy into arrays of the caller.
+ * The history is written by the DataService's worker thread and read by the UI,
+ * the methods are synchronized (they are short, and samples are only appended a few times per second).
+ *
+ * @see MetricHistory
+ * @see CellHistory
+ */
+
+abstract class HistoryRing {
+    final long[] nanos;
+    private int next; // slot of the next sample
+    private int size;
+
+    HistoryRing(int capacity) {
+        nanos = new long[Math.max(1, capacity)];
+    }
+
+    /**
+     * stores the time of a new sample (caller holds the lock)
+     * @return slot for the values of the sample
+     */
+    final int claim(long timeNanos) {
+        int slot = next;
+        nanos[slot] = timeNanos;
+        next = (next + 1) % nanos.length;
+        if (size < nanos.length) size++;
+        return slot;
+    }
+
+    /**
+     * @return slot of the i-th sample, 0 = oldest (caller holds the lock)
+     */
+    final int slot(int i) {
+        return (next - size + i + 2 * nanos.length) % nanos.length;
+    }
+
+    /**
+     * @return index (0 = oldest) of the first sample that is not older than timeNanos, size if there is none (caller holds the lock)
+     */
+    final int firstAtOrAfter(long timeNanos) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (nanos[slot(mid)] < timeNanos) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return index after the last sample up to toNanos (caller holds the lock)
+     */
+    final int rangeEnd(long toNanos) {
+        return toNanos == Long.MAX_VALUE ? size : firstAtOrAfter(toNanos + 1);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return nanos.length;
+    }
+
+    /**
+     * @return time of the newest sample, 0 if there is none
+     */
+    public synchronized long latestNanos() {
+        return size == 0 ? 0 : nanos[slot(size - 1)];
+    }
+
+    public synchronized void clear() {
+        size = 0;
+        next = 0;
+    }
+}
@@ -0,0 +1,103 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import java.util.Arrays;
+
+/**
+ * Online estimate of the internal resistance of every cell, so ageing cells show up while driving (instead of in spreadsheets afterwards).
+ * </br></br>
+ * When the current changes from one frame to the next, the voltage of every cell changes by about
+ * ΔV = -R * ΔI (the slow parts like the state of charge hardly change in a frame). R of every cell is fitted to these
+ * pairs with recursive least squares (one parameter per cell, so P is just a number per cell) and a forgetting factor,
+ * so older pairs count less and the estimate follows the temperature and ageing of the cell.
+ * </br></br>
+ * Only steps of the current of at least minStepDeciAmps are used: small steps are mostly noise of the measurement,
+ * and without new information the forgetting factor would let P grow without end (windup), P is also limited to P0.
+ * The values of a frame are compared with the last frame that was used (the starting point), which must not be older than
+ * maxGapNanos, otherwise the frame only sets the new starting point. So slow drifts of the current add up to a step,
+ * but the voltage doesn't drift too far with the state of charge in between.
+ * </br></br>
+ * mV / A = mΩ, so the estimates are in mΩ. add() is O(cells) per frame in primitive arrays and allocates nothing.
+ * Only used by the thread that sets the battery's values, the UI gets the estimates through the battery's snapshots.
+ *
+ * @see Battery#getCellResistances(float[])
+ */
+
+public class InternalResistance {
+    private static final double P0 = 100; // start (and largest) covariance, (mΩ)²: the first steps count much, the start value hardly
+
+    private final int cells;
+    private final double lambda;
+    private final int minStepDeciAmps;
+    private final long maxGapNanos;
+
+    private final double[] resistance; // mΩ
+    private final double[] p;          // covariance of the estimate
+    private final int[] updates;       // steps used per cell
+    private final short[] lastMillivolts;
+    private int lastDeciAmps;
+    private long baseNanos;            // time of the starting point, 0 = none
+    private long lastNanos;            // 0 = no frame yet
+
+    /**
+     * @param cells number of cells
+     * @param lambda forgetting factor (0..1, 1 = never forget; 0.99 forgets with a time constant of about 100 steps)
+     * @param minStepDeciAmps smallest change of the current that is used (in 1/10 A)
+     * @param maxGapNanos frames with a longer time in between are not compared
+     */
+    public InternalResistance(int cells, double lambda, int minStepDeciAmps, long maxGapNanos) {
+        this.cells = cells;
+        this.lambda = lambda;
+        this.minStepDeciAmps = Math.max(1, minStepDeciAmps);
+        this.maxGapNanos = maxGapNanos;
+        resistance = new double[cells];
+        p = new double[cells];
+        Arrays.fill(p, P0);
+        updates = new int[cells];
+        lastMillivolts = new short[cells];
+    }
+
+    /**
+     * adds the values of a frame
+     * @param timeNanos time of the frame (SystemClock.elapsedRealtimeNanos())
+     * @param millivolts one value per cell
+     * @param drivingDeciAmps driving amperage in 1/10 A (positive = discharging)
+     */
+    public void add(long timeNanos, short[] millivolts, int drivingDeciAmps) {
+        if (cells == 0 || (lastNanos != 0 && timeNanos <= lastNanos)) return;
+        lastNanos = timeNanos;
+        boolean compare = baseNanos != 0 && timeNanos - baseNanos <= maxGapNanos;
+        int step = drivingDeciAmps - lastDeciAmps;
+        if (compare) {
+            if (Math.abs(step) < minStepDeciAmps) return; // wait for a step
+            double x = -step / 10.0; // ΔV = x * R
+            double xx = x * x;
+            for (int i = 0; i < cells; i++) {
+                double error = (millivolts[i] - lastMillivolts[i]) - x * resistance[i];
+                double gain = p[i] * x / (lambda + xx * p[i]);
+                resistance[i] += gain * error;
+                p[i] = Math.min(P0, (p[i] - gain * x * p[i]) / lambda);
+                updates[i]++;
+            }
+        }
+        // new starting point
+        System.arraycopy(millivolts, 0, lastMillivolts, 0, cells);
+        lastDeciAmps = drivingDeciAmps;
+        baseNanos = timeNanos;
+    }
+
+    /**
+     * @param result internal resistance of every cell in mΩ, NaN for cells without an estimate yet
+     */
+    public void resistances(float[] result) {
+        for (int i = 0; i < cells; i++) {
+            result[i] = updates[i] == 0 ? Float.NaN : (float) resistance[i];
+        }
+    }
+
+    /**
+     * @return number of current steps that were used so far
+     */
+    public int updates() {
+        return cells == 0 ? 0 : updates[0];
+    }
+}
@@ -0,0 +1,55 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+/**
+ * History of one value of the battery (e.g. the voltage sum or the power), one float per sample.
+ *
+ * @see Battery#history(de.frauas.informatik.batterydashboard.enums.GaugeMetric)
+ * @see HistoryRing
+ */
+
+public class MetricHistory extends HistoryRing {
+    private final float[] values;
+
+    public MetricHistory(int capacity) {
+        super(capacity);
+        values = new float[nanos.length];
+    }
+
+    public synchronized void append(long timeNanos, float value) {
+        values[claim(timeNanos)] = value;
+    }
+
+    /**
+     * copies the samples from fromNanos to toNanos (both included), oldest first.
+     * If there are more than fit into the arrays, the newest ones are copied.
+     * @param nanosOut times of the samples, null if not needed
+     * @param valuesOut values of the samples
+     * @return number of samples copied
+     */
+    public synchronized int copy(long fromNanos, long toNanos, long[] nanosOut, float[] valuesOut) {
+        int max = nanosOut == null ? valuesOut.length : Math.min(nanosOut.length, valuesOut.length);
+        int end = rangeEnd(toNanos);
+        int start = Math.max(firstAtOrAfter(fromNanos), end - max);
+        for (int i = start; i < end; i++) {
+            int slot = slot(i);
+            if (nanosOut != null) nanosOut[i - start] = nanos[slot];
+            valuesOut[i - start] = values[slot];
+        }
+        return Math.max(0, end - start);
+    }
+
+    /**
+     * copies the newest samples, oldest first
+     * @return number of samples copied
+     */
+    public int copyLatest(long[] nanosOut, float[] valuesOut) {
+        return copy(Long.MIN_VALUE, Long.MAX_VALUE, nanosOut, valuesOut);
+    }
+
+    /**
+     * @return the newest value, NaN if there is none
+     */
+    public synchronized float latest() {
+        return size() == 0 ? Float.NaN : values[slot(size() - 1)];
+    }
+}
@@ -0,0 +1,125 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+/**
+ * Estimates the range from the energy left in the battery and the consumption per km.
+ * </br></br>
+ * Like the comment in the UiService asked for: based on the average consumption, but adapted to the last minutes.
+ * The consumption is averaged over three windows (since the trip started, the last 5 minutes and the last 30 seconds,
+ * the last two as exponentially weighted averages with that time constant) and the three are mixed with WEIGHTS.
+ * The power and the speed are averaged separately (consumption per km = average kW / average km/h), so standing
+ * doesn't make the consumption infinite. As long as there is no speed (or the car stands in a window), the window
+ * uses the reference consumption from battery_specs.xml.
+ * The range itself is smoothed once more (RANGE_TAU_SECONDS), so the gauge doesn't jump.
+ * </br></br>
+ * Every update is O(1), nothing is scanned or allocated, so it runs for every frame.
+ * Only used by the thread that sets the battery's values, the UI gets the range through the battery's snapshots.
+ *
+ * @see Battery#range()
+ */
+
+public class RangeEstimator {
+    private static final int TRIP = 0;
+    private static final double[] TAU_SECONDS = {0, 300, 30}; // 0 = since the trip started
+    private static final double[] WEIGHTS = {0.5, 0.3, 0.2};
+    private static final double RANGE_TAU_SECONDS = 10;
+    private static final double MIN_KMH = 3;                 // slower counts as standing
+    private static final double MIN_CONSUMPTION_SHARE = 0.2; // the consumption of a window is at least this share of the reference (recuperation)
+
+    private final double referenceKWhPerKm;
+    private final long maxGapNanos;
+
+    private final double[] kW = new double[TAU_SECONDS.length];
+    private final double[] kmh = new double[TAU_SECONDS.length];
+    private long powerNanos;    // time of the last power, 0 = none yet
+    private long tripPowerNanos;
+    private long speedNanos;    // time of the last speed, 0 = none yet
+    private long tripSpeedNanos;
+    private double rangeKm = Double.NaN;
+    private long rangeNanos;
+
+    /**
+     * @param referenceWhPerKm consumption that is used without speed (in Wh/km)
+     * @param maxGapNanos longer times between two values are counted as this long
+     */
+    public RangeEstimator(double referenceWhPerKm, long maxGapNanos) {
+        this.referenceKWhPerKm = referenceWhPerKm / 1000;
+        this.maxGapNanos = maxGapNanos;
+    }
+
+    /**
+     * adds the power of a frame and updates the range
+     * @param timeNanos time of the frame (SystemClock.elapsedRealtimeNanos())
+     * @param power in kW
+     * @param energyLeft energy left in the battery in kWh
+     */
+    public void add(long timeNanos, double power, double energyLeft) {
+        if (powerNanos != 0 && timeNanos <= powerNanos) return; // late frame
+        tripPowerNanos = average(kW, power, timeNanos, powerNanos, tripPowerNanos);
+        powerNanos = timeNanos;
+
+        double consumption = 0;
+        for (int w = 0; w < TAU_SECONDS.length; w++) {
+            double perKm = speedNanos != 0 && kmh[w] >= MIN_KMH ? kW[w] / kmh[w] : referenceKWhPerKm;
+            consumption += WEIGHTS[w] * Math.max(perKm, MIN_CONSUMPTION_SHARE * referenceKWhPerKm);
+        }
+        double range = Math.max(0, energyLeft) / consumption;
+        if (Double.isNaN(rangeKm)) {
+            rangeKm = range;
+        } else {
+            rangeKm += alpha(RANGE_TAU_SECONDS, Math.min(timeNanos - rangeNanos, maxGapNanos)) * (range - rangeKm);
+        }
+        rangeNanos = timeNanos;
+    }
+
+    /**
+     * adds a speed sample
+     * @param timeNanos time of the sample (SystemClock.elapsedRealtimeNanos())
+     * @param speed in km/h
+     */
+    public void addSpeed(long timeNanos, double speed) {
+        if (speedNanos != 0 && timeNanos <= speedNanos) return;
+        tripSpeedNanos = average(kmh, speed, timeNanos, speedNanos, tripSpeedNanos);
+        speedNanos = timeNanos;
+    }
+
+    /**
+     * updates the averages of all windows with a value
+     * @return time of the trip window after the update
+     */
+    private long average(double[] averages, double value, long timeNanos, long lastNanos, long tripNanos) {
+        if (lastNanos == 0) {
+            for (int w = 0; w < averages.length; w++) {
+                averages[w] = value;
+            }
+            return tripNanos;
+        }
+        long dt = Math.min(timeNanos - lastNanos, maxGapNanos);
+        tripNanos += dt;
+        for (int w = 0; w < averages.length; w++) {
+            double a = w == TRIP ? (double) dt / tripNanos : alpha(TAU_SECONDS[w], dt);
+            averages[w] += a * (value - averages[w]);
+        }
+        return tripNanos;
+    }
+
+    private static double alpha(double tauSeconds, long dtNanos) {
+        return 1 - Math.exp(-dtNanos / (tauSeconds * 1e9));
+    }
+
+    /**
+     * @return smoothed range in km, NaN before the first frame
+     */
+    public double rangeKm() {
+        return rangeKm;
+    }
+
+    /**
+     * starts the trip window again (the other windows forget by themselves)
+     */
+    public void resetTrip() {
+        tripPowerNanos = 0;
+        tripSpeedNanos = 0;
+        kW[TRIP] = kW[kW.length - 1];
+        kmh[TRIP] = kmh[kmh.length - 1];
+    }
+}
@@ -0,0 +1,87 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+/**
+ * Values of a number of series (the GaugeMetrics or the cells of a battery) at several resolutions,
+ * e.g. per second for the last 10 minutes, per 10 seconds for the last hour and per minute for the last hours
+ * (rollup_seconds and rollup_buckets in battery_specs.xml).
+ * Every value is added to all tiers, that's O(1) per tier and series and allocates nothing.
+ * </br></br>
+ * Statistics over a longer time (e.g. the statistik dashboard) should not go through all raw samples of the history:
+ * tierFor() gives the coarsest tier that still has enough buckets in the time window, the aggregate is then computed from those.
+ *
+ * @see RollupTier
+ * @see Battery#rollup()
+ */
+
+public class Rollup {
+    private static final int MIN_BUCKETS_PER_WINDOW = 10; // a window of 10 minutes is read from the tier of 1 minute
+
+    private final RollupTier[] tiers; // finest first
+
+    /**
+     * @param bucketSeconds duration of a bucket of every tier, finest first
+     * @param bucketCounts number of buckets of every tier
+     * @param width number of series
+     */
+    public Rollup(int[] bucketSeconds, int[] bucketCounts, int width) {
+        if (bucketSeconds.length == 0 || bucketCounts.length != bucketSeconds.length)
+            throw new IllegalArgumentException("rollup: every tier needs a duration and a number of buckets");
+        tiers = new RollupTier[bucketSeconds.length];
+        for (int i = 0; i < tiers.length; i++) {
+            if (i > 0 && bucketSeconds[i] <= bucketSeconds[i - 1])
+                throw new IllegalArgumentException("rollup: tiers must be ordered from fine to coarse");
+            tiers[i] = new RollupTier(bucketSeconds[i] * 1_000_000_000L, bucketCounts[i], width);
+        }
+    }
+
+    public void add(long timeNanos, float[] row) {
+        for (RollupTier tier : tiers) {
+            tier.add(timeNanos, row);
+        }
+    }
+
+    public void add(long timeNanos, short[] row, float scale) {
+        for (RollupTier tier : tiers) {
+            tier.add(timeNanos, row, scale);
+        }
+    }
+
+    public int tierCount() {
+        return tiers.length;
+    }
+
+    /**
+     * @param i 0 = finest
+     */
+    public RollupTier tier(int i) {
+        return tiers[i];
+    }
+
+    /**
+     * @return the coarsest tier with at least MIN_BUCKETS_PER_WINDOW buckets in windowNanos (the finest if there is none),
+     *         or a coarser one if that tier doesn't reach back windowNanos
+     */
+    public RollupTier tierFor(long windowNanos) {
+        int i = tiers.length - 1;
+        while (i > 0 && tiers[i].bucketNanos() * MIN_BUCKETS_PER_WINDOW > windowNanos) i--;
+        while (i < tiers.length - 1 && tiers[i].horizonNanos() < windowNanos) i++;
+        return tiers[i];
+    }
+
+    /**
+     * one statistic of one series over the last windowNanos, from the tier that fits the window
+     * @param stat RollupTier.MIN, MAX, MEAN or LAST
+     * @param nowNanos end of the window (SystemClock.elapsedRealtimeNanos())
+     * @return the value, NaN if there is none
+     */
+    public float aggregate(int series, int stat, long windowNanos, long nowNanos) {
+        RollupTier tier = tierFor(windowNanos);
+        return tier.aggregate(series, stat, nowNanos - windowNanos, nowNanos);
+    }
+
+    public void clear() {
+        for (RollupTier tier : tiers) {
+            tier.clear();
+        }
+    }
+}
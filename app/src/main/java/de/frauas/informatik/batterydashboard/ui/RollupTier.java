@@ -0,0 +1,178 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+/**
+ * One resolution of a Rollup: min, max, mean and last value of a number of series (metrics or cells)
+ * per bucket of bucketNanos, in a ring of buckets (the newest bucket is the one that is still filled).
+ * </br></br>
+ * A value is added to the newest bucket in O(1), a new bucket is started when the time of a value is after its end.
+ * Values older than the newest bucket (e.g. a late frame) are added to the newest one.
+ * NaN values are not added, a series without values in a bucket reads as NaN.
+ *
+ * @see Rollup
+ * @see HistoryRing
+ */
+
+public class RollupTier extends HistoryRing {
+    // statistics of a bucket (see copy() and aggregate())
+    public static final int MIN = 0;
+    public static final int MAX = 1;
+    public static final int MEAN = 2;
+    public static final int LAST = 3;
+
+    private final long bucketNanos;
+    private final int width;
+    // per bucket and series: bucket after bucket, width values each
+    private final float[] min;
+    private final float[] max;
+    private final float[] last;
+    private final double[] sum;
+    private final int[] count;
+
+    private long currentStart = Long.MIN_VALUE; // start time of the newest bucket
+    private int currentSlot;
+
+    /**
+     * @param bucketNanos duration of a bucket
+     * @param bucketCount number of buckets kept
+     * @param width number of series
+     */
+    public RollupTier(long bucketNanos, int bucketCount, int width) {
+        super(bucketCount);
+        this.bucketNanos = bucketNanos;
+        this.width = width;
+        int n = nanos.length * width;
+        min = new float[n];
+        max = new float[n];
+        last = new float[n];
+        sum = new double[n];
+        count = new int[n];
+    }
+
+    /**
+     * adds a value of every series
+     * @param row one value per series, NaN for none
+     */
+    public synchronized void add(long timeNanos, float[] row) {
+        int base = bucket(timeNanos);
+        for (int i = 0; i < width; i++) {
+            put(base + i, row[i]);
+        }
+    }
+
+    /**
+     * adds a value of every series from fixed point values (like the cell values of the battery)
+     * @param row one value per series
+     * @param scale factor to the unit of the rollup (e.g. 0.001f for mV to V)
+     */
+    public synchronized void add(long timeNanos, short[] row, float scale) {
+        int base = bucket(timeNanos);
+        for (int i = 0; i < width; i++) {
+            put(base + i, row[i] * scale);
+        }
+    }
+
+    /**
+     * @return index of the first value of the bucket of timeNanos, starts a new bucket if needed (caller holds the lock)
+     */
+    private int bucket(long timeNanos) {
+        long start = timeNanos - Math.floorMod(timeNanos, bucketNanos);
+        if (start > currentStart) {
+            currentSlot = claim(start);
+            currentStart = start;
+            int base = currentSlot * width;
+            for (int i = base; i < base + width; i++) {
+                count[i] = 0;
+            }
+        }
+        return currentSlot * width;
+    }
+
+    private void put(int i, float value) {
+        if (Float.isNaN(value)) return;
+        if (count[i] == 0) {
+            min[i] = value;
+            max[i] = value;
+            sum[i] = 0;
+        } else {
+            if (value < min[i]) min[i] = value;
+            if (value > max[i]) max[i] = value;
+        }
+        sum[i] += value;
+        last[i] = value;
+        count[i]++;
+    }
+
+    private float stat(int i, int stat) {
+        if (count[i] == 0) return Float.NaN;
+        switch (stat) {
+            case MIN: return min[i];
+            case MAX: return max[i];
+            case MEAN: return (float) (sum[i] / count[i]);
+            default: return last[i];
+        }
+    }
+
+    /**
+     * copies one statistic of one series for the buckets starting from fromNanos to toNanos (both included), oldest first.
+     * If there are more than fit into the arrays, the newest ones are copied.
+     * @param series index of the series
+     * @param stat MIN, MAX, MEAN or LAST
+     * @param nanosOut start times of the buckets, null if not needed
+     * @param valuesOut values of the buckets (NaN if the series had no value in a bucket)
+     * @return number of buckets copied
+     */
+    public synchronized int copy(int series, int stat, long fromNanos, long toNanos, long[] nanosOut, float[] valuesOut) {
+        int max = nanosOut == null ? valuesOut.length : Math.min(nanosOut.length, valuesOut.length);
+        int end = rangeEnd(toNanos);
+        int start = Math.max(firstAtOrAfter(fromNanos), end - max);
+        for (int i = start; i < end; i++) {
+            int slot = slot(i);
+            if (nanosOut != null) nanosOut[i - start] = nanos[slot];
+            valuesOut[i - start] = stat(slot * width + series, stat);
+        }
+        return Math.max(0, end - start);
+    }
+
+    /**
+     * one statistic of one series over all buckets starting from fromNanos to toNanos (both included):
+     * the min of the minimums, the max of the maximums, the mean of all values or the newest value
+     * @return the value, NaN if there is none in the range
+     */
+    public synchronized float aggregate(int series, int stat, long fromNanos, long toNanos) {
+        float result = Float.NaN;
+        double sum = 0;
+        long count = 0;
+        for (int i = firstAtOrAfter(fromNanos), end = rangeEnd(toNanos); i < end; i++) {
+            int j = slot(i) * width + series;
+            if (this.count[j] == 0) continue;
+            switch (stat) {
+                case MIN: if (!(result <= min[j])) result = min[j]; break;
+                case MAX: if (!(result >= max[j])) result = max[j]; break;
+                case MEAN: sum += this.sum[j]; count += this.count[j]; break;
+                default: result = last[j]; break;
+            }
+        }
+        return stat == MEAN ? (count == 0 ? Float.NaN : (float) (sum / count)) : result;
+    }
+
+    public long bucketNanos() {
+        return bucketNanos;
+    }
+
+    /**
+     * @return time covered by a full ring
+     */
+    public long horizonNanos() {
+        return bucketNanos * capacity();
+    }
+
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        currentStart = Long.MIN_VALUE;
+    }
+}
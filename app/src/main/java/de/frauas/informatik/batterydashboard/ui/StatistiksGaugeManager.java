@@ -40,6 +40,9 @@ public class StatistiksGaugeManager {
     private Gauge gauge;
     private int i=0;
 
+    // the gauges of the statistik dashboard show the values of the last 10 minutes (see UiService.updateStatistikGauge())
+    static final long WINDOW_NANOS = 10 * 60 * 1_000_000_000L;
+
     // singleton implementation
     private static StatistiksGaugeManager instance;
     static StatistiksGaugeManager getInstance(){
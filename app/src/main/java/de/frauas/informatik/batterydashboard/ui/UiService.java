@@ -10,11 +10,13 @@ import android.content.ServiceConnection;
 import android.graphics.PixelFormat;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.LayoutDirection;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.widget.Button;
@@ -34,8 +36,11 @@ import java.util.HashMap;
 import java.util.List;
 
 import de.frauas.informatik.batterydashboard.background.BatteryDataService;
+import de.frauas.informatik.batterydashboard.background.BmsFrame;
 import de.frauas.informatik.batterydashboard.dataSync.App;
 import de.frauas.informatik.batterydashboard.dataSync.RestClient;
+import de.frauas.informatik.batterydashboard.enums.ChargeState;
+import de.frauas.informatik.batterydashboard.enums.GaugeMetric;
 import de.frauas.informatik.batterydashboard.enums.GaugeType;
 
 
@@ -52,7 +57,7 @@ import static android.view.WindowManager.LayoutParams.LAYOUT_CHANGED;
  * @see <a href="https://developer.android.com/guide/components/activities/activity-lifecycle">Android Activity documentation</a> </br></br>
  *
  * This service is responsible for drawing UI elements on the screen. It covers one third of the screen (346px) with a dashboard.
- * This service also starts and binds the DataService, that will provide data through a shared battery object.</br>
+ * This service also starts and binds the DataService, that will provide data through a shared BatteryFleet object (one battery object per pack).</br>
  * The functionality is distributed to two services for SoC reasons (separation of concern).
  * @see Battery
  * @see BatteryDataService
@@ -80,11 +85,14 @@ public class UiService extends Service implements PopupMenu.OnMenuItemClickListe
 
     private BatteryDataService dataService;
     private boolean isDataServiceBound = false;
-    Battery battery;
+    BatteryFleet fleet;
     private final Handler handler = new Handler();
     private WindowManager windowManager;
     private boolean IsInDeleteMode;
     int uiUpdateFrequency = 1000; // 2000 = every 2 seconds, 1000 = every second
+    // buffers for the gauge values, so an update of the UI doesn't allocate anything
+    private final float[] minMaxAvrg = new float[3];
+    private float[] blockValues = new float[0];
     private PopupMenu popupExitMenu;
 
     private TextView title;
@@ -108,7 +116,7 @@ public class UiService extends Service implements PopupMenu.OnMenuItemClickListe
             BatteryDataService.LocalBinder binder = (BatteryDataService.LocalBinder) service;
             dataService = binder.getService();
             isDataServiceBound = true;
-            dataService.setBattery(battery);
+            dataService.setFleet(fleet);
         }
 
         @Override
@@ -125,9 +133,9 @@ public class UiService extends Service implements PopupMenu.OnMenuItemClickListe
         super.onCreate();
 
 
-        // create battery object to model battery data
-        // the battery object will be passed to the dataService and be shared by both services
-        battery = new Battery(getResources());
+        // create battery objects (one per pack) to model battery data
+        // the fleet object will be passed to the dataService and be shared by both services
+        fleet = new BatteryFleet(getResources());
         batteryDataServiceIntent = new Intent(this, BatteryDataService.class);
 
 
@@ -164,6 +172,8 @@ public class UiService extends Service implements PopupMenu.OnMenuItemClickListe
         // get DashboardManager (Singleton) and load Gauges from Blueprints in a dashboard config
         gaugeManager = GaugeManager.getInstance();
         loadDashboardConfig(gaugeManager.instantiateConfigBlueprints(this));
+        gaugeManager.instantiateChargerBlueprints(this);
+        loadChargerGauges();
 
         // bind buttons etc
 
@@ -237,6 +247,41 @@ public class UiService extends Service implements PopupMenu.OnMenuItemClickListe
         }
     }
 
+    /**
+     * adds the (preloaded) gauges of the charger dashboard to the dashboard frame, hidden unless the battery is at the charger.
+     * They stay there, switching between driving and charging only changes the visibility of the two gauge sets.
+     */
+    private void loadChargerGauges(){
+        for(Gauge g : gaugeManager.getChargerGauges()){
+            if(g.getParent() != null) {
+                ((ViewGroup)g.getParent()).removeView(g);
+            }
+            dashboard.getDashboardFrame().addView(g);
+        }
+        showChargerGauges(gaugeManager.isChargerMode());
+    }
+
+    private void showChargerGauges(boolean charger){
+        for(Gauge g : gaugeManager.getActiveGauges()){
+            g.setVisibility(charger ? View.GONE : View.VISIBLE);
+        }
+        for(Gauge g : gaugeManager.getChargerGauges()){
+            g.setVisibility(charger ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    /**
+     * switches to the charger dashboard when a charger is connected (CHARGING or CHARGE_COMPLETE) and back when it's gone.
+     * The state is already debounced by the ChargeStateMachine of the battery packs.
+     */
+    private void updateChargeState(BatteryFleet.Snapshot snapshot){
+        ChargeState state = snapshot.chargeState();
+        if (gaugeManager.setChargerMode(state.isAtCharger())) {
+            Log.i(TAG, "charge state " + state.label);
+            showChargerGauges(gaugeManager.isChargerMode());
+        }
+    }
+
     private void loadStatDashboardConfig(ArrayList<Gauge> gauges){
         for(Gauge g : gauges){
             if(g.getParent() != null) {
@@ -255,6 +300,7 @@ public class UiService extends Service implements PopupMenu.OnMenuItemClickListe
     private void updateDashboardConfig(){
         dashboard.getDashboardFrame().removeAllViews();
         loadDashboardConfig(gaugeManager.getActiveGauges());
+        loadChargerGauges();
     }
 
     private void updateStatDashboardConfig(){
@@ -289,16 +335,19 @@ public class UiService extends Service implements PopupMenu.OnMenuItemClickListe
 
     /**
      * A runnable to update the UI as often as uiUpdateFrequency specifies.
+     * Takes one snapshot of the packs per update, so all gauges show the same frames (see BatteryFleet.snapshot()).
      * @see this.uiUpdateFrequency
      */
     private Runnable dashboardValuesUpdate = new Runnable() {
         public void run() {
-            for(Gauge g : gaugeManager.getActiveGauges()){
-                updateGauge(g);
+            BatteryFleet.Snapshot snapshot = fleet.snapshot();
+            updateChargeState(snapshot);
+            for(Gauge g : gaugeManager.getShownGauges()){
+                updateGauge(g, snapshot);
             }
             if(statsOn == true){
                 for(Gauge g : gaugeManager_stats.getActiveGauges()){
-                    updateGauge(g);
+                    updateGauge(g, snapshot);
                 }
             }
             handler.postDelayed(this, uiUpdateFrequency);
@@ -308,17 +357,29 @@ public class UiService extends Service implements PopupMenu.OnMenuItemClickListe
 
     /**
      * Method to update a gauge by passing it as param. </br>
-     * Gets the value(s) for the gauge's metric from battery and calls update on gauge.
+     * Gets the value(s) for the gauge's metric from the gauge's battery pack and calls update on gauge.
+     * The gauge is marked if its values are older than max_data_age, and nothing is done if there was no new frame since the last update.
+     * All values are read from the snapshot of this update, the sequence number too, so the gauge never mixes two frames.
      * @param gauge to be updated
+     * @param snapshot of the packs taken for this update
      */
-    private void updateGauge(Gauge gauge) {// Das ist nur für die Werte
+    private void updateGauge(Gauge gauge, BatteryFleet.Snapshot snapshot) {// Das ist nur für die Werte
+        if (updateDistanceGauge(gauge)) return; // not from the battery, updated without new frames
+        boolean ofFleet = gauge.pack == BatteryFleet.FLEET;
+        Battery.Snapshot battery = snapshot.pack(gauge.pack);
+        int sections = sectionsOf(gauge.gaugeMetric);
+        gauge.setStale(ofFleet ? snapshot.isStale(sections) : battery.isStale(sections));
+        gauge.setWarning(((ofFleet ? snapshot.warnings() : battery.warnings()) & warningsOf(gauge.gaugeMetric)) != 0);
+        long sequence = ofFleet ? snapshot.frameSequence() : battery.frameSequence();
+        if (sequence == gauge.renderedSequence) return; // values haven't changed
+        gauge.renderedSequence = sequence;
+
+        if (gauge.isStatistik() && updateStatistikGauge(gauge, fleet.getPack(gauge.pack))) return;
+        if (ofFleet && updateFleetGauge(gauge, snapshot)) return;
         switch (gauge.gaugeMetric) {
             case VOLTAGE:
                 gauge.update(battery.voltageSum());
                 break;
-            case TAGES_KILOMETER_ZAEHLER:
-                gauge.update(battery.voltageSum());
-                break;
             case POWER:
                 gauge.update(battery.power());
                 break;
@@ -330,45 +391,200 @@ public class UiService extends Service implements PopupMenu.OnMenuItemClickListe
                 break;
             case CHARGER_TEMP:
                 if(gauge.gaugeType == GaugeType.GRAPHICAL){
-                    gauge.update(battery.getChargerTemperatures());
+                    gauge.update(battery.getChargerTemperatures(blockValues(fleet.getPack(gauge.pack))));
                 } else {
                     gauge.update(battery.getAvrgChargerTemp());
                 }
                 break;
             case CONSUMPTION:
-                /*
-                 (aus der Leistung berechnet, seit Fahrzeugstart (Zündung an),
-                 Werte jede Sekunde aufaddieren, dann durch Zeit teilen) */
-                gauge.update(battery.voltageSum());
+                gauge.update(battery.consumption());
                 break;
             case DURCHSCHNITTSVERBRAUCH:
-                gauge.update(battery.voltageSum());
+                /*
+                 (aus der Leistung berechnet, seit Fahrzeugstart (Zündung an),
+                 Energie über die Zeit aufintegriert, dann durch Zeit geteilt) */
+                gauge.update(battery.tripAverageConsumption());
                 break;
             case RANGE:
-                /* TODO implement in battery: Reichweite
-                 (entweder auf Basis Durchschnittsverbrauch oder anderer Algorithmus
-                 (z.B. Basis ist Durchschnitt, aber adaptiert auf die letzten 5 min ...)
-                 Das machen die Autos auch unterschiedlich. In diesem Semester aber
-                 am besten am Durchschnittsverbrauch orientiert.
-                 Hier wird auch der Ladezustand benötigt (Capacity) */
+                /* Reichweite: auf Basis Durchschnittsverbrauch der Fahrt, adaptiert auf die letzten 5 min und 30 s
+                 und den Ladezustand (Capacity), siehe RangeEstimator */
+                gauge.update(battery.range());
                 break;
             case CELL_VOLTAGES:
-                gauge.update(battery.getCellVoltages());
-                break;
-            case ODOMETER:
-                // TODO implement in battery: (Tages-)kilometerzähler (seit Zündung an)
-                //wurde implentiert, zundung check noch nicht
+                gauge.update(battery.getCellVoltages(minMaxAvrg));
                 break;
             case CAPACITY:
                 gauge.update(battery.capacity());
                 break;
             case CELL_TEMPS:
-                gauge.update(battery.getCellTemps());
+                gauge.update(battery.getCellTemps(minMaxAvrg));
+                break;
+            case INNENWIDERSTAND:
+                // geschätzt aus ΔV/ΔI bei Stromänderungen (siehe InternalResistance), vorher gibt es keinen Wert
+                battery.getResistances(minMaxAvrg);
+                if (!Float.isNaN(minMaxAvrg[2])) gauge.update(minMaxAvrg);
+                break;
             default:
                 break;
         }
     }
 
+    /**
+     * @return the values of the battery a metric is calculated from, as BmsFrame.SECTION_... bits
+     */
+    private static int sectionsOf(GaugeMetric metric) {
+        switch (metric) {
+            case VOLTAGE:
+            case DURCHSCHNITTSGESCHWINDIGKEIT:
+            case CELL_VOLTAGES:
+                return BmsFrame.SECTION_CELL_VOLTAGES;
+            case POWER:
+            case CONSUMPTION:
+            case DURCHSCHNITTSVERBRAUCH:
+            case INNENWIDERSTAND:
+                return BmsFrame.SECTION_CELL_VOLTAGES | BmsFrame.SECTION_DRIVING_AMPERAGE;
+            case DRIVING_AMP:
+                return BmsFrame.SECTION_DRIVING_AMPERAGE;
+            case CHARGER_TEMP:
+                return BmsFrame.SECTION_CHARGER_TEMPS;
+            case CAPACITY:
+                return BmsFrame.SECTION_CAPACITY;
+            case RANGE:
+                return BmsFrame.SECTION_CAPACITY | BmsFrame.SECTION_CELL_VOLTAGES | BmsFrame.SECTION_DRIVING_AMPERAGE;
+            case CELL_TEMPS:
+                return BmsFrame.SECTION_CELL_TEMPS;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the warning categories of a metric, as bits (1 << WarningEngine.CELL_VOLTAGE_HIGH etc.)
+     */
+    private static int warningsOf(GaugeMetric metric) {
+        switch (metric) {
+            case VOLTAGE:
+            case CELL_VOLTAGES:
+                return 1 << WarningEngine.CELL_VOLTAGE_HIGH | 1 << WarningEngine.CELL_VOLTAGE_LOW;
+            case CELL_TEMPS:
+                return 1 << WarningEngine.CELL_TEMP_HIGH | 1 << WarningEngine.CELL_TEMP_LOW;
+            case CHARGER_TEMP:
+                return 1 << WarningEngine.CHARGER_TEMP_HIGH | 1 << WarningEngine.CHARGER_TEMP_LOW;
+            case CAPACITY:
+            case RANGE:
+                return 1 << WarningEngine.CAPACITY_LOW;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return buffer for one value per block of the battery (reused, the gauges copy the values)
+     */
+    private float[] blockValues(Battery battery) {
+        if (blockValues.length != battery.blockCount()) blockValues = new float[battery.blockCount()];
+        return blockValues;
+    }
+
+    /**
+     * Updates a gauge with the speed or the distance of the vehicle (see BatteryFleet.distance()).
+     * @param gauge to be updated
+     * @return false if the gauge's metric is not one of them
+     */
+    private boolean updateDistanceGauge(Gauge gauge) {
+        DistanceMeter distance = fleet.distance();
+        switch (gauge.gaugeMetric) {
+            case GESCHWINDIGKEIT:
+                float speed = distance.speed();
+                gauge.setStale(Float.isNaN(speed));
+                if (!Float.isNaN(speed)) gauge.update(Math.round(speed));
+                return true;
+            case TAGES_KILOMETER_ZAEHLER: // seit App-Start (Zündung an)
+                gauge.update(distance.tripKm());
+                return true;
+            case ODOMETER:
+                gauge.update(distance.lifetimeKm());
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Updates a gauge of the statistik dashboard with the mean (for cells min/max/mean) over the last StatistiksGaugeManager.WINDOW_NANOS,
+     * read from the battery's rollups instead of the raw values.
+     * @param gauge to be updated
+     * @return false if there are no values of the gauge's metric in the window (the gauge shows the current value then)
+     */
+    private boolean updateStatistikGauge(Gauge gauge, Battery battery) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        long window = StatistiksGaugeManager.WINDOW_NANOS;
+        switch (gauge.gaugeMetric) {
+            case CELL_VOLTAGES:
+                return updateStatistikCellGauge(gauge, battery.cellVoltageRollup(), battery.cellCount(), window, now);
+            case CELL_TEMPS:
+                return updateStatistikCellGauge(gauge, battery.cellTempRollup(), battery.tempSensorCount(), window, now);
+            case DURCHSCHNITTSVERBRAUCH:
+                return false; // already an average (of the trip)
+            default:
+                float mean = battery.rollup().aggregate(gauge.gaugeMetric.ordinal(), RollupTier.MEAN, window, now);
+                if (Float.isNaN(mean)) return false;
+                gauge.update(mean);
+                return true;
+        }
+    }
+
+    private boolean updateStatistikCellGauge(Gauge gauge, Rollup rollup, int cells, long window, long now) {
+        RollupTier tier = rollup.tierFor(window);
+        float min = Float.NaN, max = Float.NaN, sum = 0;
+        for (int i = 0; i < cells; i++) {
+            float cellMin = tier.aggregate(i, RollupTier.MIN, now - window, now);
+            if (Float.isNaN(cellMin)) return false;
+            float cellMax = tier.aggregate(i, RollupTier.MAX, now - window, now);
+            if (!(min <= cellMin)) min = cellMin;
+            if (!(max >= cellMax)) max = cellMax;
+            sum += tier.aggregate(i, RollupTier.MEAN, now - window, now);
+        }
+        if (cells == 0) return false;
+        minMaxAvrg[0] = min;
+        minMaxAvrg[1] = max;
+        minMaxAvrg[2] = sum / cells;
+        gauge.update(minMaxAvrg);
+        return true;
+    }
+
+    /**
+     * Updates a gauge with the aggregates of all packs.
+     * @param gauge to be updated
+     * @param snapshot of the packs taken for this update
+     * @return false if there is no aggregate for the gauge's metric (the gauge shows the first pack then)
+     */
+    private boolean updateFleetGauge(Gauge gauge, BatteryFleet.Snapshot snapshot) {
+        switch (gauge.gaugeMetric) {
+            case POWER:
+                gauge.update(snapshot.totalPower());
+                return true;
+            case DRIVING_AMP:
+                gauge.update(snapshot.totalDrivingAmperage());
+                return true;
+            case CAPACITY:
+                gauge.update(snapshot.minCapacity());
+                return true;
+            case CELL_VOLTAGES:
+                gauge.update(snapshot.getCellVoltages(minMaxAvrg));
+                return true;
+            case CELL_TEMPS:
+                gauge.update(snapshot.getCellTemps(minMaxAvrg));
+                return true;
+            case CHARGER_TEMP:
+                if(gauge.gaugeType == GaugeType.GRAPHICAL) return false;
+                gauge.update(snapshot.getAvrgChargerTemp());
+                return true;
+            default:
+                return false;
+        }
+    }
+
     /**
      * profile button for saving and loading configs
      * in work
@@ -0,0 +1,150 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+/**
+ * Checks every cell, temperature sensor and block (charger, capacity) against the limits in battery_specs.xml once per frame
+ * and keeps the warnings as bits: one bit per value and direction (e.g. cell 17 too high), plus a mask of the categories
+ * that have at least one warning (see categories()), which is what the gauges need.
+ * </br></br>
+ * Like described in battery_specs.xml, a warning starts warningThreshold percent before a limit
+ * (max 100, threshold 10 % -> above 90; min 50 -> below 55).
+ * So warnings don't chatter when a value is close to that:</br>
+ * - hysteresis: a warning ends only when the value is back by warningHysteresis percent of (max - min)</br>
+ * - debounce: a warning starts (and ends) only when the value stays on the other side for warningDebounce ms
+ * </br></br>
+ * The values are compared in the fixed point units of the frames (mV, 1/10 °C, 1/10 A, %) in simple loops over
+ * the primitive arrays of the battery, nothing is allocated. Only used by the thread that sets the battery's values,
+ * the UI gets the warnings through the battery's snapshots.
+ *
+ * @see Battery#warnings()
+ */
+
+public class WarningEngine {
+    // categories, bit (1 << category) in categories()
+    public static final int CELL_VOLTAGE_HIGH = 0;
+    public static final int CELL_VOLTAGE_LOW = 1;
+    public static final int CELL_TEMP_HIGH = 2;
+    public static final int CELL_TEMP_LOW = 3;
+    public static final int CHARGER_TEMP_HIGH = 4;
+    public static final int CHARGER_TEMP_LOW = 5;
+    public static final int CHARGING_AMPERAGE_HIGH = 6;
+    public static final int CAPACITY_LOW = 7;
+    private static final int CATEGORY_COUNT = 8;
+
+    private final long debounceNanos;
+    private final int[] offset = new int[CATEGORY_COUNT + 1]; // first bit of every category
+    private final boolean[] enabled = new boolean[CATEGORY_COUNT];
+    private final boolean[] high = new boolean[CATEGORY_COUNT];
+    private final int[] set = new int[CATEGORY_COUNT];   // warning starts beyond this
+    private final int[] clear = new int[CATEGORY_COUNT]; // warning ends when back beyond this
+    private final int[] activeCount = new int[CATEGORY_COUNT];
+
+    private final long[] bits;
+    private final long[] pendingNanos; // per bit: since when the value is on the other side, 0 = it isn't
+    private long now;
+
+    /**
+     * @param debounceNanos how long a value has to stay beyond a limit (or back) until a warning starts (or ends)
+     */
+    public WarningEngine(int cells, int tempSensors, int blocks, long debounceNanos) {
+        this.debounceNanos = debounceNanos;
+        int[] counts = {cells, cells, tempSensors, tempSensors, blocks, blocks, blocks, blocks};
+        for (int c = 0; c < CATEGORY_COUNT; c++) {
+            offset[c + 1] = offset[c] + counts[c];
+            high[c] = c == CELL_VOLTAGE_HIGH || c == CELL_TEMP_HIGH || c == CHARGER_TEMP_HIGH || c == CHARGING_AMPERAGE_HIGH;
+        }
+        bits = new long[(offset[CATEGORY_COUNT] + 63) / 64];
+        pendingNanos = new long[offset[CATEGORY_COUNT]];
+    }
+
+    /**
+     * sets the limit of a category (not set = not checked)
+     * @param limit max or min of the value in the units of the frames
+     * @param thresholdPercent the warning starts this many percent of the limit before it
+     * @param hysteresis how far the value has to be back (same unit as limit)
+     */
+    public void setLimit(int category, float limit, float thresholdPercent, float hysteresis) {
+        float start = high[category] ? limit * (1 - thresholdPercent / 100) : limit * (1 + thresholdPercent / 100);
+        set[category] = Math.round(start);
+        clear[category] = Math.round(high[category] ? start - hysteresis : start + hysteresis);
+        enabled[category] = true;
+    }
+
+    /**
+     * checks all values of a frame
+     * @param timeNanos time of the frame (SystemClock.elapsedRealtimeNanos())
+     * @param cellMillivolts one per cell
+     * @param cellDeciTemps one per temperature sensor
+     * @param chargerDeciTemps one per block
+     * @param chargingDeciAmps one per block
+     * @param capacities one per block
+     */
+    public void check(long timeNanos, short[] cellMillivolts, short[] cellDeciTemps,
+                      int[] chargerDeciTemps, int[] chargingDeciAmps, int[] capacities) {
+        now = timeNanos;
+        if (enabled[CELL_VOLTAGE_HIGH]) for (int i = 0; i < cellMillivolts.length; i++) check(CELL_VOLTAGE_HIGH, i, cellMillivolts[i]);
+        if (enabled[CELL_VOLTAGE_LOW]) for (int i = 0; i < cellMillivolts.length; i++) check(CELL_VOLTAGE_LOW, i, cellMillivolts[i]);
+        if (enabled[CELL_TEMP_HIGH]) for (int i = 0; i < cellDeciTemps.length; i++) check(CELL_TEMP_HIGH, i, cellDeciTemps[i]);
+        if (enabled[CELL_TEMP_LOW]) for (int i = 0; i < cellDeciTemps.length; i++) check(CELL_TEMP_LOW, i, cellDeciTemps[i]);
+        if (enabled[CHARGER_TEMP_HIGH]) for (int i = 0; i < chargerDeciTemps.length; i++) check(CHARGER_TEMP_HIGH, i, chargerDeciTemps[i]);
+        if (enabled[CHARGER_TEMP_LOW]) for (int i = 0; i < chargerDeciTemps.length; i++) check(CHARGER_TEMP_LOW, i, chargerDeciTemps[i]);
+        if (enabled[CHARGING_AMPERAGE_HIGH]) for (int i = 0; i < chargingDeciAmps.length; i++) check(CHARGING_AMPERAGE_HIGH, i, chargingDeciAmps[i]);
+        if (enabled[CAPACITY_LOW]) for (int i = 0; i < capacities.length; i++) check(CAPACITY_LOW, i, capacities[i]);
+    }
+
+    private void check(int category, int item, int value) {
+        int bit = offset[category] + item;
+        long mask = 1L << bit; // only the lower 6 bits count
+        int word = bit >>> 6;
+        boolean active = (bits[word] & mask) != 0;
+        int limit = active ? clear[category] : set[category];
+        boolean beyond = high[category] ? value > limit : value < limit;
+        if (beyond == active) {
+            pendingNanos[bit] = 0;
+            return;
+        }
+        if (pendingNanos[bit] == 0) pendingNanos[bit] = now;
+        if (now - pendingNanos[bit] >= debounceNanos) {
+            bits[word] ^= mask;
+            pendingNanos[bit] = 0;
+            activeCount[category] += active ? -1 : 1;
+        }
+    }
+
+    /**
+     * @return bit (1 << category) for every category with at least one warning, 0 = no warnings
+     */
+    public int categories() {
+        int mask = 0;
+        for (int c = 0; c < CATEGORY_COUNT; c++) {
+            if (activeCount[c] > 0) mask |= 1 << c;
+        }
+        return mask;
+    }
+
+    /**
+     * @return true if there is a warning for the item (cell, sensor or block) of the category
+     */
+    public boolean isActive(int category, int item) {
+        int bit = offset[category] + item;
+        return (bits[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * copies the bits of all warnings (see bit())
+     * @param result array with at least wordCount() elements
+     */
+    public void copyBits(long[] result) {
+        System.arraycopy(bits, 0, result, 0, bits.length);
+    }
+
+    /**
+     * @return index of the bit of an item of a category in copyBits()
+     */
+    public int bit(int category, int item) {
+        return offset[category] + item;
+    }
+
+    public int wordCount() {
+        return bits.length;
+    }
+}
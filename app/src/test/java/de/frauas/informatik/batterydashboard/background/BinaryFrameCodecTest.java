@@ -0,0 +1,147 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Encodes random frames with the BinaryFrameCodec, decodes them again and checks that damaged frames are recognised by the CRC.
+ * Delta frames are applied on top of the previous frame and have to give the same values as a full frame.
+ */
+public class BinaryFrameCodecTest {
+    private static final int CELLS = 12;
+    private static final int TEMPS = 4;
+    private static final int BLOCKS = 2;
+
+    @Test
+    public void crc16_matchesCcittCheckValue() {
+        byte[] check = "123456789".getBytes();
+        assertEquals(0x29B1, BinaryFrameCodec.crc16(check, 0, check.length));
+    }
+
+    @Test
+    public void decode_sameValuesAsEncoded() {
+        Random rand = new Random(1);
+        byte[] buf = new byte[BinaryFrameCodec.MAX_FRAME_LENGTH];
+        for (int i = 0; i < 50; i++) {
+            BmsFrame sent = randomFrame(rand);
+            int length = BinaryFrameCodec.encode(sent, buf, 0);
+            assertEquals(BinaryFrameCodec.frameLength(CELLS, TEMPS, BLOCKS), length);
+            assertEquals(length, BinaryFrameCodec.frameLength(buf, 0));
+            assertTrue(BinaryFrameCodec.hasValidCrc(buf, 0, length));
+            BmsFrame received = newFrame();
+            assertEquals(BinaryFrameCodec.OK, BinaryFrameCodec.decode(buf, 0, length, received));
+            assertSameValues(sent, received);
+        }
+    }
+
+    @Test
+    public void decode_everyFlippedBitIsRejected() {
+        byte[] buf = new byte[BinaryFrameCodec.MAX_FRAME_LENGTH];
+        int length = BinaryFrameCodec.encode(randomFrame(new Random(2)), buf, 0);
+        BmsFrame received = newFrame();
+        for (int bit = 2 * 8; bit < length * 8; bit++) { // not the sync bytes
+            buf[bit >> 3] ^= 1 << (bit & 7);
+            int status = BinaryFrameCodec.decode(buf, 0, length, received);
+            assertTrue("bit " + bit + ": " + status, status == BinaryFrameCodec.BAD_CRC
+                    || (bit < BinaryFrameCodec.HEADER_LENGTH * 8 && status != BinaryFrameCodec.OK));
+            buf[bit >> 3] ^= 1 << (bit & 7);
+        }
+        assertEquals(BinaryFrameCodec.OK, BinaryFrameCodec.decode(buf, 0, length, received));
+    }
+
+    @Test
+    public void decode_truncatedFrame() {
+        byte[] buf = new byte[BinaryFrameCodec.MAX_FRAME_LENGTH];
+        int length = BinaryFrameCodec.encode(randomFrame(new Random(3)), buf, 0);
+        assertEquals(BinaryFrameCodec.TRUNCATED, BinaryFrameCodec.decode(buf, 0, length - 1, newFrame()));
+        assertFalse(BinaryFrameCodec.hasValidCrc(buf, 0, length - 1));
+    }
+
+    @Test
+    public void decodeDelta_sameValuesAsFullFrame() {
+        Random rand = new Random(4);
+        byte[] buf = new byte[BinaryFrameCodec.MAX_FRAME_LENGTH];
+        BmsFrame previous = randomFrame(rand);
+        BmsFrame state = newFrame();
+        state.copyFrom(previous);
+        for (int sequence = 1; sequence <= 20; sequence++) {
+            BmsFrame next = newFrame();
+            next.copyFrom(previous);
+            int changedField = rand.nextInt(next.fieldCount());
+            next.setField(changedField, next.getField(changedField) + 1);
+            next.cellMillivolts[0] = 2700 + rand.nextInt(1000);
+
+            int length = BinaryFrameCodec.encodeDelta(next, previous, sequence, buf, 0);
+            assertEquals(BinaryFrameCodec.TYPE_DELTA, BinaryFrameCodec.frameType(buf, 0));
+            assertEquals(length, BinaryFrameCodec.frameLength(buf, 0));
+            assertEquals(BinaryFrameCodec.OK, BinaryFrameCodec.decodeDelta(buf, 0, length, state, sequence));
+            assertSameValues(next, state);
+            assertTrue(state.isDelta());
+            for (int f = 0; f < state.fieldCount(); f++) {
+                assertEquals("field " + f, next.getField(f) != previous.getField(f), state.isChanged(f));
+            }
+            previous = next;
+        }
+    }
+
+    @Test
+    public void decodeDelta_rejectsWrongSequenceAndCrc() {
+        Random rand = new Random(5);
+        byte[] buf = new byte[BinaryFrameCodec.MAX_FRAME_LENGTH];
+        BmsFrame previous = randomFrame(rand);
+        BmsFrame next = randomFrame(rand);
+        BmsFrame state = newFrame();
+        state.copyFrom(previous);
+        int length = BinaryFrameCodec.encodeDelta(next, previous, 3, buf, 0);
+
+        assertEquals(BinaryFrameCodec.BAD_SEQUENCE, BinaryFrameCodec.decodeDelta(buf, 0, length, state, 2));
+        buf[length - 3] ^= 0x10;
+        assertEquals(BinaryFrameCodec.BAD_CRC, BinaryFrameCodec.decodeDelta(buf, 0, length, state, 3));
+        assertSameValues(previous, state); // unchanged
+        buf[length - 3] ^= 0x10;
+        assertEquals(BinaryFrameCodec.OK, BinaryFrameCodec.decodeDelta(buf, 0, length, state, 3));
+        assertSameValues(next, state);
+    }
+
+    @Test
+    public void decodeDelta_withoutChangesKeepsTheValues() {
+        byte[] buf = new byte[BinaryFrameCodec.MAX_FRAME_LENGTH];
+        BmsFrame previous = randomFrame(new Random(6));
+        BmsFrame state = newFrame();
+        state.copyFrom(previous);
+        int length = BinaryFrameCodec.encodeDelta(previous, previous, 1, buf, 0);
+        assertEquals(BinaryFrameCodec.HEADER_LENGTH + BinaryFrameCodec.deltaBitmapLength(previous) + BinaryFrameCodec.CRC_LENGTH, length);
+        assertEquals(BinaryFrameCodec.OK, BinaryFrameCodec.decodeDelta(buf, 0, length, state, 1));
+        assertSameValues(previous, state);
+        for (int f = 0; f < state.fieldCount(); f++) assertFalse(state.isChanged(f));
+    }
+
+    static BmsFrame newFrame() {
+        return new BmsFrame(CELLS, TEMPS, BLOCKS);
+    }
+
+    static BmsFrame randomFrame(Random rand) {
+        BmsFrame frame = newFrame();
+        for (int i = 0; i < CELLS; i++) frame.cellMillivolts[i] = 2700 + rand.nextInt(1000);
+        for (int i = 0; i < TEMPS; i++) frame.cellDeciTemps[i] = -100 + rand.nextInt(700);
+        frame.drivingDeciAmps = -2000 + rand.nextInt(4000);
+        for (int b = 0; b < BLOCKS; b++) {
+            frame.chargingDeciAmps[b] = rand.nextInt(140);
+            frame.chargerDeciTemps[b] = -50 + rand.nextInt(650);
+            frame.capacity[b] = rand.nextInt(101);
+        }
+        return frame;
+    }
+
+    static void assertSameValues(BmsFrame expected, BmsFrame actual) {
+        assertArrayEquals("cells", expected.cellMillivolts, actual.cellMillivolts);
+        assertArrayEquals("temps", expected.cellDeciTemps, actual.cellDeciTemps);
+        assertEquals("driving", expected.drivingDeciAmps, actual.drivingDeciAmps);
+        assertArrayEquals("charging", expected.chargingDeciAmps, actual.chargingDeciAmps);
+        assertArrayEquals("charger temps", expected.chargerDeciTemps, actual.chargerDeciTemps);
+        assertArrayEquals("capacity", expected.capacity, actual.capacity);
+    }
+}
@@ -0,0 +1,156 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds streams of binary and text frames with garbage and false sync bytes in between into a FrameAssembler
+ * and checks that every good frame comes out exactly once, however the stream is split up by the reads.
+ */
+public class FrameAssemblerTest {
+    private static final int CELLS = 6;
+    private static final int TEMPS = 2;
+    private static final int BLOCKS = 2;
+
+    @Test
+    public void feed_cutsFramesSplitAtAnyPosition() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<byte[]> sent = new ArrayList<>();
+        Random rand = new Random(1);
+        for (int i = 0; i < 20; i++) sent.add(write(stream, frame(rand)));
+        byte[] bytes = stream.toByteArray();
+        for (int chunk : new int[]{1, 3, 7, 64, bytes.length}) {
+            Collector c = new Collector();
+            FrameAssembler assembler = new FrameAssembler(StatReceiver.Protocol.BINARY, c);
+            for (int off = 0; off < bytes.length; off += chunk) {
+                assembler.feed(bytes, off, Math.min(chunk, bytes.length - off));
+            }
+            assertFrames(sent, c.binary);
+            assertEquals(0, c.skipped);
+        }
+    }
+
+    @Test
+    public void feed_falseSyncDoesNotSwallowTheFollowingFrames() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<byte[]> sent = new ArrayList<>();
+        Random rand = new Random(2);
+        // sync bytes in noise with a header that declares a long full frame (the CRC at its end can't match)
+        byte[] falseSync = {BinaryFrameCodec.SYNC_0, BinaryFrameCodec.SYNC_1, BinaryFrameCodec.VERSION,
+                BinaryFrameCodec.TYPE_FULL, (byte) 200, 0, 9, 4};
+        stream.write(falseSync, 0, falseSync.length);
+        for (int i = 0; i < 20; i++) sent.add(write(stream, frame(rand)));
+        Collector c = feedAll(StatReceiver.Protocol.BINARY, stream.toByteArray(), 5);
+        assertFrames(sent, c.binary);
+        assertEquals(falseSync.length, c.skipped);
+        assertEquals(1, c.rejected); // the false sync, its declared length was complete
+    }
+
+    @Test
+    public void feed_brokenHeaderAndCrcAreSkippedByteByByte() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<byte[]> sent = new ArrayList<>();
+        Random rand = new Random(3);
+        byte[] broken = frame(rand);
+        broken[broken.length - 1] ^= 0x01; // wrong crc
+        stream.write(broken, 0, broken.length);
+        sent.add(write(stream, frame(rand)));
+        byte[] badHeader = {BinaryFrameCodec.SYNC_0, BinaryFrameCodec.SYNC_1, 7, 7, 7, 7, 7, 7};
+        stream.write(badHeader, 0, badHeader.length);
+        sent.add(write(stream, frame(rand)));
+        Collector c = feedAll(StatReceiver.Protocol.BINARY, stream.toByteArray(), 16);
+        assertFrames(sent, c.binary);
+        assertTrue(c.skipped > 0); // line breaks in the skipped bytes are not counted
+        assertEquals(1, c.rejected); // only the frame with the wrong crc, the broken header isn't a frame
+    }
+
+    @Test
+    public void feed_textFrameAfterFalseSyncIsFound() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] falseSync = {BinaryFrameCodec.SYNC_0, BinaryFrameCodec.SYNC_1, BinaryFrameCodec.VERSION,
+                BinaryFrameCodec.TYPE_DELTA, 100, 0, 1, 0};
+        stream.write(falseSync, 0, falseSync.length);
+        String text = "CellVoltage:370;371CellTemp:20DrivingAmperage:5ChargingAmperage:0ChargerTemp:20Capacity:80";
+        byte[] textBytes = (text + "\n").getBytes();
+        stream.write(textBytes, 0, textBytes.length);
+        Random rand = new Random(4);
+        List<byte[]> sent = new ArrayList<>();
+        sent.add(write(stream, frame(rand)));
+        Collector c = feedAll(StatReceiver.Protocol.AUTO, stream.toByteArray(), 4);
+        assertEquals(1, c.text.size());
+        assertEquals(text, c.text.get(0));
+        assertFrames(sent, c.binary);
+    }
+
+    private static Collector feedAll(StatReceiver.Protocol protocol, byte[] bytes, int chunk) {
+        Collector c = new Collector();
+        FrameAssembler assembler = new FrameAssembler(protocol, c);
+        for (int off = 0; off < bytes.length; off += chunk) {
+            assembler.feed(bytes, off, Math.min(chunk, bytes.length - off));
+        }
+        return c;
+    }
+
+    private static void assertFrames(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("frame " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    private static byte[] write(ByteArrayOutputStream stream, byte[] frame) {
+        stream.write(frame, 0, frame.length);
+        return frame;
+    }
+
+    private static byte[] frame(Random rand) {
+        BmsFrame frame = new BmsFrame(CELLS, TEMPS, BLOCKS);
+        for (int i = 0; i < CELLS; i++) frame.cellMillivolts[i] = 3000 + rand.nextInt(1000);
+        for (int i = 0; i < TEMPS; i++) frame.cellDeciTemps[i] = rand.nextInt(600) - 100;
+        frame.drivingDeciAmps = rand.nextInt(2000) - 500;
+        for (int i = 0; i < BLOCKS; i++) {
+            frame.chargingDeciAmps[i] = rand.nextInt(100);
+            frame.chargerDeciTemps[i] = rand.nextInt(600);
+            frame.capacity[i] = rand.nextInt(101);
+        }
+        byte[] buf = new byte[BinaryFrameCodec.frameLength(CELLS, TEMPS, BLOCKS)];
+        BinaryFrameCodec.encode(frame, buf, 0);
+        return buf;
+    }
+
+    private static class Collector implements FrameAssembler.FrameListener {
+        final List<byte[]> binary = new ArrayList<>();
+        final List<String> text = new ArrayList<>();
+        int skipped;
+        int rejected;
+
+        @Override
+        public void onTextFrame(StringBuilder frame) {
+            text.add(frame.toString());
+        }
+
+        @Override
+        public void onBinaryFrame(byte[] buf, int len) {
+            byte[] copy = new byte[len];
+            System.arraycopy(buf, 0, copy, 0, len);
+            binary.add(copy);
+        }
+
+        @Override
+        public void onResync(int skippedBytes) {
+            skipped += skippedBytes;
+        }
+
+        @Override
+        public void onRejected(byte[] buf, int len, int reason) {
+            assertEquals(FrameValidator.BAD_CRC, reason);
+            rejected++;
+        }
+    }
+}
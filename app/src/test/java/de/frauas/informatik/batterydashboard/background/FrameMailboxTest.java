@@ -0,0 +1,79 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the FrameMailbox only hands out the newest frame and that a superseded delta frame doesn't lose its changes.
+ */
+public class FrameMailboxTest {
+    private static final int CELLS = 6;
+    private static final int TEMPS = 2;
+    private static final int BLOCKS = 2;
+
+    @Test
+    public void poll_newestFrameWins() {
+        FrameMailbox mailbox = new FrameMailbox(null);
+        FrameQueue.Slot slot = new FrameQueue.Slot(null);
+        assertFalse(mailbox.poll(slot));
+        mailbox.offerText("frame 1", 1);
+        mailbox.offerText("frame 2", 2);
+        mailbox.offerText("frame 3", 3);
+        assertTrue(mailbox.poll(slot));
+        assertEquals("frame 3", slot.text.toString());
+        assertEquals(3, slot.readNanos);
+        assertFalse(mailbox.poll(slot));
+        assertEquals(2, mailbox.superseded());
+    }
+
+    @Test
+    public void supersededDelta_changesAreMerged() {
+        BmsFrame layout = new BmsFrame(CELLS, TEMPS, BLOCKS);
+        FrameMailbox mailbox = new FrameMailbox(layout);
+        FrameQueue.Slot slot = new FrameQueue.Slot(layout);
+        BmsFrame frame = new BmsFrame(CELLS, TEMPS, BLOCKS);
+        frame.startDelta();
+        frame.setField(0, 3100);
+        mailbox.offerFrame(frame, 1);
+        frame.startDelta();
+        frame.setField(frame.drivingField(), 55);
+        mailbox.offerFrame(frame, 2);
+        frame.startDelta();
+        frame.setField(frame.capacityField(1), 80);
+        mailbox.offerFrame(frame, 3);
+
+        assertTrue(mailbox.poll(slot));
+        assertTrue(slot.frame.isDelta());
+        assertTrue(slot.frame.isChanged(0));
+        assertTrue(slot.frame.isChanged(frame.drivingField()));
+        assertTrue(slot.frame.isChanged(frame.capacityField(1)));
+        assertFalse(slot.frame.isChanged(1));
+        assertEquals(3100, slot.frame.cellMillivolts[0]);
+        assertEquals(55, slot.frame.drivingDeciAmps);
+        assertEquals(80, slot.frame.capacity[1]);
+
+        // the changes of frames the consumer already took are not carried on
+        frame.startDelta();
+        frame.setField(2, 3200);
+        mailbox.offerFrame(frame, 4);
+        assertTrue(mailbox.poll(slot));
+        assertTrue(slot.frame.isChanged(2));
+        assertFalse(slot.frame.isChanged(0));
+    }
+
+    @Test
+    public void supersededFullFrame_deltaBecomesFull() {
+        BmsFrame layout = new BmsFrame(CELLS, TEMPS, BLOCKS);
+        FrameMailbox mailbox = new FrameMailbox(layout);
+        FrameQueue.Slot slot = new FrameQueue.Slot(layout);
+        BmsFrame frame = new BmsFrame(CELLS, TEMPS, BLOCKS);
+        frame.markAllChanged();
+        mailbox.offerFrame(frame, 1);
+        frame.startDelta();
+        frame.setField(0, 3100);
+        mailbox.offerFrame(frame, 2);
+        assertTrue(mailbox.poll(slot));
+        assertFalse(slot.frame.isDelta());
+    }
+}
@@ -0,0 +1,44 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a full FrameQuarantine overwrites its oldest entries and lists the rest oldest first.
+ */
+public class FrameQuarantineTest {
+
+    @Test
+    public void put_keepsTheNewestFramesOldestFirst() {
+        FrameQuarantine quarantine = new FrameQuarantine(3);
+        for (int i = 1; i <= 5; i++) quarantine.put("frame " + i, FrameValidator.BAD_NUMBER);
+        assertEquals(3, quarantine.size());
+        String[] lines = quarantine.toString().split(System.lineSeparator());
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("bad number @") && lines[0].endsWith(": frame 3"));
+        assertTrue(lines[1], lines[1].endsWith(": frame 4"));
+        assertTrue(lines[2], lines[2].endsWith(": frame 5"));
+    }
+
+    @Test
+    public void put_overwritesTextWithBinaryAndBack() {
+        FrameQuarantine quarantine = new FrameQuarantine(2);
+        quarantine.put("a long text frame", FrameValidator.TRUNCATED);
+        quarantine.put(new byte[]{(byte) 0xAA, 0x55, 0x01}, 3, FrameValidator.BAD_CRC);
+        quarantine.put("short", FrameValidator.BAD_LAYOUT); // in the entry of the first text frame
+        String[] lines = quarantine.toString().split(System.lineSeparator());
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("bad crc @") && lines[0].endsWith(": AA5501"));
+        assertTrue(lines[1], lines[1].startsWith("bad layout @") && lines[1].endsWith(": short"));
+    }
+
+    @Test
+    public void clear_emptiesTheQuarantine() {
+        FrameQuarantine quarantine = new FrameQuarantine(2);
+        quarantine.put("frame", FrameValidator.BAD_NUMBER);
+        quarantine.clear();
+        assertEquals(0, quarantine.size());
+        assertEquals("", quarantine.toString());
+    }
+}
@@ -0,0 +1,131 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the overflow policies of the FrameRing and that the frame after a dropped delta frame is passed on as a full frame.
+ */
+public class FrameRingTest {
+    private static final int CELLS = 6;
+    private static final int TEMPS = 2;
+    private static final int BLOCKS = 2;
+
+    @Test
+    public void dropOldest_keepsTheNewestFrames() {
+        FrameRing ring = new FrameRing(2, FrameRing.OverflowPolicy.DROP_OLDEST, null);
+        for (int i = 1; i <= 3; i++) assertTrue(ring.offerText("frame " + i, i));
+        assertEquals(1, ring.droppedOldest());
+        assertEquals("frame 2", pollText(ring));
+        assertEquals("frame 3", pollText(ring));
+        assertNull(pollText(ring));
+    }
+
+    @Test
+    public void dropNewest_rejectsFramesWhenFull() {
+        FrameRing ring = new FrameRing(2, FrameRing.OverflowPolicy.DROP_NEWEST, null);
+        assertTrue(ring.offerText("frame 1", 1));
+        assertTrue(ring.offerText("frame 2", 2));
+        assertFalse(ring.offerText("frame 3", 3));
+        assertEquals(1, ring.droppedNewest());
+        assertEquals("frame 1", pollText(ring));
+        assertTrue(ring.offerText("frame 4", 4));
+        assertEquals("frame 2", pollText(ring));
+        assertEquals("frame 4", pollText(ring));
+    }
+
+    @Test
+    public void block_waitsForTheConsumer() throws InterruptedException {
+        final FrameRing ring = new FrameRing(2, FrameRing.OverflowPolicy.BLOCK, null);
+        ring.offerText("frame 1", 1);
+        ring.offerText("frame 2", 2);
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            pollText(ring);
+        });
+        consumer.start();
+        assertTrue(ring.offerText("frame 3", 3)); // returns when the consumer took frame 1
+        consumer.join();
+        assertEquals("frame 2", pollText(ring));
+        assertEquals("frame 3", pollText(ring));
+        assertEquals(0, ring.droppedOldest() + ring.droppedNewest());
+    }
+
+    @Test
+    public void block_closeReleasesTheProducer() throws InterruptedException {
+        final FrameRing ring = new FrameRing(2, FrameRing.OverflowPolicy.BLOCK, null);
+        ring.offerText("frame 1", 1);
+        ring.offerText("frame 2", 2);
+        Thread closer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            ring.close();
+        });
+        closer.start();
+        assertFalse(ring.offerText("frame 3", 3));
+        closer.join();
+    }
+
+    @Test
+    public void droppedDelta_nextFrameIsFull() {
+        for (FrameRing.OverflowPolicy policy : new FrameRing.OverflowPolicy[]{FrameRing.OverflowPolicy.DROP_OLDEST, FrameRing.OverflowPolicy.DROP_NEWEST}) {
+            BmsFrame layout = new BmsFrame(CELLS, TEMPS, BLOCKS);
+            FrameRing ring = new FrameRing(2, policy, layout);
+            FrameQueue.Slot slot = new FrameQueue.Slot(layout);
+            ring.offerFrame(delta(layout, 0), 1);
+            ring.offerFrame(delta(layout, 1), 2);
+            ring.offerFrame(delta(layout, 2), 3); // one of them is dropped
+            assertTrue(ring.poll(slot));
+            assertTrue(ring.poll(slot));
+            if (policy == FrameRing.OverflowPolicy.DROP_OLDEST) {
+                assertFalse(policy + ": frame after the drop", slot.frame.isDelta());
+            } else {
+                assertTrue(slot.frame.isDelta());
+                ring.offerFrame(delta(layout, 3), 4);
+                assertTrue(ring.poll(slot));
+                assertFalse(policy + ": frame after the drop", slot.frame.isDelta());
+            }
+            // only one frame is full, then the deltas go on
+            ring.offerFrame(delta(layout, 4), 5);
+            assertTrue(ring.poll(slot));
+            assertTrue(slot.frame.isDelta());
+            assertTrue(slot.frame.isChanged(4));
+            assertFalse(slot.frame.isChanged(3));
+        }
+    }
+
+    @Test
+    public void droppedDelta_fullFrameKeepsItsSections() {
+        BmsFrame layout = new BmsFrame(CELLS, TEMPS, BLOCKS);
+        FrameRing ring = new FrameRing(2, FrameRing.OverflowPolicy.DROP_NEWEST, layout);
+        BmsFrame text = new BmsFrame(CELLS, TEMPS, BLOCKS);
+        text.markAllChanged(BmsFrame.SECTION_CELL_VOLTAGES);
+        ring.offerFrame(text, 1);
+        ring.offerFrame(text, 2);
+        ring.offerFrame(text, 3); // dropped
+        FrameQueue.Slot slot = new FrameQueue.Slot(layout);
+        ring.poll(slot);
+        ring.offerFrame(text, 4);
+        ring.poll(slot);
+        ring.poll(slot);
+        assertEquals(BmsFrame.SECTION_CELL_VOLTAGES, slot.frame.sections());
+    }
+
+    private static BmsFrame delta(BmsFrame layout, int field) {
+        BmsFrame frame = new BmsFrame(layout.cellCount(), layout.tempSensorCount(), layout.blockCount());
+        frame.startDelta();
+        frame.setField(field, 3000 + field);
+        return frame;
+    }
+
+    private static String pollText(FrameRing ring) {
+        FrameQueue.Slot slot = new FrameQueue.Slot(null);
+        return ring.poll(slot) ? slot.text.toString() : null;
+    }
+}
@@ -0,0 +1,88 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the status codes of the FrameValidator for text frames, decoded frames and the statuses of the BinaryFrameCodec.
+ */
+public class FrameValidatorTest {
+    private static final int BLOCKS = 2;
+    private static final int CELLS_PER_BLOCK = 3;
+    private static final int TEMPS_PER_BLOCK = 1;
+    private static final String GOOD = "CellVoltage:370;371;372;373;374;375CellTemp:20;21DrivingAmperage:5"
+            + "ChargingAmperage:0;0ChargerTemp:20;21Capacity:80;81";
+
+    private final FrameValidator validator = new FrameValidator(ProtocolSchema.textProtocol(BLOCKS, CELLS_PER_BLOCK, TEMPS_PER_BLOCK));
+
+    @Test
+    public void validate_acceptsGoodTextFrame() {
+        assertEquals(FrameValidator.OK, validator.validate(GOOD));
+        BmsFrame decoded = validator.decoded();
+        assertEquals(3700, decoded.cellMillivolts[0]);
+        assertEquals(3750, decoded.cellMillivolts[5]);
+        assertEquals(210, decoded.cellDeciTemps[1]);
+        assertEquals(81, decoded.capacity[1]);
+    }
+
+    @Test
+    public void validate_truncated() {
+        assertEquals(FrameValidator.TRUNCATED, validator.validate(GOOD.substring(0, GOOD.length() - 2)));  // "Capacity:80;"
+        assertEquals(FrameValidator.TRUNCATED, validator.validate(GOOD.substring(0, GOOD.indexOf("Capacity") + 4)));
+    }
+
+    @Test
+    public void validate_badNumber() {
+        assertEquals(FrameValidator.BAD_NUMBER, validator.validate(GOOD.replace("371", "37.1")));
+        assertEquals(FrameValidator.BAD_NUMBER, validator.validate(GOOD.replace("371;", ";")));
+        assertEquals(FrameValidator.BAD_NUMBER, validator.validate(GOOD.replace("Capacity:80", "Capacity:1234567890")));
+    }
+
+    @Test
+    public void validate_outOfRange() {
+        assertEquals(FrameValidator.OUT_OF_RANGE, validator.validate(GOOD.replace("372", "600"))); // 6 V
+        assertEquals(FrameValidator.OUT_OF_RANGE, validator.validate(GOOD.replace("CellTemp:20", "CellTemp:200")));
+        assertEquals(FrameValidator.OUT_OF_RANGE, validator.validate(GOOD.replace("Capacity:80", "Capacity:300")));
+    }
+
+    @Test
+    public void validate_badLayout() {
+        assertEquals(FrameValidator.BAD_LAYOUT, validator.validate(GOOD.replace("CellTemp:", "CellTemps:")));
+        assertEquals(FrameValidator.BAD_LAYOUT, validator.validate(GOOD.replace("375", "375;376"))); // one cell too many
+        assertEquals(FrameValidator.BAD_LAYOUT, validator.validate(GOOD + "Extra:1"));
+    }
+
+    @Test
+    public void validate_checksTheValuesOfDecodedFrames() {
+        BmsFrame frame = new BmsFrame(BLOCKS * CELLS_PER_BLOCK, BLOCKS * TEMPS_PER_BLOCK, BLOCKS);
+        Arrays.fill(frame.cellMillivolts, 3700);
+        assertEquals(FrameValidator.OK, validator.validate(frame));
+        frame.chargerDeciTemps[1] = -500;
+        assertEquals(FrameValidator.OUT_OF_RANGE, validator.validate(frame));
+        frame.chargerDeciTemps[1] = 0;
+        frame.drivingDeciAmps = 20000;
+        assertEquals(FrameValidator.OUT_OF_RANGE, validator.validate(frame));
+    }
+
+    @Test
+    public void toStatus_mapsTheCodecStatuses() {
+        assertEquals(FrameValidator.OK, FrameValidator.toStatus(BinaryFrameCodec.OK));
+        assertEquals(FrameValidator.TRUNCATED, FrameValidator.toStatus(BinaryFrameCodec.TRUNCATED));
+        assertEquals(FrameValidator.BAD_CRC, FrameValidator.toStatus(BinaryFrameCodec.BAD_CRC));
+        assertEquals(FrameValidator.BAD_LAYOUT, FrameValidator.toStatus(BinaryFrameCodec.BAD_HEADER));
+        assertEquals(FrameValidator.BAD_LAYOUT, FrameValidator.toStatus(BinaryFrameCodec.BAD_LAYOUT));
+        assertEquals(FrameValidator.BAD_LAYOUT, FrameValidator.toStatus(BinaryFrameCodec.BAD_SEQUENCE));
+    }
+
+    @Test
+    public void reason_namesEveryStatus() {
+        for (int status = 0; status < FrameValidator.REASON_COUNT; status++) {
+            assertNotEquals("unknown", FrameValidator.reason(status));
+        }
+        assertEquals("bad crc", FrameValidator.reason(FrameValidator.BAD_CRC));
+        assertEquals("unknown", FrameValidator.reason(FrameValidator.REASON_COUNT));
+    }
+}
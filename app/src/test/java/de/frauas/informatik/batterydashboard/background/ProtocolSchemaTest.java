@@ -0,0 +1,131 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes text frames with the default schema and with modified ones, strict (FrameValidator) and lenient (Battery),
+ * and checks the schemas the constructor doesn't accept.
+ */
+public class ProtocolSchemaTest {
+    private static final int BLOCKS = 2;
+    private static final int CELLS_PER_BLOCK = 3;
+    private static final int TEMPS_PER_BLOCK = 1;
+    private static final String GOOD = "CellVoltage:370;371;372;373;374;375CellTemp:20;21DrivingAmperage:-125"
+            + "ChargingAmperage:0;15ChargerTemp:20;21Capacity:80;81";
+
+    private final ProtocolSchema schema = ProtocolSchema.textProtocol(BLOCKS, CELLS_PER_BLOCK, TEMPS_PER_BLOCK);
+    private final BmsFrame frame = schema.newFrame();
+
+    @Test
+    public void decode_goodFrameInTheUnitsOfBmsFrame() {
+        assertEquals(15, schema.valueCount());
+        assertEquals(BmsFrame.ALL_SECTIONS, schema.sections());
+        assertEquals(FrameValidator.OK, schema.decode(GOOD, frame, false));
+        assertEquals(3700, frame.cellMillivolts[0]);
+        assertEquals(3750, frame.cellMillivolts[5]);
+        assertEquals(210, frame.cellDeciTemps[1]);
+        assertEquals(-125, frame.drivingDeciAmps);
+        assertEquals(15, frame.chargingDeciAmps[1]);
+        assertEquals(200, frame.chargerDeciTemps[0]);
+        assertEquals(81, frame.capacity[1]);
+        assertEquals(BmsFrame.ALL_SECTIONS, frame.sections());
+    }
+
+    @Test
+    public void decode_trailingSemicolonAfterLists() {
+        String frameWithSemicolons = GOOD.replace("375", "375;").replace("Capacity:80;81", "Capacity:80;81;");
+        assertEquals(FrameValidator.OK, schema.decode(frameWithSemicolons, frame, false));
+        // not after a section with a fixed count
+        assertEquals(FrameValidator.BAD_LAYOUT, schema.decode(GOOD.replace("-125", "-125;"), frame, false));
+    }
+
+    @Test
+    public void decode_lenientSkipsWhatStrictRejects() {
+        String extraValue = GOOD.replace("375", "375;376");
+        assertEquals(FrameValidator.BAD_LAYOUT, schema.decode(extraValue, frame, false));
+        assertEquals(FrameValidator.OK, schema.decode(extraValue, frame, true));
+        assertEquals(3750, frame.cellMillivolts[5]);
+
+        String trailer = GOOD + "Extra:1";
+        assertEquals(FrameValidator.BAD_LAYOUT, schema.decode(trailer, frame, false));
+        assertEquals(FrameValidator.OK, schema.decode(trailer, frame, true));
+
+        String plus = GOOD.replace("Capacity:80", "Capacity:+79");
+        assertEquals(FrameValidator.BAD_NUMBER, schema.decode(plus, frame, false));
+        assertEquals(FrameValidator.OK, schema.decode(plus, frame, true));
+        assertEquals(79, frame.capacity[0]);
+    }
+
+    @Test
+    public void decode_missingSection() {
+        String withoutTemps = GOOD.replace("CellTemp:20;21", "");
+        assertEquals(FrameValidator.BAD_LAYOUT, schema.decode(withoutTemps, frame, false));
+        assertEquals(FrameValidator.BAD_LAYOUT, schema.decode(withoutTemps, frame, true));
+        String withoutCapacity = GOOD.substring(0, GOOD.indexOf("Capacity"));
+        assertEquals(FrameValidator.TRUNCATED, schema.decode(withoutCapacity, frame, false));
+        assertEquals(FrameValidator.TRUNCATED, schema.decode(withoutCapacity, frame, true));
+        assertEquals(FrameValidator.BAD_LAYOUT, schema.decode(GOOD.replace("ChargerTemp", "ChargerTmp"), frame, true));
+    }
+
+    @Test
+    public void decode_countMismatch() {
+        String oneCellMissing = GOOD.replace("374;375", "374");
+        assertEquals(FrameValidator.BAD_LAYOUT, schema.decode(oneCellMissing, frame, false));
+        assertEquals(FrameValidator.BAD_LAYOUT, schema.decode(oneCellMissing, frame, true));
+        assertEquals(FrameValidator.TRUNCATED, schema.decode(GOOD.replace("Capacity:80;81", "Capacity:80;"), frame, false));
+        String twoDrivingAmperages = GOOD.replace("-125", "-125;7");
+        assertEquals(FrameValidator.BAD_LAYOUT, schema.decode(twoDrivingAmperages, frame, false));
+        assertEquals(FrameValidator.OK, schema.decode(twoDrivingAmperages, frame, true));
+        assertEquals(-125, frame.drivingDeciAmps);
+    }
+
+    @Test
+    public void decode_fixedCountsAndIgnoredSections() {
+        // a firmware sending 8 cell voltages for a battery with 6 cells and a section the app doesn't know
+        ProtocolSchema other = new ProtocolSchema(
+                new String[]{"Firmware", "CellVoltage", "Capacity"},
+                new String[]{"ignore", "cell_voltage", "capacity"},
+                new String[]{"1", "8", "blocks"},
+                new int[]{1, 1000, 1},
+                BLOCKS, CELLS_PER_BLOCK, TEMPS_PER_BLOCK);
+        assertEquals(11, other.valueCount());
+        assertEquals(BmsFrame.SECTION_CELL_VOLTAGES | BmsFrame.SECTION_CAPACITY, other.sections());
+        BmsFrame decoded = other.newFrame();
+        decoded.cellDeciTemps[0] = 123;
+        assertEquals(FrameValidator.OK, other.decode("Firmware:42CellVoltage:3700;3701;3702;3703;3704;3705;3706;3707Capacity:50;60",
+                decoded, false));
+        assertEquals(3700, decoded.cellMillivolts[0]);
+        assertEquals(3705, decoded.cellMillivolts[5]);
+        assertEquals(123, decoded.cellDeciTemps[0]); // not in the schema, keeps its value
+        assertEquals(60, decoded.capacity[1]);
+        assertEquals(other.sections(), decoded.sections());
+        assertEquals(FrameValidator.BAD_LAYOUT, other.decode("Firmware:42CellVoltage:3700;3701;3702;3703;3704;3705Capacity:50;60",
+                decoded, false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsMissingScale() {
+        new ProtocolSchema(new String[]{"CellVoltage", "Capacity"}, new String[]{"cell_voltage", "capacity"},
+                new String[]{"cells", "blocks"}, new int[]{100}, BLOCKS, CELLS_PER_BLOCK, TEMPS_PER_BLOCK);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsUnknownField() {
+        new ProtocolSchema(new String[]{"CellVoltage"}, new String[]{"cell_volts"},
+                new String[]{"cells"}, new int[]{100}, BLOCKS, CELLS_PER_BLOCK, TEMPS_PER_BLOCK);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsUnknownCount() {
+        new ProtocolSchema(new String[]{"CellVoltage"}, new String[]{"cell_voltage"},
+                new String[]{"modules"}, new int[]{100}, BLOCKS, CELLS_PER_BLOCK, TEMPS_PER_BLOCK);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsScaleZero() {
+        new ProtocolSchema(new String[]{"CellVoltage"}, new String[]{"cell_voltage"},
+                new String[]{"cells"}, new int[]{0}, BLOCKS, CELLS_PER_BLOCK, TEMPS_PER_BLOCK);
+    }
+}
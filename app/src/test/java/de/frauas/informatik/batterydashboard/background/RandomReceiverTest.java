@@ -0,0 +1,64 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the load mode of the RandomReceiver and checks that the same seed gives the same frames
+ * and that the frames follow the text protocol.
+ */
+public class RandomReceiverTest {
+    private static final int BLOCKS = 2;
+    private static final int CELLS_PER_BLOCK = 3;
+    private static final int TEMPS_PER_BLOCK = 1;
+    private static final int FRAMES = 200;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    @Test
+    public void loadMode_sameSeedSameFrames() throws InterruptedException {
+        List<String> first = frames(42, RandomReceiver.NoiseProfile.GAUSSIAN);
+        List<String> second = frames(42, RandomReceiver.NoiseProfile.GAUSSIAN);
+        assertEquals(FRAMES, first.size());
+        assertEquals(first, second);
+        assertNotEquals(first, frames(43, RandomReceiver.NoiseProfile.GAUSSIAN));
+    }
+
+    @Test
+    public void loadMode_framesFollowTheProtocol() throws InterruptedException {
+        FrameValidator validator = new FrameValidator(ProtocolSchema.textProtocol(BLOCKS, CELLS_PER_BLOCK, TEMPS_PER_BLOCK));
+        for (RandomReceiver.NoiseProfile noise : RandomReceiver.NoiseProfile.values()) {
+            for (String frame : frames(7, noise)) {
+                assertEquals(noise + ": " + frame, FrameValidator.OK, validator.validate(frame));
+            }
+        }
+    }
+
+    /**
+     * @return the first FRAMES frames of a receiver in load mode
+     */
+    private static List<String> frames(long seed, RandomReceiver.NoiseProfile noise) throws InterruptedException {
+        List<String> frames = new ArrayList<>();
+        RandomReceiver receiver = new RandomReceiver(seed, BLOCKS * CELLS_PER_BLOCK, BLOCKS * TEMPS_PER_BLOCK, BLOCKS,
+                noise, RandomReceiver.AS_FAST_AS_POSSIBLE);
+        receiver.setOnNewDataListener(packet -> {
+            synchronized (frames) {
+                if (frames.size() < FRAMES) frames.add(packet.toString()); // the StringBuilder is reused
+                if (frames.size() == FRAMES) frames.notifyAll();
+            }
+        });
+        receiver.startReadingFromFile(null, 0, null);
+        long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        synchronized (frames) {
+            while (frames.size() < FRAMES && System.currentTimeMillis() < end) frames.wait(100);
+        }
+        receiver.stop();
+        receiver.join();
+        synchronized (frames) {
+            return new ArrayList<>(frames);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the per reason counters of rejected frames in ReceiverStats.
+ */
+public class ReceiverStatsTest {
+
+    @Test
+    public void onRejected_countsPerReason() {
+        ReceiverStats stats = new ReceiverStats();
+        stats.reset();
+        stats.onRejected(FrameValidator.BAD_CRC);
+        stats.onRejected(FrameValidator.BAD_CRC);
+        stats.onRejected(FrameValidator.OUT_OF_RANGE);
+        assertEquals(2, stats.rejected(FrameValidator.BAD_CRC));
+        assertEquals(1, stats.rejected(FrameValidator.OUT_OF_RANGE));
+        assertEquals(0, stats.rejected(FrameValidator.TRUNCATED));
+        assertEquals(3, stats.rejectedTotal());
+        assertTrue(stats.toString(), stats.toString().endsWith("rejected: out of range 1 bad crc 2"));
+    }
+
+    @Test
+    public void reset_clearsTheCounters() {
+        ReceiverStats stats = new ReceiverStats();
+        stats.onRejected(FrameValidator.BAD_LAYOUT);
+        stats.onResync(7);
+        stats.reset();
+        assertEquals(0, stats.rejectedTotal());
+        assertEquals(0, stats.resyncs());
+        assertEquals(0, stats.skippedBytes());
+        assertFalse(stats.toString().contains("rejected"));
+    }
+}
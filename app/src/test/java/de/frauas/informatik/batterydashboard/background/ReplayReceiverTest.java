@@ -0,0 +1,101 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records the bytes fed into a StatReceiver with a StreamRecorder and replays the recording with a ReplayReceiver:
+ * the replay has to deliver the same frames as the live stream.
+ */
+public class ReplayReceiverTest {
+    private static final String STREAM = "CellVoltage:370;371;372CellTemp:20DrivingAmperage:5\r\nChargingAmperage:0ChargerTemp:25Capacity:80\n"
+            + "CellVoltage:371;372;373CellTemp:21DrivingAmperage:-12ChargingAmperage:0ChargerTemp:25Capacity:79\n"
+            + "garbage\n"
+            + "CellVoltage:372;373;374CellTemp:22DrivingAmperage:7ChargingAmperage:0ChargerTemp:26Capacity:78\n";
+
+    private File log;
+    private final List<String> live = new ArrayList<>();
+    private final List<String> replayed = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        log = File.createTempFile("bms", ".rec");
+    }
+
+    @After
+    public void tearDown() {
+        log.delete();
+    }
+
+    @Test
+    public void replay_deliversTheRecordedFrames() throws IOException {
+        record();
+        assertEquals(3, live.size());
+
+        ReplayReceiver replay = replay(log);
+        assertEquals(live, replayed);
+        assertEquals(3, replay.getStats().frames());
+        assertEquals(1, replay.getStats().resyncs()); // the garbage, like live
+    }
+
+    @Test
+    public void replay_stopsAtATruncatedRecord() throws IOException {
+        record();
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - 3); // the last read is cut off
+        }
+        replay(log);
+        assertEquals(live.subList(0, 2), replayed);
+    }
+
+    @Test
+    public void replay_rejectsOtherFiles() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.write(STREAM.getBytes(StandardCharsets.US_ASCII));
+        }
+        replay(log);
+        assertTrue(replayed.isEmpty());
+    }
+
+    /**
+     * feeds STREAM into a receiver with a recorder, in reads of 16 bytes (the last frame is in a read of its own)
+     */
+    private void record() throws IOException {
+        StatReceiver receiver = new StatReceiver();
+        receiver.setOnNewDataListener(packet -> live.add(packet.toString()));
+        receiver.setRecorder(new StreamRecorder(log));
+        receiver.prepare();
+        byte[] bytes = STREAM.getBytes(StandardCharsets.US_ASCII);
+        int lastFrame = STREAM.lastIndexOf(FrameAssembler.FRAME_START);
+        byte[] chunk = new byte[16];
+        for (int off = 0; off < lastFrame; off += chunk.length) {
+            int n = Math.min(chunk.length, lastFrame - off);
+            System.arraycopy(bytes, off, chunk, 0, n);
+            receiver.ingest(chunk, n);
+        }
+        byte[] last = new byte[bytes.length - lastFrame];
+        System.arraycopy(bytes, lastFrame, last, 0, last.length);
+        receiver.ingest(last, last.length);
+        receiver.stop(); // closes the recorder
+    }
+
+    private ReplayReceiver replay(File source) throws IOException {
+        ReplayReceiver replay = new ReplayReceiver(ReplayReceiver.AS_FAST_AS_POSSIBLE);
+        replay.setOnNewDataListener(packet -> replayed.add(packet.toString()));
+        replay.startReaderThread(source);
+        replay.join(); // the replay ends by itself at the end of the recording
+        assertFalse(replay.isRunning());
+        replay.stop();
+        return replay;
+    }
+}
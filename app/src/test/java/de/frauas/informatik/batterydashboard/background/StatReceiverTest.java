@@ -0,0 +1,112 @@
+package de.frauas.informatik.batterydashboard.background;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds binary frames into a StatReceiver (without a device, see ingest()) and checks that bad frames are counted
+ * with the reason they were rejected for and put in the quarantine, while the good ones are passed on.
+ */
+public class StatReceiverTest {
+    private static final int CELLS = 6;
+    private static final int TEMPS = 2;
+    private static final int BLOCKS = 2;
+
+    private final StatReceiver receiver = new StatReceiver();
+    private final List<Integer> delivered = new ArrayList<>(); // capacity of block 0 of every frame passed on
+
+    @Before
+    public void setUp() {
+        receiver.setProtocol(StatReceiver.Protocol.BINARY, new BmsFrame(CELLS, TEMPS, BLOCKS));
+        receiver.setValidator(new FrameValidator(ProtocolSchema.textProtocol(BLOCKS, CELLS / BLOCKS, TEMPS / BLOCKS)));
+        receiver.setOnNewDataListener(new StatReceiver.OnNewDataListener() {
+            @Override
+            public void onNewData(StringBuilder packetAsString) {
+                fail("binary frames only");
+            }
+
+            @Override
+            public void onNewFrame(BmsFrame frame) {
+                delivered.add(frame.capacity[0]);
+            }
+        });
+        receiver.prepare();
+    }
+
+    @After
+    public void tearDown() {
+        receiver.stop();
+    }
+
+    @Test
+    public void ingest_countsAndQuarantinesFramesWithWrongCrc() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        write(stream, frame(10));
+        byte[] broken = frame(20);
+        broken[broken.length - 1] ^= 0x01;
+        write(stream, broken);
+        write(stream, frame(30));
+        ingest(stream.toByteArray(), 7);
+
+        assertEquals(2, delivered.size());
+        assertEquals(10, (int) delivered.get(0));
+        assertEquals(30, (int) delivered.get(1));
+        assertEquals(1, receiver.getStats().rejected(FrameValidator.BAD_CRC));
+        assertEquals(1, receiver.getStats().rejectedTotal());
+        assertEquals(1, receiver.getQuarantine().size());
+        assertTrue(receiver.getQuarantine().toString().startsWith("bad crc"));
+    }
+
+    @Test
+    public void ingest_rejectsFramesWithTheStatusOfTheValidator() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] implausible = frame(40);
+        BmsFrame values = new BmsFrame(CELLS, TEMPS, BLOCKS);
+        BinaryFrameCodec.decode(implausible, 0, implausible.length, values);
+        values.cellMillivolts[2] = 9000;
+        BinaryFrameCodec.encode(values, implausible, 0);
+        write(stream, implausible);
+        write(stream, frame(50));
+        ingest(stream.toByteArray(), stream.size());
+
+        assertEquals(1, delivered.size());
+        assertEquals(50, (int) delivered.get(0));
+        assertEquals(1, receiver.getStats().rejected(FrameValidator.OUT_OF_RANGE));
+        assertEquals(1, receiver.getStats().rejectedTotal());
+        assertTrue(receiver.getQuarantine().toString().startsWith("out of range"));
+    }
+
+    private void ingest(byte[] bytes, int chunk) {
+        byte[] buf = new byte[chunk];
+        for (int off = 0; off < bytes.length; off += chunk) {
+            int n = Math.min(chunk, bytes.length - off);
+            System.arraycopy(bytes, off, buf, 0, n);
+            receiver.ingest(buf, n);
+        }
+    }
+
+    private static void write(ByteArrayOutputStream stream, byte[] frame) {
+        stream.write(frame, 0, frame.length);
+    }
+
+    private static byte[] frame(int capacity) {
+        BmsFrame frame = new BmsFrame(CELLS, TEMPS, BLOCKS);
+        for (int i = 0; i < CELLS; i++) frame.cellMillivolts[i] = 3700 + i;
+        for (int i = 0; i < TEMPS; i++) frame.cellDeciTemps[i] = 200 + i;
+        frame.drivingDeciAmps = 50;
+        for (int i = 0; i < BLOCKS; i++) {
+            frame.chargerDeciTemps[i] = 250;
+            frame.capacity[i] = capacity;
+        }
+        byte[] buf = new byte[BinaryFrameCodec.frameLength(CELLS, TEMPS, BLOCKS)];
+        BinaryFrameCodec.encode(frame, buf, 0);
+        return buf;
+    }
+}
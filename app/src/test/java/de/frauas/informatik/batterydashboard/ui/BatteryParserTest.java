@@ -0,0 +1,188 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import de.frauas.informatik.batterydashboard.background.BmsFrame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static de.frauas.informatik.batterydashboard.background.StatReceiver.AMPERAGE_SCALE;
+import static de.frauas.informatik.batterydashboard.background.StatReceiver.TEMPERATURE_SCALE;
+import static de.frauas.informatik.batterydashboard.background.StatReceiver.VOLTAGE_SCALE;
+import static org.junit.Assert.*;
+
+/**
+ * Compares the single pass parser of Battery.setValues(CharSequence) with the old parser (indexOf/substring/split),
+ * which is kept here as reference, on a corpus of text frames.
+ */
+public class BatteryParserTest {
+    private static final int BLOCKS = 4;
+    private static final int CELLS_PER_BLOCK = 15;
+    private static final int TEMPS_PER_BLOCK = 5;
+    private static final int CELLS_PER_THERMOMETER = 3;
+
+    @Test
+    public void setValues_sameResultsAsOldParser() {
+        for (String frame : corpus()) {
+            OldResult expected = oldSetValues(new StringBuilder(frame));
+            Battery actual = newBattery();
+            actual.setValues(new StringBuilder(frame));
+            assertSameValues(frame, expected, actual);
+        }
+    }
+
+    @Test
+    public void setValues_reusedBatteryOverwritesAllValues() {
+        Battery actual = newBattery();
+        for (String frame : corpus()) {
+            OldResult expected = oldSetValues(new StringBuilder(frame));
+            actual.setValues(frame);
+            assertSameValues(frame, expected, actual);
+        }
+    }
+
+    @Test
+    public void setValues_ignoresValuesOfCellsTheBatteryDoesntHave() {
+        Random rand = new Random(7);
+        String frame = frame(rand, BLOCKS * CELLS_PER_BLOCK + 3, BLOCKS * TEMPS_PER_BLOCK + 2, true);
+        OldResult expected = oldSetValues(new StringBuilder(frame));
+        Battery actual = newBattery();
+        actual.setValues(frame);
+        assertSameValues(frame, expected, actual);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void setValues_throwsOnTruncatedFrame() {
+        String frame = frame(new Random(3), BLOCKS * CELLS_PER_BLOCK, BLOCKS * TEMPS_PER_BLOCK, true);
+        newBattery().setValues(frame.substring(0, frame.indexOf("DrivingAmperage:") + 18));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void setValues_throwsOnMissingValue() {
+        newBattery().setValues(frame(new Random(5), BLOCKS * CELLS_PER_BLOCK - 1, BLOCKS * TEMPS_PER_BLOCK, false));
+    }
+
+    @Test
+    public void setValues_keepsTenthOfChargerTemperature() {
+        BmsFrame frame = new BmsFrame(BLOCKS * CELLS_PER_BLOCK, BLOCKS * TEMPS_PER_BLOCK, BLOCKS);
+        for (int b = 0; b < BLOCKS; b++) frame.chargerDeciTemps[b] = 253 + b;
+        Battery actual = newBattery();
+        actual.setValues(frame);
+        float[] temps = actual.getChargerTemperatures();
+        for (int b = 0; b < BLOCKS; b++) {
+            assertEquals((253 + b) / 10f, temps[b], 0.001f);
+            assertEquals(25, actual.getBlock(b).chargerTemp);
+        }
+    }
+
+    private static Battery newBattery() {
+        return new Battery(BLOCKS, CELLS_PER_BLOCK, TEMPS_PER_BLOCK, CELLS_PER_THERMOMETER);
+    }
+
+    private static void assertSameValues(String frame, OldResult expected, Battery actual) {
+        assertEquals(frame, expected.drivingAmperage, actual.drivingAmperage(), 0f);
+        for (int b = 0; b < BLOCKS; b++) {
+            Battery.Block block = actual.getBlock(b);
+            for (int j = 0; j < CELLS_PER_BLOCK; j++) {
+                assertEquals(frame, expected.cellVoltages[b][j], actual.cellVoltage(block.firstCell + j), 0f);
+            }
+            for (int j = 0; j < TEMPS_PER_BLOCK; j++) {
+                assertEquals(frame, expected.cellTemps[b][j], actual.cellTemp(block.firstTemp + j), 0f);
+            }
+            assertEquals(frame, expected.chargingAmperages[b], block.chargingAmperage, 0f);
+            assertEquals(frame, expected.chargerTemps[b], block.chargerTemp);
+            assertEquals(frame, expected.capacities[b], block.capacity);
+        }
+    }
+
+    /**
+     * frames like the RandomReceiver and the BMS send them: with and without trailing ';', negative amperages and temperatures,
+     * numbers with leading zeros and a '+'
+     */
+    private static List<String> corpus() {
+        List<String> frames = new ArrayList<>();
+        Random rand = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            frames.add(frame(rand, BLOCKS * CELLS_PER_BLOCK, BLOCKS * TEMPS_PER_BLOCK, i % 2 == 0));
+        }
+        frames.add(frames.get(0).replace(":3", ":+3"));
+        frames.add(frames.get(1).replace(";3", ";0003"));
+        frames.add(frames.get(2).replace("DrivingAmperage:", "DrivingAmperage:-"));
+        return frames;
+    }
+
+    private static String frame(Random rand, int cells, int temps, boolean trailingSemicolon) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("CellVoltage:");
+        values(sb, rand, cells, 250, 420, trailingSemicolon);
+        sb.append("CellTemp:");
+        values(sb, rand, temps, -20, 60, trailingSemicolon);
+        sb.append("DrivingAmperage:").append(rand.nextInt(4000) - 1000);
+        sb.append("ChargingAmperage:");
+        values(sb, rand, BLOCKS, rand.nextBoolean() ? -5 : 0, rand.nextBoolean() ? 300 : 0, trailingSemicolon);
+        sb.append("ChargerTemp:");
+        values(sb, rand, BLOCKS, -10, 80, trailingSemicolon);
+        sb.append("Capacity:");
+        values(sb, rand, BLOCKS, 0, 100, trailingSemicolon);
+        return sb.toString();
+    }
+
+    private static void values(StringBuilder sb, Random rand, int count, int min, int max, boolean trailingSemicolon) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(';');
+            sb.append(min + rand.nextInt(max - min + 1));
+        }
+        if (trailingSemicolon) sb.append(';');
+    }
+
+    /**
+     * values of a frame as the old parser set them in the blocks
+     */
+    private static class OldResult {
+        float drivingAmperage;
+        float[][] cellVoltages = new float[BLOCKS][CELLS_PER_BLOCK];
+        int[][] cellTemps = new int[BLOCKS][TEMPS_PER_BLOCK];
+        float[] chargingAmperages = new float[BLOCKS];
+        int[] chargerTemps = new int[BLOCKS];
+        int[] capacities = new int[BLOCKS];
+    }
+
+    /**
+     * the parser of Battery.setValues(StringBuilder) before it was replaced by the single pass parser
+     */
+    private static OldResult oldSetValues(StringBuilder msg) {
+        String[] cellVoltage =
+                msg.substring(msg.indexOf("CellVoltage:")+12, msg.indexOf("CellTemp:")).split(";");
+        String[] cellTemp =
+                msg.substring(msg.indexOf("CellTemp:")+9, msg.indexOf("DrivingAmperage:")).split(";");
+        String drivingAmperage =
+                msg.substring(msg.indexOf("DrivingAmperage:")+16, msg.indexOf("ChargingAmperage:"));
+        String[] chargingAmperage =
+                msg.substring(msg.indexOf("ChargingAmperage:")+17, msg.indexOf("ChargerTemp:")).split(";");
+        String[] chargerTemp =
+                msg.substring(msg.indexOf("ChargerTemp:")+12,msg.indexOf("Capacity:")).split(";");
+        String[] capacity =
+                msg.substring(msg.indexOf("Capacity:")+9).split(";");
+
+        OldResult result = new OldResult();
+        result.drivingAmperage = Integer.parseInt(drivingAmperage)/10f;
+        for (int b = 0; b < BLOCKS; b++) {
+            int j = 0;
+            for(int i = b*TEMPS_PER_BLOCK; i < b*TEMPS_PER_BLOCK+TEMPS_PER_BLOCK; i++){
+                result.cellTemps[b][j] = Integer.parseInt(cellTemp[i]) / TEMPERATURE_SCALE;
+                j++;
+            }
+            j = 0;
+            for(int i = b*CELLS_PER_BLOCK; i < b*CELLS_PER_BLOCK+CELLS_PER_BLOCK; i++){
+                result.cellVoltages[b][j] = Float.parseFloat(cellVoltage[i]) / VOLTAGE_SCALE;
+                j++;
+            }
+            result.chargingAmperages[b] = Float.parseFloat(chargingAmperage[b]) / AMPERAGE_SCALE;
+            result.chargerTemps[b] = Integer.parseInt(chargerTemp[b]);
+            result.capacities[b] = Integer.parseInt(capacity[b]);
+        }
+        return result;
+    }
+}
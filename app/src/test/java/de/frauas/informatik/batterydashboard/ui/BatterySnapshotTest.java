@@ -0,0 +1,148 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import de.frauas.informatik.batterydashboard.background.BmsFrame;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Publishes frames from a writer thread while the test thread reads snapshots like the UI does on every update,
+ * and checks that all values read from one snapshot belong to the same frame (the one of its frameSequence()),
+ * even while the writer keeps publishing.
+ */
+public class BatterySnapshotTest {
+    private static final int BLOCKS = 2;
+    private static final int CELLS_PER_BLOCK = 3;
+    private static final int TEMPS_PER_BLOCK = 1;
+    private static final int CELLS_PER_THERMOMETER = 3;
+    private static final int TICKS = 20000;
+
+    private static Battery newBattery() {
+        return new Battery(BLOCKS, CELLS_PER_BLOCK, TEMPS_PER_BLOCK, CELLS_PER_THERMOMETER, () -> 1_000_000_000L);
+    }
+
+    @Test
+    public void snapshot_readsOneFrameWhileTheWriterPublishes() throws InterruptedException {
+        Battery battery = newBattery();
+        Writer writer = new Writer(battery);
+        writer.start();
+        long seen = 0;
+        try {
+            for (int tick = 0; tick < TICKS; tick++) {
+                Battery.Snapshot s = battery.snapshot();
+                long sequence = s.frameSequence();
+                if (s.frameNanos() == 0) continue; // no frame yet (the battery publishes its empty state when it's made)
+                assertCoherent(s, sequence);
+                Thread.yield(); // the writer publishes in between, the snapshot must not change
+                assertCoherent(s, sequence);
+                assertEquals(sequence, s.frameSequence());
+                seen = sequence;
+            }
+        } finally {
+            writer.finish();
+        }
+        assertNull(writer.error.get());
+        assertTrue("the writer published nothing", seen > 0);
+    }
+
+    @Test
+    public void fleetSnapshot_readsOneFrameOfEveryPack() throws InterruptedException {
+        Battery first = newBattery();
+        Battery second = newBattery();
+        BatteryFleet fleet = new BatteryFleet(new DistanceMeter(2_000_000_000L), first, second);
+        Writer firstWriter = new Writer(first);
+        Writer secondWriter = new Writer(second);
+        firstWriter.start();
+        secondWriter.start();
+        float[] minMaxAvrg = new float[3];
+        try {
+            for (int tick = 0; tick < TICKS; tick++) {
+                BatteryFleet.Snapshot s = fleet.snapshot();
+                long firstSequence = s.pack(0).frameSequence();
+                long secondSequence = s.pack(1).frameSequence();
+                if (s.pack(0).frameNanos() == 0 || s.pack(1).frameNanos() == 0) continue;
+                Thread.yield();
+                assertCoherent(s.pack(0), firstSequence);
+                assertCoherent(s.pack(1), secondSequence);
+                assertEquals(firstSequence + secondSequence, s.frameSequence());
+                long firstFrame = firstSequence - 1, secondFrame = secondSequence - 1;
+                assertEquals(Math.min(capacity(firstFrame), capacity(secondFrame)), s.minCapacity(), 0);
+                s.getCellVoltages(minMaxAvrg);
+                assertEquals(Math.min(millivolts(firstFrame), millivolts(secondFrame)) / 1000f, minMaxAvrg[0], 1e-6);
+                assertEquals(Math.max(millivolts(firstFrame), millivolts(secondFrame)) / 1000f, minMaxAvrg[1], 1e-6);
+            }
+        } finally {
+            firstWriter.finish();
+            secondWriter.finish();
+        }
+        assertNull(firstWriter.error.get());
+        assertNull(secondWriter.error.get());
+        assertSame(first, fleet.getPack(0));
+    }
+
+    /**
+     * the values of frame n (see Writer) are all derived from n, its sequence is n + 1 (the empty state is the first one)
+     */
+    private static void assertCoherent(Battery.Snapshot s, long sequence) {
+        long n = sequence - 1;
+        float volts = millivolts(n) / 1000f;
+        for (int i = 0; i < BLOCKS * CELLS_PER_BLOCK; i++) {
+            assertEquals("cell " + i + " of frame " + n, volts, s.cellVoltage(i), 1e-6);
+        }
+        float[] minMaxAvrg = s.getCellVoltages(new float[3]);
+        assertEquals(volts, minMaxAvrg[0], 1e-6);
+        assertEquals(volts, minMaxAvrg[1], 1e-6);
+        assertEquals(volts, minMaxAvrg[2], 1e-6);
+        assertEquals("capacity of frame " + n, capacity(n), s.capacity(), 0);
+        assertEquals(temperature(n) / 10f, s.cellTemp(0), 1e-6);
+    }
+
+    private static int millivolts(long n) {
+        return 3000 + 10 * (int) (n % 50); // multiples of 10 mV, the average is rounded to 0.01 V
+    }
+
+    private static int capacity(long n) {
+        return (int) (n % 100);
+    }
+
+    private static int temperature(long n) {
+        return 100 + (int) (n % 200);
+    }
+
+    /**
+     * sets frame 1, 2, 3... until finish(), the n-th frame has the values of n
+     */
+    private static class Writer extends Thread {
+        private final Battery battery;
+        private final BmsFrame frame = new BmsFrame(BLOCKS * CELLS_PER_BLOCK, BLOCKS * TEMPS_PER_BLOCK, BLOCKS);
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private volatile boolean running = true;
+
+        Writer(Battery battery) {
+            this.battery = battery;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (long n = 1; running; n++) {
+                    Arrays.fill(frame.cellMillivolts, millivolts(n));
+                    Arrays.fill(frame.cellDeciTemps, temperature(n));
+                    Arrays.fill(frame.capacity, capacity(n));
+                    battery.setValues(frame);
+                }
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        }
+
+        void finish() throws InterruptedException {
+            running = false;
+            join();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import de.frauas.informatik.batterydashboard.background.BmsFrame;
+import de.frauas.informatik.batterydashboard.background.FrameValidator;
+import de.frauas.informatik.batterydashboard.background.ProtocolSchema;
+import de.frauas.informatik.batterydashboard.background.StatReceiver;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sets frames at given times (injected clock) and checks the age of the sections and when they get stale
+ * (max_data_age, 2000 ms in the test battery).
+ */
+public class BatteryStalenessTest {
+    private static final int BLOCKS = 2;
+    private static final int CELLS_PER_BLOCK = 3;
+    private static final int TEMPS_PER_BLOCK = 1;
+    private static final int CELLS_PER_THERMOMETER = 3;
+    private static final long MS = 1_000_000L;
+
+    private long now = 5000 * MS;
+    private final Battery battery = new Battery(BLOCKS, CELLS_PER_BLOCK, TEMPS_PER_BLOCK, CELLS_PER_THERMOMETER, () -> now);
+
+    @Test
+    public void ageMillis_withoutFrameIsStale() {
+        assertEquals(Long.MAX_VALUE, battery.ageMillis(BmsFrame.SECTION_CELL_VOLTAGES));
+        assertTrue(battery.isStale(BmsFrame.SECTION_CELL_VOLTAGES));
+        assertEquals(0, battery.ageMillis(0)); // no sections needed
+        assertFalse(battery.isStale(0));
+    }
+
+    @Test
+    public void isStale_afterMaxDataAge() {
+        battery.setValues(fullFrame());
+        now += 1500 * MS;
+        assertEquals(1500, battery.ageMillis(BmsFrame.ALL_SECTIONS));
+        assertFalse(battery.isStale(BmsFrame.ALL_SECTIONS));
+        now += 500 * MS;
+        assertFalse(battery.isStale(BmsFrame.ALL_SECTIONS)); // exactly max_data_age
+        now += 1 * MS;
+        assertTrue(battery.isStale(BmsFrame.ALL_SECTIONS));
+    }
+
+    @Test
+    public void ageMillis_perSection() {
+        battery.setValues(fullFrame());
+        now += 1800 * MS;
+        // a protocol without the charger temperatures only refreshes the other sections
+        battery.setValues(frameWithoutChargerTemps());
+        now += 500 * MS;
+        assertEquals(500, battery.ageMillis(BmsFrame.SECTION_CELL_VOLTAGES));
+        assertEquals(2300, battery.ageMillis(BmsFrame.SECTION_CHARGER_TEMPS));
+        assertFalse(battery.isStale(BmsFrame.SECTION_CELL_VOLTAGES | BmsFrame.SECTION_CAPACITY));
+        assertTrue(battery.isStale(BmsFrame.SECTION_CELL_VOLTAGES | BmsFrame.SECTION_CHARGER_TEMPS));
+        assertEquals(now - 500 * MS, battery.frameNanos());
+    }
+
+    @Test
+    public void applyDelta_refreshesAllSections() {
+        battery.setValues(frameWithoutChargerTemps()); // charger temps were never set
+        assertTrue(battery.isStale(BmsFrame.SECTION_CHARGER_TEMPS));
+        now += 3000 * MS;
+        battery.applyDelta(fullFrame());
+        assertEquals(0, battery.ageMillis(BmsFrame.ALL_SECTIONS));
+    }
+
+    private static BmsFrame fullFrame() {
+        BmsFrame frame = new BmsFrame(BLOCKS * CELLS_PER_BLOCK, BLOCKS * TEMPS_PER_BLOCK, BLOCKS);
+        Arrays.fill(frame.cellMillivolts, 3700);
+        Arrays.fill(frame.cellDeciTemps, 200);
+        Arrays.fill(frame.capacity, 80);
+        return frame;
+    }
+
+    private static BmsFrame frameWithoutChargerTemps() {
+        ProtocolSchema schema = new ProtocolSchema(
+                new String[]{"CellVoltage", "CellTemp", "DrivingAmperage", "ChargingAmperage", "ChargerTemp", "Capacity"},
+                new String[]{"cell_voltage", "cell_temp", "driving_amperage", "charging_amperage", "ignore", "capacity"},
+                new String[]{"cells", "thermometers", "1", "blocks", "blocks", "blocks"},
+                new int[]{StatReceiver.VOLTAGE_SCALE, 1, StatReceiver.AMPERAGE_SCALE, StatReceiver.AMPERAGE_SCALE, 1, 1},
+                BLOCKS, CELLS_PER_BLOCK, TEMPS_PER_BLOCK);
+        BmsFrame frame = schema.newFrame();
+        assertEquals(FrameValidator.OK, schema.decode(
+                "CellVoltage:370;371;372;373;374;375CellTemp:20;21DrivingAmperage:5ChargingAmperage:0;0ChargerTemp:0;0Capacity:80;81",
+                frame, false));
+        assertEquals(0, frame.sections() & BmsFrame.SECTION_CHARGER_TEMPS);
+        return frame;
+    }
+}
@@ -0,0 +1,119 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the one pass statistics of CellStats (Welford) with the two pass formulas on random cell voltages.
+ */
+public class CellStatsTest {
+    private static final int CELLS = 8;
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void trip_sameAsTwoPass() {
+        Random rand = new Random(1);
+        int frames = 5000;
+        short[][] samples = new short[frames][CELLS];
+        CellStats stats = new CellStats(CELLS, 60 * SECOND, 2 * SECOND);
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < CELLS; i++) {
+                // a big offset with little noise is where the naive sum of squares goes wrong
+                samples[f][i] = (short) (3600 + i * 5 + rand.nextInt(20));
+            }
+            stats.add((f + 1) * SECOND / 10, samples[f]);
+        }
+        assertEquals(frames, stats.count());
+
+        float[] means = new float[CELLS];
+        float[] stdDevs = new float[CELLS];
+        float[] deviations = new float[CELLS];
+        stats.means(CellStats.TRIP, means);
+        stats.stdDevs(CellStats.TRIP, stdDevs);
+        stats.deviations(CellStats.TRIP, deviations);
+        for (int i = 0; i < CELLS; i++) {
+            double mean = 0;
+            double devMean = 0;
+            for (short[] s : samples) {
+                mean += s[i];
+                devMean += s[i] - packMean(s);
+            }
+            mean /= frames;
+            devMean /= frames;
+            double squares = 0;
+            for (short[] s : samples) squares += (s[i] - mean) * (s[i] - mean);
+            double stdDev = Math.sqrt(squares / (frames - 1));
+
+            assertEquals("mean " + i, mean / 1000, means[i], 1e-6);
+            assertEquals("std dev " + i, stdDev / 1000, stdDevs[i], 1e-7);
+            assertEquals("deviation " + i, devMean, deviations[i], 1e-4);
+        }
+    }
+
+    @Test
+    public void trip_noDeviationBeforeTheSecondFrame() {
+        CellStats stats = new CellStats(CELLS, 60 * SECOND, 2 * SECOND);
+        stats.add(SECOND, constant(3700));
+        float[] stdDevs = new float[CELLS];
+        stats.stdDevs(CellStats.TRIP, stdDevs);
+        for (float s : stdDevs) assertEquals(0f, s, 0f);
+    }
+
+    @Test
+    public void window_followsTheNewValues() {
+        CellStats stats = new CellStats(CELLS, 10 * SECOND, 2 * SECOND);
+        long t = 0;
+        for (int s = 0; s < 100; s++) stats.add(t += SECOND, constant(3700));
+        for (int s = 0; s < 200; s++) stats.add(t += SECOND, constant(3500)); // 20 time constants
+        float[] means = new float[CELLS];
+        float[] stdDevs = new float[CELLS];
+        stats.means(CellStats.WINDOW, means);
+        stats.stdDevs(CellStats.WINDOW, stdDevs);
+        for (int i = 0; i < CELLS; i++) {
+            assertEquals(3.5f, means[i], 1e-5f);
+            assertEquals(0f, stdDevs[i], 1e-5f);
+        }
+        float[] tripMeans = new float[CELLS];
+        stats.means(CellStats.TRIP, tripMeans);
+        assertEquals((100 * 3.7f + 200 * 3.5f) / 300, tripMeans[0], 1e-5f);
+    }
+
+    @Test
+    public void imbalance_rmsOfTheDeviations() {
+        CellStats stats = new CellStats(4, 10 * SECOND, 2 * SECOND);
+        short[] mv = {3690, 3700, 3700, 3710};
+        for (int s = 1; s <= 10; s++) stats.add(s * SECOND, mv);
+        assertEquals(Math.sqrt(200 / 4.0), stats.imbalance(), 1e-9);
+        float[] deviations = new float[4];
+        stats.deviations(CellStats.WINDOW, deviations);
+        assertEquals(-10f, deviations[0], 1e-4f);
+        assertEquals(10f, deviations[3], 1e-4f);
+    }
+
+    @Test
+    public void resetTrip_startsAgain() {
+        CellStats stats = new CellStats(CELLS, 60 * SECOND, 2 * SECOND);
+        stats.add(SECOND, constant(3000));
+        stats.resetTrip();
+        stats.add(2 * SECOND, constant(3600));
+        float[] means = new float[CELLS];
+        stats.means(CellStats.TRIP, means);
+        assertEquals(1, stats.count());
+        assertEquals(3.6f, means[0], 1e-6f);
+    }
+
+    private static double packMean(short[] mv) {
+        double sum = 0;
+        for (short v : mv) sum += v;
+        return sum / mv.length;
+    }
+
+    private static short[] constant(int mv) {
+        short[] values = new short[CELLS];
+        for (int i = 0; i < CELLS; i++) values[i] = (short) mv;
+        return values;
+    }
+}
@@ -0,0 +1,78 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import de.frauas.informatik.batterydashboard.enums.ChargeState;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs frame sequences through the ChargeStateMachine (a frame every 100 ms) and checks the states and when they are taken.
+ */
+public class ChargeStateMachineTest {
+    private static final long MILLI = 1_000_000L;
+    private static final int THRESHOLD = 5;  // 1/10 A
+    private static final int FULL = 100;     // %
+
+    private final ChargeStateMachine machine = new ChargeStateMachine(THRESHOLD, FULL, 1000 * MILLI);
+    private long time = 1000 * MILLI;
+
+    @Test
+    public void update_newStateAfterTheDebounce() {
+        assertEquals(ChargeState.IDLE, frames(1000, 0, 200, 50)); // frames from 0 to 900 ms
+        assertEquals(ChargeState.DRIVING, frames(100, 0, 200, 50));
+    }
+
+    @Test
+    public void update_interruptionStartsTheDebounceAgain() {
+        frames(600, 0, 200, 50);
+        frames(100, 0, 0, 50); // one frame without current
+        assertEquals(ChargeState.IDLE, frames(1000, 0, 200, 50));
+        assertEquals(ChargeState.DRIVING, frames(100, 0, 200, 50));
+    }
+
+    @Test
+    public void update_singleFrameDoesntStopCharging() {
+        frames(1100, 100, 0, 50);
+        assertEquals(ChargeState.CHARGING, machine.state());
+        for (int i = 0; i < 10; i++) {
+            frames(100, 0, 0, 50);     // charger pauses for a frame
+            frames(500, 100, 0, 50);
+        }
+        assertEquals(ChargeState.CHARGING, machine.state());
+    }
+
+    @Test
+    public void update_chargeCompleteUntilTheCarDrives() {
+        frames(1100, 100, 0, 90);
+        assertEquals(ChargeState.CHARGE_COMPLETE, frames(1100, 0, 0, FULL));
+        assertEquals(ChargeState.CHARGE_COMPLETE, frames(5000, 0, 3, FULL)); // small currents count as none
+        assertEquals(ChargeState.DRIVING, frames(1100, 0, 200, FULL));
+    }
+
+    @Test
+    public void update_chargerDisconnectedBeforeFull() {
+        frames(1100, 100, 0, 90);
+        assertEquals(ChargeState.IDLE, frames(1100, 0, 0, 90));
+    }
+
+    @Test
+    public void update_regen() {
+        assertEquals(ChargeState.REGEN, frames(1100, 0, -50, 50));
+        assertEquals(ChargeState.REGEN, frames(500, 0, -5, 50)); // within the threshold, not yet idle
+        assertEquals(ChargeState.IDLE, frames(600, 0, -5, 50));
+    }
+
+    /**
+     * sends the same frame every 100 ms for the given time
+     * @return the state after the last frame
+     */
+    private ChargeState frames(long millis, int chargingDeciAmps, int drivingDeciAmps, int capacity) {
+        ChargeState state = machine.state();
+        for (long t = 0; t < millis; t += 100) {
+            state = machine.update(time, chargingDeciAmps, drivingDeciAmps, capacity);
+            time += 100 * MILLI;
+        }
+        return state;
+    }
+}
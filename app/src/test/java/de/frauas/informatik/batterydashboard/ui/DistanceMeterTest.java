@@ -0,0 +1,74 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Integrates speed samples with the DistanceMeter and checks the millimetres, also for steps of less than a millimetre.
+ */
+public class DistanceMeterTest {
+    private static final long MILLI = 1_000_000L;
+    private static final long SECOND = 1000 * MILLI;
+
+    @Test
+    public void onSpeed_constantSpeed() {
+        DistanceMeter meter = new DistanceMeter(2 * SECOND);
+        for (int i = 0; i <= 3600; i++) meter.onSpeed(SECOND + i * SECOND, 36); // 1 h with 36 km/h
+        assertEquals(36_000_000, meter.tripMillimetres());
+        assertEquals(36_000_000, meter.lifetimeMillimetres());
+        assertEquals(36f, meter.tripKm(), 0.001f);
+    }
+
+    @Test
+    public void onSpeed_restsOfMillimetresAreKept() {
+        DistanceMeter meter = new DistanceMeter(2 * SECOND);
+        // 50 Hz with 0.1 km/h: 0.56 mm per sample, would be 0 if every sample was rounded down
+        for (int i = 0; i <= 50 * 3600; i++) meter.onSpeed(SECOND + i * 20 * MILLI, 0.1f);
+        assertEquals(100_000, meter.tripMillimetres(), 1);
+    }
+
+    @Test
+    public void onSpeed_trapezoidAndReverse() {
+        DistanceMeter meter = new DistanceMeter(2 * SECOND);
+        meter.onSpeed(SECOND, 0);
+        meter.onSpeed(2 * SECOND, 36);   // average 18 km/h for 1 s = 5 m
+        meter.onSpeed(3 * SECOND, -36);  // reversing counts as distance too
+        assertEquals(15_000, meter.tripMillimetres());
+    }
+
+    @Test
+    public void onSpeed_gapsAndLateSamplesAreNotCounted() {
+        DistanceMeter meter = new DistanceMeter(2 * SECOND);
+        meter.onSpeed(SECOND, 36);
+        meter.onSpeed(2 * SECOND, 36);   // 10 m
+        meter.onSpeed(12 * SECOND, 36);  // 10 s gap
+        meter.onSpeed(11 * SECOND, 36);  // late
+        meter.onSpeed(13 * SECOND, 36);  // 10 m
+        assertEquals(20_000, meter.tripMillimetres());
+    }
+
+    @Test
+    public void speedAt_interpolatesBetweenTheNewestSamples() {
+        DistanceMeter meter = new DistanceMeter(2 * SECOND);
+        assertTrue(Float.isNaN(meter.speedAt(SECOND)));
+        meter.onSpeed(SECOND, 40);
+        meter.onSpeed(2 * SECOND, 60);
+        assertEquals(50f, meter.speedAt(1500 * MILLI), 0.001f);
+        assertEquals(40f, meter.speedAt(SECOND / 2), 0.001f);
+        assertEquals(60f, meter.speedAt(3 * SECOND), 0.001f);
+        assertTrue(Float.isNaN(meter.speedAt(5 * SECOND))); // no recent sample
+    }
+
+    @Test
+    public void resetTrip_keepsTheLifetime() {
+        DistanceMeter meter = new DistanceMeter(2 * SECOND);
+        meter.setLifetimeMillimetres(123_456_789);
+        assertEquals(123.4f, meter.lifetimeKm(), 0.001f);
+        meter.onSpeed(SECOND, 36);
+        meter.onSpeed(2 * SECOND, 36);
+        meter.resetTrip();
+        assertEquals(0, meter.tripMillimetres());
+        assertEquals(123_466_789, meter.lifetimeMillimetres());
+    }
+}
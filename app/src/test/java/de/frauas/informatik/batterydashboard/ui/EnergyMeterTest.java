@@ -0,0 +1,91 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Integrates simple power curves with the EnergyMeter and compares the energy with the area computed by hand.
+ */
+public class EnergyMeterTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final long HOUR = 3600 * SECOND;
+    private static final double EPS = 1e-9;
+
+    @Test
+    public void add_constantPower() {
+        EnergyMeter meter = new EnergyMeter(2 * SECOND);
+        for (int s = 1; s <= 101; s++) meter.add(s * SECOND, 36); // 100 s with 36 kW = 1 kWh
+        assertEquals(1, meter.tripDriveKWh(), EPS);
+        assertEquals(0, meter.tripRegenKWh(), EPS);
+        assertEquals(36, meter.tripAverageKw(), EPS);
+        assertEquals(1, meter.sinceChargeKWh(), EPS);
+        assertEquals(36, meter.instantKw(), EPS);
+    }
+
+    @Test
+    public void add_rampIsATrapezoid() {
+        EnergyMeter meter = new EnergyMeter(2 * HOUR);
+        meter.add(HOUR, 10);
+        meter.add(2 * HOUR, 30);
+        assertEquals(20, meter.tripDriveKWh(), EPS);
+    }
+
+    @Test
+    public void add_signChangeIsSplitAtZero() {
+        EnergyMeter meter = new EnergyMeter(2 * HOUR);
+        meter.add(HOUR, 10);
+        meter.add(2 * HOUR, -10); // zero after half an hour: 2.5 kWh driving, 2.5 kWh regen
+        assertEquals(2.5, meter.tripDriveKWh(), EPS);
+        assertEquals(2.5, meter.tripRegenKWh(), EPS);
+        assertEquals(0, meter.tripKWh(), EPS);
+
+        meter.add(3 * HOUR, 30); // zero after a quarter of the hour: 1.25 kWh regen, 11.25 kWh driving
+        assertEquals(13.75, meter.tripDriveKWh(), EPS);
+        assertEquals(3.75, meter.tripRegenKWh(), EPS);
+    }
+
+    @Test
+    public void add_fromZeroToRegen() {
+        EnergyMeter meter = new EnergyMeter(2 * HOUR);
+        meter.add(HOUR, 0);
+        meter.add(2 * HOUR, -4);
+        assertEquals(0, meter.tripDriveKWh(), EPS);
+        assertEquals(2, meter.tripRegenKWh(), EPS);
+    }
+
+    @Test
+    public void add_gapIsNotIntegrated() {
+        EnergyMeter meter = new EnergyMeter(2 * SECOND);
+        meter.add(SECOND, 36);
+        meter.add(2 * SECOND, 36);         // 0.01 kWh
+        meter.add(102 * SECOND, 36);       // 100 s without frames
+        meter.add(103 * SECOND, 36);       // 0.01 kWh
+        assertEquals(0.02, meter.tripDriveKWh(), EPS);
+        assertEquals(36, meter.tripAverageKw(), EPS); // the gap isn't trip time either
+    }
+
+    @Test
+    public void add_lateFrameIsIgnored() {
+        EnergyMeter meter = new EnergyMeter(2 * SECOND);
+        meter.add(10 * SECOND, 36);
+        meter.add(9 * SECOND, 1000);
+        meter.add(10 * SECOND, 1000);
+        meter.add(11 * SECOND, 36);
+        assertEquals(0.01, meter.tripDriveKWh(), EPS);
+    }
+
+    @Test
+    public void reset_tripAndSinceChargeAreSeparate() {
+        EnergyMeter meter = new EnergyMeter(2 * SECOND);
+        meter.add(SECOND, 36);
+        meter.add(2 * SECOND, 36);
+        meter.resetTrip();
+        meter.add(3 * SECOND, 36);
+        assertEquals(0.01, meter.tripKWh(), EPS);
+        assertEquals(0.02, meter.sinceChargeKWh(), EPS);
+        meter.resetSinceCharge();
+        assertEquals(0, meter.sinceChargeKWh(), EPS);
+        assertEquals(0, meter.sinceChargeAverageKw(), EPS);
+    }
+}
@@ -0,0 +1,112 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the ring of the histories (MetricHistory and CellHistory): a full ring overwrites its oldest samples,
+ * and the copies of a range of time (binary search over the ring) give the right samples oldest first.
+ */
+public class HistoryRingTest {
+
+    @Test
+    public void append_overwritesTheOldestSamples() {
+        MetricHistory history = new MetricHistory(4);
+        for (int t = 1; t <= 6; t++) history.append(t, 10 * t);
+        assertEquals(4, history.size());
+        assertEquals(4, history.capacity());
+        assertEquals(6, history.latestNanos());
+        assertEquals(60, history.latest(), 0);
+
+        long[] nanos = new long[10];
+        float[] values = new float[10];
+        assertEquals(4, history.copyLatest(nanos, values));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 3, nanos[i]);
+            assertEquals(10 * (i + 3), values[i], 0);
+        }
+    }
+
+    @Test
+    public void copy_rangeOfTimeOverTheWraparound() {
+        MetricHistory history = new MetricHistory(8);
+        for (int t = 10; t <= 100; t += 10) history.append(t, t / 10f); // 10 and 20 are overwritten
+        long[] nanos = new long[8];
+        float[] values = new float[8];
+
+        assertEquals(4, history.copy(40, 70, nanos, values)); // both ends included
+        assertArrayEquals(new long[]{40, 50, 60, 70}, Arrays.copyOf(nanos, 4));
+        assertEquals(3, history.copy(35, 65, null, values)); // between the samples
+        assertEquals(4, values[0], 0);
+        assertEquals(6, values[2], 0);
+        assertEquals(3, history.copy(Long.MIN_VALUE, 50, nanos, values)); // from the oldest one still there
+        assertEquals(30, nanos[0]);
+        assertEquals(0, history.copy(0, 25, nanos, values));
+        assertEquals(0, history.copy(101, Long.MAX_VALUE, nanos, values));
+        assertEquals(0, history.copy(70, 40, nanos, values));
+    }
+
+    @Test
+    public void copy_newestSamplesIfTheArraysAreTooSmall() {
+        MetricHistory history = new MetricHistory(8);
+        for (int t = 1; t <= 8; t++) history.append(t, t);
+        long[] nanos = new long[3];
+        float[] values = new float[5];
+        assertEquals(3, history.copy(2, 7, nanos, values)); // the shorter array counts
+        assertArrayEquals(new long[]{5, 6, 7}, nanos);
+        assertEquals(5, values[0], 0);
+    }
+
+    @Test
+    public void copy_samplesWithTheSameTime() {
+        MetricHistory history = new MetricHistory(8);
+        history.append(1, 1);
+        for (int i = 0; i < 3; i++) history.append(5, 2 + i);
+        history.append(9, 5);
+        float[] values = new float[8];
+        assertEquals(3, history.copy(5, 5, null, values));
+        assertEquals(2, values[0], 0);
+        assertEquals(4, values[2], 0);
+    }
+
+    @Test
+    public void clear_emptiesTheRing() {
+        MetricHistory history = new MetricHistory(2);
+        history.append(1, 1);
+        history.append(2, 2);
+        history.append(3, 3);
+        history.clear();
+        assertEquals(0, history.size());
+        assertEquals(0, history.latestNanos());
+        assertTrue(Float.isNaN(history.latest()));
+        history.append(4, 4);
+        float[] values = new float[2];
+        assertEquals(1, history.copyLatest(null, values));
+        assertEquals(4, values[0], 0);
+    }
+
+    @Test
+    public void cellHistory_copiesOneCellOrOneSample() {
+        CellHistory history = new CellHistory(2, 3);
+        for (int t = 1; t <= 3; t++) {
+            history.append(t * 1000L, new short[]{(short) (3700 + t), (short) (3710 + t), (short) (3720 + t)});
+        }
+        assertEquals(2, history.size());
+        assertEquals(3, history.width());
+
+        long[] nanos = new long[2];
+        short[] cell = new short[2];
+        assertEquals(2, history.copyCell(1, 0, Long.MAX_VALUE, nanos, cell));
+        assertArrayEquals(new long[]{2000, 3000}, nanos);
+        assertArrayEquals(new short[]{3712, 3713}, cell);
+        assertEquals(1, history.copyCell(2, 2500, 3000, null, cell));
+        assertEquals(3723, cell[0]);
+
+        short[] row = new short[3];
+        assertEquals(2000, history.copySample(0, row)); // oldest after the wraparound
+        assertArrayEquals(new short[]{3702, 3712, 3722}, row);
+    }
+}
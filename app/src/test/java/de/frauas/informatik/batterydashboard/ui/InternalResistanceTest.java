@@ -0,0 +1,83 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds InternalResistance with synthetic cells (V = open circuit voltage - R * I, rounded to mV like the BMS does)
+ * and checks that the estimates converge to the R of every cell.
+ */
+public class InternalResistanceTest {
+    private static final int CELLS = 4;
+    private static final long MILLI = 1_000_000L;
+    private static final long MAX_GAP = 2000 * MILLI;
+
+    @Test
+    public void add_convergesToTheResistanceOfEveryCell() {
+        double[] r = {1.5, 2.0, 2.5, 4.0}; // mΩ
+        InternalResistance estimator = new InternalResistance(CELLS, 0.99, 20, MAX_GAP);
+        drive(estimator, new Random(1), r, 0, 500);
+        float[] result = new float[CELLS];
+        estimator.resistances(result);
+        for (int i = 0; i < CELLS; i++) {
+            assertEquals("cell " + i, r[i], result[i], 0.05 * r[i]);
+        }
+    }
+
+    @Test
+    public void add_followsAChangingResistance() {
+        double[] r = {2.0, 2.0, 2.0, 2.0};
+        InternalResistance estimator = new InternalResistance(CELLS, 0.99, 20, MAX_GAP);
+        Random rand = new Random(2);
+        long time = drive(estimator, rand, r, 0, 300);
+        r[2] = 3.0; // the cell gets warm or old
+        drive(estimator, rand, r, time, 1000);
+        float[] result = new float[CELLS];
+        estimator.resistances(result);
+        assertEquals(2.0, result[0], 0.1);
+        assertEquals(3.0, result[2], 0.15);
+    }
+
+    @Test
+    public void add_noEstimateWithoutSteps() {
+        InternalResistance estimator = new InternalResistance(CELLS, 0.99, 20, MAX_GAP);
+        short[] mv = {3700, 3700, 3700, 3700};
+        for (int f = 1; f <= 100; f++) estimator.add(f * 100 * MILLI, mv, 500 + f % 2 * 10); // 1 A steps, below min step
+        float[] result = new float[CELLS];
+        estimator.resistances(result);
+        assertEquals(0, estimator.updates());
+        for (float value : result) assertTrue(Float.isNaN(value));
+    }
+
+    @Test
+    public void add_framesAfterAGapAreNotCompared() {
+        InternalResistance estimator = new InternalResistance(CELLS, 0.99, 20, MAX_GAP);
+        estimator.add(100 * MILLI, new short[]{3700, 3700, 3700, 3700}, 0);
+        estimator.add(100 * MILLI + 2 * MAX_GAP, new short[]{3500, 3500, 3500, 3500}, 1000);
+        assertEquals(0, estimator.updates());
+        estimator.add(200 * MILLI + 2 * MAX_GAP, new short[]{3700, 3700, 3700, 3700}, 0);
+        assertEquals(1, estimator.updates());
+    }
+
+    /**
+     * drives with random current steps (a frame every 100 ms), the open circuit voltage goes down slowly
+     * @return time of the last frame
+     */
+    private static long drive(InternalResistance estimator, Random rand, double[] r, long time, int frames) {
+        short[] mv = new short[CELLS];
+        int deciAmps = 0;
+        for (int f = 0; f < frames; f++) {
+            if (rand.nextInt(3) == 0) deciAmps = rand.nextInt(2000) - 300; // -30..170 A
+            double ocv = 3900 - (time / MILLI) * 0.001; // 1 mV per second
+            for (int i = 0; i < CELLS; i++) {
+                mv[i] = (short) Math.round(ocv - r[i] * deciAmps / 10.0);
+            }
+            time += 100 * MILLI;
+            estimator.add(time, mv, deciAmps);
+        }
+        return time;
+    }
+}
@@ -0,0 +1,72 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds constant and changing drives into the RangeEstimator and compares the range with energy left / consumption per km.
+ */
+public class RangeEstimatorTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final double REFERENCE_WH_PER_KM = 150;
+
+    @Test
+    public void rangeKm_nanBeforeTheFirstFrame() {
+        assertTrue(Double.isNaN(new RangeEstimator(REFERENCE_WH_PER_KM, 2 * SECOND).rangeKm()));
+    }
+
+    @Test
+    public void add_referenceConsumptionWithoutSpeed() {
+        RangeEstimator estimator = new RangeEstimator(REFERENCE_WH_PER_KM, 2 * SECOND);
+        estimator.add(SECOND, 20, 30);
+        assertEquals(200, estimator.rangeKm(), 1e-9); // 30 kWh / 0.15 kWh/km
+    }
+
+    @Test
+    public void add_constantDrive() {
+        RangeEstimator estimator = new RangeEstimator(REFERENCE_WH_PER_KM, 2 * SECOND);
+        for (int s = 1; s <= 600; s++) {
+            estimator.addSpeed(s * SECOND, 60);
+            estimator.add(s * SECOND, 6, 15); // 6 kW at 60 km/h = 0.1 kWh/km
+        }
+        assertEquals(150, estimator.rangeKm(), 1e-6);
+    }
+
+    @Test
+    public void add_standingUsesTheReference() {
+        RangeEstimator estimator = new RangeEstimator(REFERENCE_WH_PER_KM, 2 * SECOND);
+        for (int s = 1; s <= 60; s++) {
+            estimator.addSpeed(s * SECOND, 0);
+            estimator.add(s * SECOND, 2, 15); // consumers while standing, no km
+        }
+        assertEquals(100, estimator.rangeKm(), 1e-6);
+    }
+
+    @Test
+    public void add_recuperationKeepsTheRangeFinite() {
+        RangeEstimator estimator = new RangeEstimator(REFERENCE_WH_PER_KM, 2 * SECOND);
+        for (int s = 1; s <= 60; s++) {
+            estimator.addSpeed(s * SECOND, 50);
+            estimator.add(s * SECOND, -20, 15);
+        }
+        assertEquals(15 / (0.2 * REFERENCE_WH_PER_KM / 1000), estimator.rangeKm(), 1e-6);
+    }
+
+    @Test
+    public void add_rangeIsSmoothed() {
+        RangeEstimator estimator = new RangeEstimator(REFERENCE_WH_PER_KM, 2 * SECOND);
+        estimator.add(SECOND, 0, 30);
+        estimator.add(2 * SECOND, 0, 15); // half the energy from one frame to the next
+        assertTrue(estimator.rangeKm() > 100 && estimator.rangeKm() < 200);
+        for (int s = 3; s <= 200; s++) estimator.add(s * SECOND, 0, 15);
+        assertEquals(100, estimator.rangeKm(), 1e-3);
+    }
+
+    @Test
+    public void add_emptyBatteryHasNoRange() {
+        RangeEstimator estimator = new RangeEstimator(REFERENCE_WH_PER_KM, 2 * SECOND);
+        estimator.add(SECOND, 10, -1);
+        assertEquals(0, estimator.rangeKm(), 1e-9);
+    }
+}
@@ -0,0 +1,156 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the buckets of a RollupTier (boundaries, late values, NaN, wraparound), the aggregates over several buckets
+ * and which tier Rollup.tierFor() picks for a time window.
+ */
+public class RollupTest {
+    private static final long S = 1_000_000_000L;
+
+    @Test
+    public void add_startsANewBucketAtTheBoundary() {
+        RollupTier tier = new RollupTier(S, 5, 1);
+        tier.add(0, new float[]{1});
+        tier.add(S / 2, new float[]{3});
+        tier.add(S - 1, new float[]{2});
+        assertEquals(1, tier.size());
+        tier.add(S, new float[]{10});
+        assertEquals(2, tier.size());
+
+        long[] starts = new long[5];
+        float[] values = new float[5];
+        assertEquals(2, tier.copy(0, RollupTier.MIN, 0, Long.MAX_VALUE, starts, values));
+        assertEquals(0, starts[0]);
+        assertEquals(S, starts[1]);
+        assertEquals(1, values[0], 0);
+        tier.copy(0, RollupTier.MAX, 0, Long.MAX_VALUE, null, values);
+        assertEquals(3, values[0], 0);
+        tier.copy(0, RollupTier.MEAN, 0, Long.MAX_VALUE, null, values);
+        assertEquals(2, values[0], 1e-6);
+        assertEquals(10, values[1], 0);
+        tier.copy(0, RollupTier.LAST, 0, Long.MAX_VALUE, null, values);
+        assertEquals(2, values[0], 0);
+    }
+
+    @Test
+    public void add_lateValuesGoToTheNewestBucket() {
+        RollupTier tier = new RollupTier(S, 5, 1);
+        tier.add(2 * S + 1, new float[]{4});
+        tier.add(S + 1, new float[]{8}); // a late frame
+        assertEquals(1, tier.size());
+        assertEquals(2 * S, tier.latestNanos());
+        assertEquals(6, tier.aggregate(0, RollupTier.MEAN, 0, Long.MAX_VALUE), 1e-6);
+    }
+
+    @Test
+    public void add_nanIsNotAdded() {
+        RollupTier tier = new RollupTier(S, 5, 2);
+        tier.add(0, new float[]{1, Float.NaN});
+        tier.add(1, new float[]{Float.NaN, Float.NaN});
+        tier.add(S, new float[]{Float.NaN, 5});
+        float[] values = new float[2];
+        tier.copy(0, RollupTier.MEAN, 0, Long.MAX_VALUE, null, values);
+        assertEquals(1, values[0], 0);
+        assertTrue(Float.isNaN(values[1])); // no value in the second bucket
+        tier.copy(1, RollupTier.MAX, 0, Long.MAX_VALUE, null, values);
+        assertTrue(Float.isNaN(values[0]));
+        assertEquals(5, values[1], 0);
+    }
+
+    @Test
+    public void add_overwritesTheOldestBucketsWithoutEmptyOnesForGaps() {
+        RollupTier tier = new RollupTier(S, 3, 1);
+        for (int i = 0; i < 5; i++) tier.add(i * S, new float[]{i});
+        tier.add(60 * S, new float[]{60}); // nothing in between
+        assertEquals(3, tier.size());
+        long[] starts = new long[3];
+        float[] values = new float[3];
+        assertEquals(3, tier.copy(0, RollupTier.LAST, 0, Long.MAX_VALUE, starts, values));
+        assertArrayEquals(new long[]{3 * S, 4 * S, 60 * S}, starts);
+        assertArrayEquals(new float[]{3, 4, 60}, values, 0);
+    }
+
+    @Test
+    public void add_fixedPointValues() {
+        RollupTier tier = new RollupTier(S, 2, 2);
+        tier.add(0, new short[]{3700, 3650}, 1 / 1000f);
+        tier.add(1, new short[]{3710, 3640}, 1 / 1000f);
+        assertEquals(3.71f, tier.aggregate(0, RollupTier.MAX, 0, 0), 1e-6);
+        assertEquals(3.64f, tier.aggregate(1, RollupTier.MIN, 0, 0), 1e-6);
+    }
+
+    @Test
+    public void aggregate_overSeveralBuckets() {
+        RollupTier tier = new RollupTier(S, 10, 1);
+        tier.add(0, new float[]{5});
+        tier.add(1, new float[]{7});          // bucket 0: 5, 7
+        tier.add(S, new float[]{2});          // bucket 1: 2
+        tier.add(2 * S, new float[]{9});
+        tier.add(2 * S + 1, new float[]{3});  // bucket 2: 9, 3
+        assertEquals(2, tier.aggregate(0, RollupTier.MIN, 0, 2 * S), 0);
+        assertEquals(9, tier.aggregate(0, RollupTier.MAX, 0, 2 * S), 0);
+        assertEquals(26 / 5f, tier.aggregate(0, RollupTier.MEAN, 0, 2 * S), 1e-6); // all values, not the mean of the buckets
+        assertEquals(3, tier.aggregate(0, RollupTier.LAST, 0, 2 * S), 0);
+        // buckets starting in the range, both ends included
+        assertEquals(7, tier.aggregate(0, RollupTier.MAX, 0, S - 1), 0);
+        assertEquals(2, tier.aggregate(0, RollupTier.LAST, 1, S), 0);
+        assertTrue(Float.isNaN(tier.aggregate(0, RollupTier.MEAN, 3 * S, 9 * S)));
+        assertTrue(Float.isNaN(tier.aggregate(0, RollupTier.MIN, 3 * S, 9 * S)));
+    }
+
+    @Test
+    public void clear_startsAgain() {
+        RollupTier tier = new RollupTier(S, 3, 1);
+        tier.add(5 * S, new float[]{1});
+        tier.clear();
+        assertEquals(0, tier.size());
+        tier.add(S, new float[]{2}); // before the old bucket, but the rollup was cleared
+        assertEquals(1, tier.size());
+        assertEquals(S, tier.latestNanos());
+    }
+
+    @Test
+    public void tierFor_coarsestTierWithEnoughBuckets() {
+        Rollup rollup = new Rollup(new int[]{1, 10, 60}, new int[]{600, 360, 1440}, 1);
+        assertSame(rollup.tier(0), rollup.tierFor(5 * S));
+        assertSame(rollup.tier(0), rollup.tierFor(99 * S));
+        assertSame(rollup.tier(1), rollup.tierFor(100 * S)); // 10 buckets of 10 s
+        assertSame(rollup.tier(1), rollup.tierFor(599 * S));
+        assertSame(rollup.tier(2), rollup.tierFor(600 * S)); // 10 buckets of 1 min
+        assertSame(rollup.tier(2), rollup.tierFor(24 * 3600 * S));
+    }
+
+    @Test
+    public void tierFor_coarserTierIfTheRingIsTooShort() {
+        Rollup rollup = new Rollup(new int[]{1, 10}, new int[]{60, 360}, 1);
+        assertSame(rollup.tier(0), rollup.tierFor(60 * S));
+        assertSame(rollup.tier(1), rollup.tierFor(90 * S)); // 1 s has enough buckets, but only for the last minute
+    }
+
+    @Test
+    public void aggregate_fromTheTierForTheWindow() {
+        Rollup rollup = new Rollup(new int[]{1, 10}, new int[]{60, 360}, 2);
+        for (int i = 0; i < 300; i++) rollup.add(i * S, new float[]{i, 1});
+        long now = 299 * S;
+        assertEquals(289, rollup.aggregate(0, RollupTier.MIN, 10 * S, now), 0); // 1 s buckets from 289 s on
+        assertEquals(210, rollup.aggregate(0, RollupTier.MIN, 95 * S, now), 0); // 10 s buckets starting from 204 s on
+        assertEquals(0, rollup.aggregate(0, RollupTier.MIN, 299 * S, now), 0);   // older than the 1 s ring
+        assertEquals(1, rollup.aggregate(1, RollupTier.MEAN, 299 * S, now), 0);
+        rollup.clear();
+        assertTrue(Float.isNaN(rollup.aggregate(0, RollupTier.LAST, 10 * S, now)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsUnorderedTiers() {
+        new Rollup(new int[]{10, 1}, new int[]{60, 60}, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsMissingBucketCount() {
+        new Rollup(new int[]{1, 10}, new int[]{60}, 1);
+    }
+}
@@ -0,0 +1,113 @@
+package de.frauas.informatik.batterydashboard.ui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs value sequences through the WarningEngine and checks when the warnings start and end (threshold, hysteresis, debounce).
+ */
+public class WarningEngineTest {
+    private static final long MILLI = 1_000_000L;
+    private static final long DEBOUNCE = 500 * MILLI;
+
+    private final short[] cells = new short[2];
+    private final short[] temps = new short[1];
+    private final int[] chargerTemps = new int[1];
+    private final int[] chargingAmps = new int[1];
+    private final int[] capacities = {100};
+    private long time = 1000 * MILLI;
+
+    @Test
+    public void check_warningStartsAfterTheDebounce() {
+        WarningEngine engine = voltageEngine();
+        check(engine, 3650, 300); // above 4000 mV - 10 %
+        check(engine, 3650, 300);
+        assertFalse(engine.isActive(WarningEngine.CELL_VOLTAGE_HIGH, 0));
+        check(engine, 3650, 300);
+        assertTrue(engine.isActive(WarningEngine.CELL_VOLTAGE_HIGH, 0));
+        assertFalse(engine.isActive(WarningEngine.CELL_VOLTAGE_HIGH, 1));
+        assertEquals(1 << WarningEngine.CELL_VOLTAGE_HIGH, engine.categories());
+    }
+
+    @Test
+    public void check_shortPeaksDontWarn() {
+        WarningEngine engine = voltageEngine();
+        for (int i = 0; i < 20; i++) {
+            check(engine, 3650, 300);
+            check(engine, 3590, 100); // back below the threshold, the debounce starts again
+        }
+        assertEquals(0, engine.categories());
+    }
+
+    @Test
+    public void check_hysteresisKeepsTheWarning() {
+        WarningEngine engine = voltageEngine();
+        check(engine, 3650, DEBOUNCE / MILLI);
+        check(engine, 3650, 0);
+        assertTrue(engine.isActive(WarningEngine.CELL_VOLTAGE_HIGH, 0));
+        for (int i = 0; i < 10; i++) check(engine, 3550, 300); // below the threshold, but not by the hysteresis (100 mV)
+        assertTrue(engine.isActive(WarningEngine.CELL_VOLTAGE_HIGH, 0));
+        check(engine, 3450, 300);
+        check(engine, 3450, 300);
+        assertTrue(engine.isActive(WarningEngine.CELL_VOLTAGE_HIGH, 0)); // ends only after the debounce too
+        check(engine, 3450, 300);
+        assertFalse(engine.isActive(WarningEngine.CELL_VOLTAGE_HIGH, 0));
+        assertEquals(0, engine.categories());
+    }
+
+    @Test
+    public void check_lowLimit() {
+        WarningEngine engine = new WarningEngine(cells.length, temps.length, capacities.length, DEBOUNCE);
+        engine.setLimit(WarningEngine.CAPACITY_LOW, 50, 10, 5); // starts below 55, ends above 60
+        capacities[0] = 56;
+        checkFor(engine, 1000);
+        assertEquals(0, engine.categories());
+        capacities[0] = 54;
+        checkFor(engine, 1000);
+        assertEquals(1 << WarningEngine.CAPACITY_LOW, engine.categories());
+        capacities[0] = 58;
+        checkFor(engine, 1000);
+        assertTrue(engine.isActive(WarningEngine.CAPACITY_LOW, 0));
+        capacities[0] = 61;
+        checkFor(engine, 1000);
+        assertFalse(engine.isActive(WarningEngine.CAPACITY_LOW, 0));
+    }
+
+    @Test
+    public void check_categoriesWithoutLimitAreNotChecked() {
+        WarningEngine engine = voltageEngine();
+        temps[0] = 2000;
+        chargingAmps[0] = 1000;
+        capacities[0] = 0;
+        cells[0] = 3000;
+        checkFor(engine, 1000);
+        assertEquals(0, engine.categories());
+    }
+
+    private WarningEngine voltageEngine() {
+        WarningEngine engine = new WarningEngine(cells.length, temps.length, capacities.length, DEBOUNCE);
+        engine.setLimit(WarningEngine.CELL_VOLTAGE_HIGH, 4000, 10, 100); // starts above 3600, ends below 3500
+        return engine;
+    }
+
+    /**
+     * checks a frame with the voltage of cell 0, the next frame comes the given time later
+     */
+    private void check(WarningEngine engine, int millivolts, long millis) {
+        cells[0] = (short) millivolts;
+        cells[1] = 3000;
+        engine.check(time, cells, temps, chargerTemps, chargingAmps, capacities);
+        time += millis * MILLI;
+    }
+
+    /**
+     * checks the same values every 100 ms for the given time
+     */
+    private void checkFor(WarningEngine engine, long millis) {
+        for (long t = 0; t <= millis; t += 100) {
+            engine.check(time, cells, temps, chargerTemps, chargingAmps, capacities);
+            time += 100 * MILLI;
+        }
+    }
+}